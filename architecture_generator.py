@@ -1,39 +1,208 @@
 # architecture_generator.py
 import os
-from java_parser import extract_class_structure
+from java_parser import parse_files_parallel
+from repo_discovery import discover_repo, java_sources
 
 
-def analyze_repo_architecture(repo_path: str):
+def build_repo_models(repo_path: str, parse_workers: int = None, source_files: list = None):
     """
-    Analyze Java repository and extract class architecture information.
+    Parse every Java file in the repository exactly once.
     
     Args:
         repo_path: Path to the Java repository
+        parse_workers: Parser processes to use (default: CPU count)
+        source_files: SourceFile list from discover_repo; discovered here if omitted
+        
+    Returns:
+        Dictionary mapping repo-relative file paths to per-file models
+    """
+    if source_files is None:
+        source_files = discover_repo(repo_path)
+    paths = [os.path.join(repo_path, f.rel_path) for f in java_sources(source_files)]
+
+    models = {}
+    for _, model in parse_files_parallel(paths, root=repo_path, workers=parse_workers):
+        if model:
+            models[model["file_path"]] = model
+
+    return models
+
+
+def architecture_from_models(models: dict):
+    """
+    Build architecture entries from already-parsed file models.
+    
+    Args:
+        models: Dictionary of per-file models from build_repo_models
         
     Returns:
         List of dictionaries containing class information
     """
     architecture = []
 
-    for root, _, files in os.walk(repo_path):
-        for file in files:
-            if file.endswith(".java"):
-                full_path = os.path.join(root, file)
-                try:
-                    with open(full_path, 'r', encoding='utf-8') as f:
-                        code = f.read()
-
-                    class_info = extract_class_structure(code)
-                    if class_info and class_info.get("class_name"):
-                        class_info["file_path"] = os.path.relpath(full_path, repo_path)
-                        architecture.append(class_info)
-                except Exception as e:
-                    print(f"⚠️ Error processing {full_path}: {e}")
-                    continue
+    for rel_path, model in models.items():
+        if model.get("class_name"):
+            package = model.get("package")
+            architecture.append({
+                "class_name": model["class_name"],
+                "package": package,
+                "fqn": f"{package}.{model['class_name']}" if package else model["class_name"],
+                "imports": model["imports"],
+                "wildcard_imports": model.get("wildcard_imports", []),
+                "references": model.get("references", []),
+                "extends": model["extends"],
+                "implements": model["implements"],
+                "file_path": rel_path
+            })
 
     return architecture
 
 
+class DependencyIndex:
+    """
+    Resolves type names to classes in the repository through a fully-qualified-name index.
+
+    Names are resolved the way javac does: single-type imports first, then the
+    class's own package, then wildcard imports. Every lookup is a dictionary
+    access, so resolving a whole repo is linear in its imports and references.
+    When several files declare the same FQN (a test double or a generated copy
+    of a main class), all of them are kept in by_fqn_all and by_fqn points at
+    the one under a main source root.
+    """
+
+    def __init__(self, architecture: list):
+        self.by_fqn_all = {}
+        for cls in architecture:
+            self.by_fqn_all.setdefault(class_key(cls), []).append(cls)
+        self.by_fqn = {}
+        simple_name_counts = {}
+        for fqn, entries in self.by_fqn_all.items():
+            if len(entries) > 1:
+                entries.sort(key=_source_rank)
+                _warn_duplicate(fqn, entries)
+            self.by_fqn[fqn] = entries[0]
+            simple_name_counts[entries[0]["class_name"]] = simple_name_counts.get(entries[0]["class_name"], 0) + 1
+
+        # Diagram node ids: the simple name unless another class shares it
+        self.node_ids = {}
+        for fqn, cls in self.by_fqn.items():
+            if simple_name_counts[cls["class_name"]] > 1:
+                self.node_ids[fqn] = fqn.replace(".", "_")
+            else:
+                self.node_ids[fqn] = cls["class_name"]
+
+        self._explicit_imports = {}
+
+    def _imports_of(self, cls: dict) -> dict:
+        """Map simple names to the fully-qualified names a class imports explicitly."""
+        key = class_key(cls)
+        imports = self._explicit_imports.get(key)
+        if imports is None:
+            imports = {}
+            for imp in cls.get("imports") or []:
+                if imp in cls.get("wildcard_imports", ()):
+                    continue
+                # Static member imports (a.b.C.member) point at their enclosing class;
+                # imports of types outside the repo keep their own name
+                target = imp
+                if imp not in self.by_fqn and imp.rsplit(".", 1)[0] in self.by_fqn:
+                    target = imp.rsplit(".", 1)[0]
+                imports[imp.rsplit(".", 1)[-1]] = target
+            self._explicit_imports[key] = imports
+        return imports
+
+    def resolve(self, cls: dict, name: str):
+        """Resolve a (possibly dotted) type name used in cls to a repo class FQN, or None."""
+        if not name:
+            return None
+        if name in self.by_fqn:
+            return name
+        simple = name.split(".", 1)[0]
+
+        imports = self._imports_of(cls)
+        if simple in imports:
+            # A single-type import shadows the package and wildcards, even when it names an external type
+            imported = imports[simple]
+            return imported if imported in self.by_fqn else None
+
+        package = cls.get("package")
+        candidate = f"{package}.{simple}" if package else simple
+        if candidate in self.by_fqn:
+            return candidate
+
+        for wildcard in cls.get("wildcard_imports") or []:
+            candidate = f"{wildcard}.{simple}"
+            if candidate in self.by_fqn:
+                return candidate
+        return None
+
+    def dependencies(self, cls: dict) -> list:
+        """Return the sorted FQNs of repo classes that cls imports or references."""
+        own = class_key(cls)
+        deps = set()
+        deps.update(target for target in self._imports_of(cls).values() if target in self.by_fqn)
+        for name in cls.get("references") or []:
+            target = self.resolve(cls, name)
+            if target:
+                deps.add(target)
+        deps.discard(own)
+        return sorted(deps)
+
+    def node_id(self, cls_or_fqn) -> str:
+        """Diagram node id for a class entry or FQN."""
+        fqn = cls_or_fqn if isinstance(cls_or_fqn, str) else class_key(cls_or_fqn)
+        return self.node_ids.get(fqn, fqn)
+
+    def type_node(self, cls: dict, name: str) -> str:
+        """Node id for a supertype: the repo class if it resolves, else the name as written."""
+        target = self.resolve(cls, name)
+        return self.node_ids[target] if target else name
+
+
+# Path segments of test and generated source roots, which lose to main sources on duplicate FQNs
+_SECONDARY_SOURCE_DIRS = {"test", "tests", "generated", "generated-sources", "generated-test-sources"}
+
+_warned_duplicates = set()
+
+
+def _source_rank(cls: dict) -> int:
+    """Sort key for classes sharing an FQN: src/main first, test and generated sources last."""
+    parts = cls.get("file_path", "").split("/")
+    if any(a == "src" and b == "main" for a, b in zip(parts, parts[1:])):
+        return 0
+    if _SECONDARY_SOURCE_DIRS.intersection(parts):
+        return 2
+    return 1
+
+
+def _warn_duplicate(fqn: str, entries: list):
+    if fqn in _warned_duplicates:
+        return
+    _warned_duplicates.add(fqn)
+    others = ", ".join(cls.get("file_path", "?") for cls in entries[1:])
+    print(f"⚠️ {fqn} is declared in {len(entries)} files; "
+          f"using {entries[0].get('file_path', '?')} (also in {others})")
+
+
+def class_key(cls: dict) -> str:
+    """Fully-qualified name of an architecture entry (simple name when the package is unknown)."""
+    return cls.get("fqn") or cls["class_name"]
+
+
+def analyze_repo_architecture(repo_path: str, parse_workers: int = None):
+    """
+    Analyze Java repository and extract class architecture information.
+    
+    Args:
+        repo_path: Path to the Java repository
+        parse_workers: Parser processes to use (default: CPU count)
+        
+    Returns:
+        List of dictionaries containing class information
+    """
+    return architecture_from_models(build_repo_models(repo_path, parse_workers))
+
+
 def architecture_to_markdown(architecture: list) -> str:
     """
     Convert architecture data to markdown format.
@@ -0,0 +1,305 @@
+# batch_runner.py
+import os
+import json
+import time
+
+from java_parser import method_blocks
+from method_classifier import classify_methods
+from method_dedup import method_signature, adapt_comment
+from comment_generator import pending_requests, clean_class_comment, MODEL, TEMPERATURE
+
+BATCH_DIR_SUFFIX = "_batch"
+BATCH_STATE_NAME = "state.json"
+BATCH_ENDPOINT = "/v1/chat/completions"
+COMPLETION_WINDOW = "24h"
+
+# Provider limit on requests per batch file
+MAX_REQUESTS_PER_BATCH = 50_000
+
+DEFAULT_POLL_INTERVAL = 30.0
+
+# Batch states after which a job will not change any more
+TERMINAL_STATES = {"completed", "failed", "expired", "cancelled"}
+
+
+class BatchBackend:
+    """
+    Provider batch API used by --batch-mode.
+
+    A backend uploads a JSONL request file, starts a job for it, reports the
+    job's status and returns the contents of its output files.
+    """
+
+    def upload(self, path: str) -> str:
+        """Upload a JSONL request file and return its file id."""
+        raise NotImplementedError
+
+    def submit(self, file_id: str) -> str:
+        """Start a batch job for an uploaded file and return the job id."""
+        raise NotImplementedError
+
+    def status(self, batch_id: str) -> dict:
+        """Return a dict with 'status', 'output_file_id', 'error_file_id', 'completed', 'failed' and 'total'."""
+        raise NotImplementedError
+
+    def download(self, file_id: str) -> str:
+        """Return the text content of an output or error file."""
+        raise NotImplementedError
+
+
+class OpenAIBatchBackend(BatchBackend):
+    """OpenAI files and batches endpoints; honors OPENAI_BASE_URL for local stand-ins."""
+
+    def __init__(self):
+        from openai import OpenAI
+        self.client = OpenAI(api_key=os.getenv("OPENAI_API_KEY"))
+
+    def upload(self, path: str) -> str:
+        with open(path, "rb") as f:
+            return self.client.files.create(file=f, purpose="batch").id
+
+    def submit(self, file_id: str) -> str:
+        batch = self.client.batches.create(
+            input_file_id=file_id, endpoint=BATCH_ENDPOINT, completion_window=COMPLETION_WINDOW
+        )
+        return batch.id
+
+    def status(self, batch_id: str) -> dict:
+        batch = self.client.batches.retrieve(batch_id)
+        counts = batch.request_counts
+        return {
+            "status": batch.status,
+            "output_file_id": batch.output_file_id,
+            "error_file_id": batch.error_file_id,
+            "completed": counts.completed if counts else 0,
+            "failed": counts.failed if counts else 0,
+            "total": counts.total if counts else 0,
+        }
+
+    def download(self, file_id: str) -> str:
+        return self.client.files.content(file_id).text
+
+
+BATCH_BACKENDS = {"openai": OpenAIBatchBackend}
+
+
+def collect_requests(java_files: list, models: dict, cache=None, dedup: bool = True) -> tuple:
+    """
+    Render every uncached prompt of the files to be commented.
+
+    Method and class sources are sliced and classified exactly as the pipeline
+    does it, so each request's cache key is the one the pipeline looks up
+    afterwards and documented or trivial members are never submitted. Class
+    comments are not batched: their outline carries the method summaries, so
+    the pipeline requests them live once the batch has answered the methods.
+    Identical methods across files become a single request, and with dedup
+    so do methods that differ only in variable names.
+
+    Args:
+        java_files: (source path, output path) pairs, or source paths
+        models: Source path -> parsed model
+        cache: Comment store consulted for already generated comments
+        dedup: Group methods by canonical form
+
+    Returns:
+        Tuple of (cache key -> (kind, prompt, max_tokens), follower cache key ->
+        [leader cache key, leader variables, follower variables])
+    """
+    requests = {}
+    followers = {}
+    leaders = {}
+    for item in java_files:
+        path = item[0] if isinstance(item, tuple) else item
+        model = models.get(path)
+        if not model or not model["methods"]:
+            continue
+        try:
+            with open(path, "r", encoding="utf-8") as f:
+                lines = f.readlines()
+        except OSError as e:
+            print(f"⚠️ Skipping {path} in batch: {e}")
+            continue
+        blocks = method_blocks(model, lines)
+        _, api_indices, _ = classify_methods(model["methods"])
+        method_codes = [blocks[i][2] for i in api_indices]
+        for key, kind, source, prompt, max_tokens in pending_requests(method_codes, None, cache):
+            if kind == "method" and dedup and key not in requests:
+                digest, variables, _ = method_signature(source)
+                leader = leaders.setdefault(digest, (key, variables))
+                if leader[0] != key:
+                    followers[key] = [leader[0], list(leader[1]), list(variables)]
+                    continue
+            requests.setdefault(key, (kind, prompt, max_tokens))
+    return requests, followers
+
+
+def write_request_files(requests: dict, batch_dir: str, max_requests: int = MAX_REQUESTS_PER_BATCH) -> list:
+    """Write requests as batch JSONL files of at most max_requests lines; returns the file paths."""
+    os.makedirs(batch_dir, exist_ok=True)
+    paths = []
+    f = None
+    for count, (key, (_, prompt, max_tokens)) in enumerate(requests.items()):
+        if count % max_requests == 0:
+            if f:
+                f.close()
+            paths.append(os.path.join(batch_dir, f"requests-{len(paths):03d}.jsonl"))
+            f = open(paths[-1], "w", encoding="utf-8")
+        f.write(json.dumps({
+            "custom_id": key,
+            "method": "POST",
+            "url": BATCH_ENDPOINT,
+            "body": {
+                "model": MODEL,
+                "messages": [{"role": "user", "content": prompt}],
+                "temperature": TEMPERATURE,
+                "max_tokens": max_tokens,
+            },
+        }, ensure_ascii=False) + "\n")
+    if f:
+        f.close()
+    return paths
+
+
+def _load_state(batch_dir: str):
+    path = os.path.join(batch_dir, BATCH_STATE_NAME)
+    if not os.path.exists(path):
+        return None
+    try:
+        with open(path, "r", encoding="utf-8") as f:
+            return json.load(f)
+    except (OSError, ValueError):
+        return None
+
+
+def _save_state(batch_dir: str, state: dict):
+    path = os.path.join(batch_dir, BATCH_STATE_NAME)
+    with open(path + ".tmp", "w", encoding="utf-8") as f:
+        json.dump(state, f)
+    os.replace(path + ".tmp", path)
+
+
+def apply_results(content: str, class_keys: set, store) -> tuple:
+    """
+    Store the comments of a batch output file.
+
+    Returns:
+        Tuple of (key -> comment for successful requests, number of failed requests)
+    """
+    comments = {}
+    failed = 0
+    for line in content.splitlines():
+        if not line.strip():
+            continue
+        try:
+            record = json.loads(line)
+            response = record.get("response") or {}
+            if response.get("status_code") != 200:
+                failed += 1
+                continue
+            comment = response["body"]["choices"][0]["message"]["content"]
+        except (ValueError, KeyError, IndexError, TypeError):
+            failed += 1
+            continue
+        key = record["custom_id"]
+        comment = clean_class_comment(comment) if key in class_keys else comment.strip()
+        if not comment:
+            failed += 1
+            continue
+        comments[key] = comment
+        if store is not None:
+            store.put(key, comment)
+    return comments, failed
+
+
+def default_batch_dir(output_base: str, repo_name: str) -> str:
+    """Batch request files and job state live outside the mirror, which a clean run wipes."""
+    return os.path.join(output_base, f".{repo_name}{BATCH_DIR_SUFFIX}")
+
+
+def run_batch(java_files: list, models: dict, batch_dir: str, backend: BatchBackend, store=None,
+              poll_interval: float = DEFAULT_POLL_INTERVAL, dedup: bool = True) -> dict:
+    """
+    Generate comments through the provider's batch API.
+
+    Renders every uncached prompt into JSONL files, submits them, polls until
+    the jobs finish and stores each result under its cache key (the request's
+    custom_id). The regular pipeline then splices the stored comments and only
+    calls the live API for requests the batch could not answer. Submitted job
+    ids are saved in batch_dir, so an interrupted run resumes polling the same
+    jobs instead of submitting again.
+
+    Args:
+        java_files: (source path, output path) pairs to be commented
+        models: Source path -> parsed model
+        batch_dir: Directory for request files and job state
+        backend: BatchBackend used to submit and poll jobs
+        store: Comment store (get/put) the pipeline reads from
+        poll_interval: Seconds between status checks
+        dedup: Submit one request per canonical method form
+
+    Returns:
+        Dictionary with 'comments' (key -> comment), 'requests' and 'failed' counts
+    """
+    state = _load_state(batch_dir)
+    if state:
+        print(f"Resuming {len(state['batches'])} submitted batch jobs")
+    else:
+        requests, followers = collect_requests(java_files, models, store, dedup)
+        if not requests:
+            print("Batch mode: every comment is already cached")
+            return {"comments": {}, "requests": 0, "failed": 0}
+        paths = write_request_files(requests, batch_dir)
+        state = {
+            "class_keys": [key for key, (kind, _, _) in requests.items() if kind == "class"],
+            "requests": len(requests),
+            "followers": followers,
+            "batches": [],
+        }
+        for path in paths:
+            batch_id = backend.submit(backend.upload(path))
+            state["batches"].append({"id": batch_id, "done": False})
+            _save_state(batch_dir, state)
+        print(f"Submitted {len(requests)} requests in {len(paths)} batch jobs "
+              f"({len(followers)} duplicate methods will reuse their group's comment)")
+
+    class_keys = set(state["class_keys"])
+    comments = {}
+    failed = 0
+    pending = [batch for batch in state["batches"] if not batch["done"]]
+    while pending:
+        completed = total = 0
+        for batch in list(pending):
+            status = backend.status(batch["id"])
+            if status["status"] not in TERMINAL_STATES:
+                completed += status["completed"]
+                total += status["total"]
+                continue
+            for file_id in (status["output_file_id"], status["error_file_id"]):
+                if file_id:
+                    file_comments, file_failed = apply_results(backend.download(file_id), class_keys, store)
+                    comments.update(file_comments)
+                    failed += file_failed
+            if status["status"] != "completed":
+                print(f"⚠️ Batch {batch['id']} ended as {status['status']}")
+            batch["done"] = True
+            pending.remove(batch)
+            _save_state(batch_dir, state)
+        if pending:
+            print(f"Batch progress: {completed}/{total} requests done in {len(pending)} pending jobs")
+            time.sleep(poll_interval)
+
+    # Duplicates take their leader's comment with their own variable names and are stored
+    # under their own key, so a later run finds them without their leader's file
+    for key, (leader_key, leader_variables, variables) in state.get("followers", {}).items():
+        leader_comment = comments.get(leader_key) or (store.get(leader_key) if store is not None else None)
+        if leader_comment:
+            comments[key] = adapt_comment(leader_comment, tuple(leader_variables), tuple(variables))
+            if store is not None:
+                store.put(key, comments[key])
+
+    # Comments are journaled and cached by now; drop the request files and job state
+    for name in os.listdir(batch_dir):
+        os.remove(os.path.join(batch_dir, name))
+    os.rmdir(batch_dir)
+    print(f"Batch mode: {len(comments)} comments received, {failed} requests failed")
+    return {"comments": comments, "requests": state["requests"], "failed": failed}
@@ -0,0 +1,232 @@
+# benchmarks/bench_e2e.py
+"""
+End-to-end throughput benchmarks against synthetic corpora and a mock API.
+
+Scenarios:
+    extract       extract_methods_with_lines over every file, in process
+    architecture  analyze_repo_architecture with the parser process pool
+    comment       process_java_files_parallel against the local mock server
+
+Each (scenario, size) runs in its own subprocess so peak RSS is measured in
+isolation. Results are written as a JSON baseline; pass --compare to print
+the change against an earlier baseline.
+
+Usage:
+    python benchmarks/bench_e2e.py --sizes 100 10000 100000 --comment-sizes 100 10000 \\
+        --latency-ms 300 --rate-limit-rate 0.02 --save benchmarks/baselines/local.json
+    python benchmarks/bench_e2e.py --compare benchmarks/baselines/local.json
+"""
+import os
+import sys
+import json
+import time
+import shutil
+import argparse
+import platform
+import resource
+import tempfile
+import subprocess
+
+sys.path.insert(0, os.path.dirname(os.path.dirname(os.path.abspath(__file__))))
+sys.path.insert(0, os.path.dirname(os.path.abspath(__file__)))
+from synthetic_corpus import generate_corpus  # noqa: E402
+from mock_openai_server import MockOpenAIServer, add_mock_arguments, settings_from_args  # noqa: E402
+
+SCENARIOS = ("extract", "architecture", "comment")
+
+# Metrics compared against a baseline, with the direction that counts as better
+COMPARED_METRICS = {"files_per_sec": "higher", "requests_per_sec": "higher", "p50_ms": "lower",
+                    "p99_ms": "lower", "peak_rss_mb": "lower"}
+
+
+def percentile(values: list, fraction: float):
+    """Nearest-rank percentile of a list of numbers, or None when empty."""
+    if not values:
+        return None
+    ordered = sorted(values)
+    return ordered[min(len(ordered) - 1, max(0, int(round(fraction * len(ordered))) - 1))]
+
+
+def peak_rss_mb() -> float:
+    """Peak resident set size of this process and its reaped children (parse pool) in MiB."""
+    scale = 1 if sys.platform == "darwin" else 1024  # ru_maxrss is bytes on macOS, KiB on Linux
+    own = resource.getrusage(resource.RUSAGE_SELF).ru_maxrss
+    children = resource.getrusage(resource.RUSAGE_CHILDREN).ru_maxrss
+    return max(own, children) * scale / (1 << 20)
+
+
+def _java_paths(corpus: str) -> list:
+    from repo_discovery import discover_repo, java_sources
+    return [os.path.join(corpus, f.rel_path) for f in java_sources(discover_repo(corpus))]
+
+
+def run_extract(corpus: str, args) -> dict:
+    from java_parser import extract_methods_with_lines
+    paths = _java_paths(corpus)
+    latencies = []
+    start = time.perf_counter()
+    for path in paths:
+        file_start = time.perf_counter()
+        with open(path, "r", encoding="utf-8") as f:
+            extract_methods_with_lines(f.read())
+        latencies.append((time.perf_counter() - file_start) * 1000)
+    return {"seconds": time.perf_counter() - start, "files": len(paths), "latencies_ms": latencies}
+
+
+def run_architecture(corpus: str, args) -> dict:
+    from architecture_generator import analyze_repo_architecture
+    start = time.perf_counter()
+    architecture = analyze_repo_architecture(corpus, parse_workers=args.parse_workers)
+    return {"seconds": time.perf_counter() - start, "files": len(_java_paths(corpus)),
+            "classes": len(architecture), "latencies_ms": []}
+
+
+def run_comment(corpus: str, args) -> dict:
+    import comment_generator
+    from main import process_java_files_parallel
+
+    # Client-observed latency of every completion, including retries and backoff
+    latencies = []
+    create_completion = comment_generator._create_completion
+
+    async def timed_completion(*call_args, **call_kwargs):
+        call_start = time.perf_counter()
+        try:
+            return await create_completion(*call_args, **call_kwargs)
+        finally:
+            latencies.append((time.perf_counter() - call_start) * 1000)
+
+    comment_generator._create_completion = timed_completion
+
+    # Comment a scratch copy so the cached corpus stays pristine
+    work = tempfile.mkdtemp(prefix="bench_comment_")
+    try:
+        repo = os.path.join(work, "repo")
+        shutil.copytree(corpus, repo)
+        paths = _java_paths(repo)
+        start = time.perf_counter()
+        process_java_files_parallel(repo, max_workers=args.workers, max_inflight=args.max_inflight,
+                                    packed=args.packed, parse_workers=args.parse_workers)
+        seconds = time.perf_counter() - start
+    finally:
+        shutil.rmtree(work, ignore_errors=True)
+    return {"seconds": seconds, "files": len(paths), "latencies_ms": latencies, "calls": len(latencies)}
+
+
+RUNNERS = {"extract": run_extract, "architecture": run_architecture, "comment": run_comment}
+
+
+def run_one(args):
+    """Child process entry point: run one scenario and print its result as JSON."""
+    corpus = generate_corpus(os.path.join(args.work_dir, f"corpus_{args.files}"), args.files)
+    result = RUNNERS[args.run_one](corpus, args)
+    latencies = result.pop("latencies_ms")
+    result.update({
+        "scenario": args.run_one,
+        "files_per_sec": result["files"] / result["seconds"] if result["seconds"] else None,
+        "p50_ms": percentile(latencies, 0.50),
+        "p99_ms": percentile(latencies, 0.99),
+        "peak_rss_mb": peak_rss_mb(),
+    })
+    print(json.dumps(result))
+
+
+def _child_command(args, scenario: str, files: int) -> list:
+    command = [sys.executable, os.path.abspath(__file__), "--run-one", scenario, "--files", str(files),
+               "--work-dir", args.work_dir, "--workers", str(args.workers),
+               "--max-inflight", str(args.max_inflight)]
+    if args.parse_workers:
+        command += ["--parse-workers", str(args.parse_workers)]
+    if args.packed:
+        command.append("--packed")
+    return command
+
+
+def run_suite(args) -> dict:
+    server = MockOpenAIServer(settings_from_args(args))
+    env = dict(os.environ, OPENAI_BASE_URL=server.start(), OPENAI_API_KEY="mock")
+    results = []
+    try:
+        plan = [(scenario, size) for scenario in args.scenarios
+                for size in (args.comment_sizes if scenario == "comment" else args.sizes)]
+        for scenario, size in plan:
+            before = server.settings.snapshot()
+            print(f"▶ {scenario} on {size} files...", flush=True)
+            child = subprocess.run(_child_command(args, scenario, size), env=env, capture_output=True, text=True)
+            if child.returncode != 0:
+                print(f"  ❌ failed:\n{child.stderr[-2000:]}")
+                continue
+            result = json.loads(child.stdout.strip().splitlines()[-1])
+            after = server.settings.snapshot()
+            http = {key: after[key] - before[key] for key in after}
+            result["http"] = http
+            result["requests_per_sec"] = http["requests"] / result["seconds"] if http["requests"] else None
+            results.append(result)
+            print(f"  {result['files_per_sec']:.1f} files/s, peak RSS {result['peak_rss_mb']:.0f} MiB"
+                  + (f", {result['requests_per_sec']:.1f} req/s, p50 {result['p50_ms']:.0f} ms, "
+                     f"p99 {result['p99_ms']:.0f} ms" if result["requests_per_sec"] else ""))
+    finally:
+        server.stop()
+
+    return {
+        "created": time.strftime("%Y-%m-%dT%H:%M:%S"),
+        "machine": {"python": platform.python_version(), "platform": platform.platform(),
+                    "cpus": os.cpu_count()},
+        "config": {key: getattr(args, key) for key in ("latency_ms", "latency_dist", "latency_sigma", "error_rate",
+                                                       "rate_limit_rate", "workers", "max_inflight",
+                                                       "parse_workers", "packed")},
+        "results": results,
+    }
+
+
+def compare(current: dict, baseline: dict):
+    """Print per-metric changes between two baselines."""
+    previous = {(r["scenario"], r["files"]): r for r in baseline["results"]}
+    print(f"\nCompared with baseline from {baseline['created']}:")
+    for result in current["results"]:
+        old = previous.get((result["scenario"], result["files"]))
+        if not old:
+            continue
+        changes = []
+        for metric, better in COMPARED_METRICS.items():
+            if result.get(metric) is None or not old.get(metric):
+                continue
+            change = result[metric] / old[metric] - 1
+            improved = change > 0 if better == "higher" else change < 0
+            changes.append(f"{metric} {change:+.1%}{' ✅' if improved else ''}")
+        print(f"  {result['scenario']:<12} {result['files']:>7} files: {', '.join(changes)}")
+
+
+if __name__ == "__main__":
+    parser = argparse.ArgumentParser(description="End-to-end CodeComprehender benchmarks")
+    parser.add_argument("--scenarios", nargs="+", choices=SCENARIOS, default=list(SCENARIOS))
+    parser.add_argument("--sizes", nargs="+", type=int, default=[100, 10_000, 100_000],
+                        help="Corpus sizes for extract and architecture (default: 100 10000 100000)")
+    parser.add_argument("--comment-sizes", nargs="+", type=int, default=[100, 10_000],
+                        help="Corpus sizes for the comment scenario (default: 100 10000)")
+    parser.add_argument("--work-dir", default=os.path.join(tempfile.gettempdir(), "codecomprehender_bench"),
+                        help="Where corpora are generated and reused")
+    parser.add_argument("--workers", type=int, default=4)
+    parser.add_argument("--parse-workers", type=int)
+    parser.add_argument("--max-inflight", type=int, default=10)
+    parser.add_argument("--packed", action="store_true")
+    parser.add_argument("--save", help="Write results to this JSON baseline")
+    parser.add_argument("--compare", help="Baseline JSON to compare the results against")
+    parser.add_argument("--run-one", choices=SCENARIOS, help=argparse.SUPPRESS)
+    parser.add_argument("--files", type=int, help=argparse.SUPPRESS)
+    add_mock_arguments(parser)
+    args = parser.parse_args()
+
+    if args.run_one:
+        run_one(args)
+        sys.exit(0)
+
+    report = run_suite(args)
+    if args.save:
+        os.makedirs(os.path.dirname(os.path.abspath(args.save)), exist_ok=True)
+        with open(args.save, "w", encoding="utf-8") as f:
+            json.dump(report, f, indent=2)
+        print(f"Baseline saved to {args.save}")
+    if args.compare:
+        with open(args.compare, "r", encoding="utf-8") as f:
+            compare(report, json.load(f))
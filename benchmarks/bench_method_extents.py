@@ -0,0 +1,102 @@
+# benchmarks/bench_method_extents.py
+"""
+Micro-benchmark for method extent detection.
+
+Compares the token-based extent pass in java_parser against the old
+line-by-line brace scan on synthetic classes of growing size. The token
+pass should take roughly constant time per line; the brace scan grows
+with methods x lines.
+
+Usage:
+    python benchmarks/bench_method_extents.py [--max-lines 10000]
+"""
+import os
+import sys
+import time
+import argparse
+
+import javalang
+
+sys.path.insert(0, os.path.dirname(os.path.dirname(os.path.abspath(__file__))))
+from java_parser import match_braces, method_extent  # noqa: E402
+
+LINES_PER_METHOD = 8
+
+
+def synthetic_class(line_count: int) -> str:
+    """Build a class of roughly line_count lines with braces hidden in literals and comments."""
+    lines = ["public class Generated {"]
+    for i in range(max(1, line_count // LINES_PER_METHOD)):
+        lines.extend([
+            f"    // closes early }} if braces are counted in comments",
+            f"    public String method{i}(int value) {{",
+            f"        String open = \"{{ not a brace\";",
+            f"        char close = '}}';",
+            f"        if (value > {i}) {{",
+            f"            return open + close;",
+            f"        }}",
+            f"        return \"}}\";",
+            f"    }}",
+        ])
+    lines.append("}")
+    return "\n".join(lines)
+
+
+def legacy_brace_scan(lines: list, starts: list) -> list:
+    """The previous approach: scan forward from each method start counting raw braces."""
+    ends = []
+    for start in starts:
+        brace_count = 0
+        end = len(lines) - 1
+        for i in range(start, len(lines)):
+            line = lines[i]
+            brace_count += line.count("{") - line.count("}")
+            if brace_count <= 0 and "}" in line:
+                end = i
+                break
+        ends.append(end)
+    return ends
+
+
+def token_extents(tokens: list, positions: list) -> list:
+    token_index = {token.position: i for i, token in enumerate(tokens)}
+    brace_pairs = match_braces(tokens)
+    return [method_extent(tokens, brace_pairs, token_index[pos]) for pos in positions]
+
+
+def bench(line_count: int) -> dict:
+    code = synthetic_class(line_count)
+    lines = code.splitlines()
+    tokens = list(javalang.tokenizer.tokenize(code))
+    tree = javalang.parser.Parser(tokens).parse()
+    methods = [node for _, node in tree.filter(javalang.tree.MethodDeclaration)]
+    positions = [node.position for node in methods]
+    starts = [pos.line - 1 for pos in positions]
+
+    t0 = time.perf_counter()
+    token_extents(tokens, positions)
+    token_time = time.perf_counter() - t0
+
+    t0 = time.perf_counter()
+    legacy_brace_scan(lines, starts)
+    legacy_time = time.perf_counter() - t0
+
+    return {
+        "lines": len(lines),
+        "methods": len(methods),
+        "token_ms": token_time * 1000,
+        "legacy_ms": legacy_time * 1000,
+    }
+
+
+if __name__ == "__main__":
+    parser = argparse.ArgumentParser(description="Benchmark method extent detection")
+    parser.add_argument("--max-lines", type=int, default=10000, help="Largest synthetic class size (default: 10000)")
+    args = parser.parse_args()
+
+    sizes = [args.max_lines // 8, args.max_lines // 4, args.max_lines // 2, args.max_lines]
+    print(f"{'lines':>8} {'methods':>8} {'token ms':>10} {'us/line':>8} {'legacy ms':>10} {'us/line':>8}")
+    for size in sizes:
+        r = bench(size)
+        print(f"{r['lines']:>8} {r['methods']:>8} {r['token_ms']:>10.2f} {r['token_ms'] * 1000 / r['lines']:>8.2f}"
+              f" {r['legacy_ms']:>10.2f} {r['legacy_ms'] * 1000 / r['lines']:>8.2f}")
@@ -0,0 +1,332 @@
+# benchmarks/mock_openai_server.py
+"""
+Local stand-in for the OpenAI chat-completions and batch endpoints.
+
+Answers POST /v1/chat/completions with canned JavaDoc comments after a
+configurable latency, and injects server errors and 429 rate-limit responses
+at configurable rates. Packed requests (response_format json_object) get one
+comment per "### Method N" section of the prompt.
+
+The batch flow is served from memory: POST /v1/files uploads a JSONL request
+file, POST /v1/batches starts a job that answers every line on a background
+thread (server errors land in the job's error file), GET /v1/batches/{id}
+reports progress and GET /v1/files/{id}/content returns output files.
+
+Point the tool at it with:
+    OPENAI_BASE_URL=http://127.0.0.1:8089/v1 OPENAI_API_KEY=mock
+
+Usage:
+    python benchmarks/mock_openai_server.py [--port 8089] [--latency-ms 300] [--latency-dist lognormal]
+                                            [--error-rate 0.01] [--rate-limit-rate 0.02]
+"""
+import re
+import json
+import time
+import email
+import random
+import argparse
+import threading
+import itertools
+from http.server import ThreadingHTTPServer, BaseHTTPRequestHandler
+
+LATENCY_DISTRIBUTIONS = ("fixed", "uniform", "lognormal")
+
+MOCK_COMMENT = "/**\n * Performs the mocked operation.\n *\n * @return Mocked result\n */"
+
+_PACKED_METHOD = re.compile(r"^### Method (\d+)$", re.MULTILINE)
+
+
+class MockSettings:
+    """Latency and fault injection knobs shared by all request handlers."""
+
+    def __init__(self, latency_ms: float = 300.0, latency_dist: str = "lognormal", latency_sigma: float = 0.5,
+                 error_rate: float = 0.0, rate_limit_rate: float = 0.0, retry_after: float = 0.5, seed: int = None):
+        self.latency_ms = latency_ms
+        self.latency_dist = latency_dist
+        self.latency_sigma = latency_sigma
+        self.error_rate = error_rate
+        self.rate_limit_rate = rate_limit_rate
+        self.retry_after = retry_after
+        self.random = random.Random(seed)
+        self.lock = threading.Lock()
+        self.counts = {"requests": 0, "ok": 0, "errors": 0, "rate_limited": 0}
+
+    def sample_latency(self) -> float:
+        """Seconds to wait before answering; latency_ms is the median for every distribution."""
+        with self.lock:
+            if self.latency_dist == "fixed":
+                millis = self.latency_ms
+            elif self.latency_dist == "uniform":
+                millis = self.random.uniform(0, 2 * self.latency_ms)
+            else:
+                millis = self.latency_ms * self.random.lognormvariate(0, self.latency_sigma)
+        return millis / 1000
+
+    def pick_outcome(self) -> str:
+        with self.lock:
+            self.counts["requests"] += 1
+            roll = self.random.random()
+            if roll < self.rate_limit_rate:
+                outcome = "rate_limited"
+            elif roll < self.rate_limit_rate + self.error_rate:
+                outcome = "errors"
+            else:
+                outcome = "ok"
+            self.counts[outcome] += 1
+            return outcome
+
+    def snapshot(self) -> dict:
+        with self.lock:
+            return dict(self.counts)
+
+
+def completion_body(request: dict) -> dict:
+    """Build a chat-completion response for a request body."""
+    prompt = "".join(message.get("content") or "" for message in request.get("messages", []))
+    if (request.get("response_format") or {}).get("type") == "json_object":
+        indexes = [int(index) for index in _PACKED_METHOD.findall(prompt)]
+        content = json.dumps({"comments": [{"index": index, "comment": MOCK_COMMENT} for index in indexes]})
+    else:
+        content = MOCK_COMMENT
+    prompt_tokens = len(prompt) // 4 + 1
+    completion_tokens = len(content) // 4 + 1
+    return {
+        "id": f"chatcmpl-mock-{random.getrandbits(48):x}",
+        "object": "chat.completion",
+        "created": int(time.time()),
+        "model": request.get("model", "mock"),
+        "choices": [{
+            "index": 0,
+            "message": {"role": "assistant", "content": content},
+            "finish_reason": "stop",
+        }],
+        "usage": {
+            "prompt_tokens": prompt_tokens,
+            "completion_tokens": completion_tokens,
+            "total_tokens": prompt_tokens + completion_tokens,
+        },
+    }
+
+
+class BatchStore:
+    """In-memory files and batch jobs."""
+
+    def __init__(self, settings: MockSettings):
+        self.settings = settings
+        self.files = {}
+        self.batches = {}
+        self.lock = threading.Lock()
+        self._ids = itertools.count(1)
+
+    def add_file(self, content: bytes, filename: str, purpose: str) -> dict:
+        with self.lock:
+            file_id = f"file-mock-{next(self._ids)}"
+            self.files[file_id] = content
+        return {"id": file_id, "object": "file", "bytes": len(content), "created_at": int(time.time()),
+                "filename": filename, "purpose": purpose, "status": "processed"}
+
+    def create_batch(self, request: dict) -> dict:
+        with self.lock:
+            batch_id = f"batch-mock-{next(self._ids)}"
+            lines = [line for line in self.files[request["input_file_id"]].decode("utf-8").splitlines() if line]
+            batch = {
+                "id": batch_id, "object": "batch", "endpoint": request["endpoint"],
+                "input_file_id": request["input_file_id"], "completion_window": request["completion_window"],
+                "status": "in_progress", "created_at": int(time.time()), "output_file_id": None,
+                "error_file_id": None, "errors": None,
+                "request_counts": {"total": len(lines), "completed": 0, "failed": 0},
+            }
+            self.batches[batch_id] = batch
+            created = json.loads(json.dumps(batch))
+        threading.Thread(target=self._run_batch, args=(batch, lines), daemon=True).start()
+        return created
+
+    def _run_batch(self, batch: dict, lines: list):
+        outputs, errors = [], []
+        for line in lines:
+            request = json.loads(line)
+            time.sleep(self.settings.sample_latency() / 100)  # jobs run much faster than live calls
+            outcome = self.settings.pick_outcome()
+            record = {"id": f"batch_req_{next(self._ids)}", "custom_id": request["custom_id"], "error": None}
+            if outcome == "ok":
+                record["response"] = {"status_code": 200, "request_id": record["id"],
+                                      "body": completion_body(request["body"])}
+                outputs.append(record)
+            else:
+                record["response"] = {"status_code": 500, "request_id": record["id"],
+                                      "body": {"error": {"message": "Internal server error (mock)"}}}
+                errors.append(record)
+            with self.lock:
+                batch["request_counts"]["completed" if outcome == "ok" else "failed"] += 1
+
+        output_file = self.add_file("".join(json.dumps(r) + "\n" for r in outputs).encode(), "output.jsonl",
+                                    "batch_output")
+        error_file = self.add_file("".join(json.dumps(r) + "\n" for r in errors).encode(), "errors.jsonl",
+                                   "batch_output") if errors else None
+        with self.lock:
+            batch["output_file_id"] = output_file["id"]
+            batch["error_file_id"] = error_file["id"] if error_file else None
+            batch["status"] = "completed"
+            batch["completed_at"] = int(time.time())
+
+    def get_batch(self, batch_id: str):
+        with self.lock:
+            batch = self.batches.get(batch_id)
+            return json.loads(json.dumps(batch)) if batch else None
+
+
+class MockHandler(BaseHTTPRequestHandler):
+    protocol_version = "HTTP/1.1"
+    settings = MockSettings()
+    batches = BatchStore(settings)
+
+    def log_message(self, format, *args):
+        pass
+
+    def _send_json(self, status: int, body: dict, headers: dict = None):
+        payload = json.dumps(body).encode("utf-8")
+        self.send_response(status)
+        self.send_header("Content-Type", "application/json")
+        self.send_header("Content-Length", str(len(payload)))
+        for name, value in (headers or {}).items():
+            self.send_header(name, value)
+        self.end_headers()
+        self.wfile.write(payload)
+
+    def _read_json(self) -> dict:
+        length = int(self.headers.get("Content-Length") or 0)
+        return json.loads(self.rfile.read(length) or b"{}")
+
+    def _read_upload(self) -> dict:
+        """Parse a multipart/form-data upload into {field name: (filename, bytes)}."""
+        length = int(self.headers.get("Content-Length") or 0)
+        body = self.rfile.read(length)
+        message = email.message_from_bytes(
+            f"Content-Type: {self.headers.get('Content-Type')}\r\n\r\n".encode() + body
+        )
+        fields = {}
+        for part in message.get_payload() if message.is_multipart() else []:
+            fields[part.get_param("name", header="content-disposition")] = (
+                part.get_filename(), part.get_payload(decode=True)
+            )
+        return fields
+
+    def _not_found(self):
+        self._send_json(404, {"error": {"message": f"Unknown path {self.path}", "type": "invalid_request_error"}})
+
+    def do_GET(self):
+        path = self.path.split("?", 1)[0].rstrip("/")
+        match = re.search(r"/batches/([\w-]+)$", path)
+        if match:
+            batch = self.batches.get_batch(match.group(1))
+            if batch:
+                self._send_json(200, batch)
+            else:
+                self._not_found()
+            return
+        match = re.search(r"/files/([\w-]+)/content$", path)
+        if match and match.group(1) in self.batches.files:
+            payload = self.batches.files[match.group(1)]
+            self.send_response(200)
+            self.send_header("Content-Type", "application/octet-stream")
+            self.send_header("Content-Length", str(len(payload)))
+            self.end_headers()
+            self.wfile.write(payload)
+            return
+        self._not_found()
+
+    def do_POST(self):
+        path = self.path.split("?", 1)[0].rstrip("/")
+        if path.endswith("/files"):
+            fields = self._read_upload()
+            filename, content = fields.get("file", ("upload.jsonl", b""))
+            purpose = (fields.get("purpose") or (None, b"batch"))[1].decode()
+            self._send_json(200, self.batches.add_file(content, filename, purpose))
+            return
+        request = self._read_json()
+        if path.endswith("/batches"):
+            if request.get("input_file_id") not in self.batches.files:
+                self._send_json(400, {"error": {"message": "Unknown input file", "type": "invalid_request_error"}})
+                return
+            self._send_json(200, self.batches.create_batch(request))
+            return
+        if not path.endswith("/chat/completions"):
+            self._not_found()
+            return
+
+        time.sleep(self.settings.sample_latency())
+        outcome = self.settings.pick_outcome()
+        if outcome == "rate_limited":
+            self._send_json(
+                429,
+                {"error": {"message": "Rate limit reached (mock)", "type": "requests", "code": "rate_limit_exceeded"}},
+                {"retry-after": f"{self.settings.retry_after:g}"},
+            )
+        elif outcome == "errors":
+            self._send_json(500, {"error": {"message": "Internal server error (mock)", "type": "server_error"}})
+        else:
+            self._send_json(200, completion_body(request), {
+                "x-ratelimit-remaining-requests": "10000",
+                "x-ratelimit-remaining-tokens": "10000000",
+            })
+
+
+class MockOpenAIServer:
+    """Runs the mock endpoint on a background thread."""
+
+    def __init__(self, settings: MockSettings = None, host: str = "127.0.0.1", port: int = 0):
+        settings = settings or MockSettings()
+        handler = type("BoundMockHandler", (MockHandler,), {"settings": settings, "batches": BatchStore(settings)})
+        self.settings = handler.settings
+        self._server = ThreadingHTTPServer((host, port), handler)
+        self._server.daemon_threads = True
+        self._thread = None
+
+    @property
+    def base_url(self) -> str:
+        host, port = self._server.server_address[:2]
+        return f"http://{host}:{port}/v1"
+
+    def start(self) -> str:
+        self._thread = threading.Thread(target=self._server.serve_forever, daemon=True)
+        self._thread.start()
+        return self.base_url
+
+    def stop(self):
+        self._server.shutdown()
+        self._server.server_close()
+
+
+def add_mock_arguments(parser: argparse.ArgumentParser):
+    """Register the latency and fault injection options on a parser."""
+    parser.add_argument("--latency-ms", type=float, default=300.0, help="Median response latency (default: 300)")
+    parser.add_argument("--latency-dist", choices=LATENCY_DISTRIBUTIONS, default="lognormal",
+                        help="Latency distribution (default: lognormal)")
+    parser.add_argument("--latency-sigma", type=float, default=0.5, help="Lognormal sigma (default: 0.5)")
+    parser.add_argument("--error-rate", type=float, default=0.0, help="Fraction of requests answered with 500")
+    parser.add_argument("--rate-limit-rate", type=float, default=0.0, help="Fraction of requests answered with 429")
+    parser.add_argument("--retry-after", type=float, default=0.5, help="retry-after seconds sent with 429s")
+    parser.add_argument("--seed", type=int, help="Random seed for latency and fault injection")
+
+
+def settings_from_args(args) -> MockSettings:
+    return MockSettings(args.latency_ms, args.latency_dist, args.latency_sigma, args.error_rate,
+                        args.rate_limit_rate, args.retry_after, args.seed)
+
+
+if __name__ == "__main__":
+    parser = argparse.ArgumentParser(description="Mock OpenAI chat-completions server")
+    parser.add_argument("--host", default="127.0.0.1")
+    parser.add_argument("--port", type=int, default=8089)
+    add_mock_arguments(parser)
+    args = parser.parse_args()
+
+    server = MockOpenAIServer(settings_from_args(args), args.host, args.port)
+    print(f"Mock OpenAI server at {server.base_url} (Ctrl+C to stop)")
+    try:
+        server._server.serve_forever()
+    except KeyboardInterrupt:
+        pass
+    finally:
+        server._server.server_close()
+        print(f"Requests: {server.settings.snapshot()}")
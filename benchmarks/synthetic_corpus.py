@@ -0,0 +1,114 @@
+# benchmarks/synthetic_corpus.py
+"""
+Deterministic synthetic Java repositories for benchmarks.
+
+Files are spread over nested packages; each class extends or implements
+another generated type, imports classes from neighboring packages and has a
+mix of accessors and longer methods, so parsing, dependency resolution and
+commenting all see realistic work.
+
+Usage:
+    python benchmarks/synthetic_corpus.py OUT_DIR --files 10000
+"""
+import os
+import argparse
+
+FILES_PER_PACKAGE = 50
+DEFAULT_METHODS_PER_FILE = 4
+
+# Marker written once a corpus is complete, so benchmarks can reuse it
+MARKER_NAME = ".synthetic_corpus"
+
+
+def _package(index: int) -> str:
+    group = index // FILES_PER_PACKAGE
+    return f"com.bench.m{group // 100}.p{group % 100}"
+
+
+def class_source(index: int, methods: int = DEFAULT_METHODS_PER_FILE) -> str:
+    """Render one generated class; class i depends on classes in its own and the previous package."""
+    package = _package(index)
+    lines = [f"package {package};", ""]
+    if index >= FILES_PER_PACKAGE:
+        neighbor = index - FILES_PER_PACKAGE
+        lines.append(f"import {_package(neighbor)}.Type{neighbor};")
+        lines.append("")
+
+    if index % FILES_PER_PACKAGE == 0:
+        lines.append(f"public interface Type{index} {{")
+        lines.extend(f"    String operation{m}(int value);" for m in range(methods))
+        lines.append("}")
+        return "\n".join(lines) + "\n"
+
+    base = index - index % FILES_PER_PACKAGE
+    relation = f"implements Type{base}" if index % 2 else f"extends Type{index - 1}" if index - 1 != base else ""
+    lines.append(f"public class Type{index} {relation} {{".replace("  ", " "))
+    lines.append(f"    private final java.util.Map<String, Integer> cache = new java.util.HashMap<>();")
+    lines.append(f"    private int counter;")
+    lines.append("")
+    lines.append("    public int getCounter() {")
+    lines.append("        return counter;")
+    lines.append("    }")
+    lines.append("")
+    lines.append("    public void setCounter(int counter) {")
+    lines.append("        this.counter = counter;")
+    lines.append("    }")
+    for m in range(methods):
+        lines.append("")
+        lines.append(f"    public String operation{m}(int value) {{")
+        lines.append(f"        String key = \"op{m}:\" + value;")
+        lines.append("        Integer cached = cache.get(key);")
+        lines.append("        if (cached != null) {")
+        lines.append("            return key + \"=\" + cached;")
+        lines.append("        }")
+        lines.append("        int result = 0;")
+        lines.append(f"        for (int i = 0; i < value % {m + 7}; i++) {{")
+        lines.append("            result += i * counter;")
+        lines.append("        }")
+        lines.append("        cache.put(key, result);")
+        lines.append("        return key + \"=\" + result;")
+        lines.append("    }")
+    if index >= FILES_PER_PACKAGE:
+        neighbor = index - FILES_PER_PACKAGE
+        lines.append("")
+        lines.append(f"    public String delegate(Type{neighbor} other) {{")
+        lines.append("        return String.valueOf(other);")
+        lines.append("    }")
+    lines.append("}")
+    return "\n".join(lines) + "\n"
+
+
+def generate_corpus(root: str, files: int, methods: int = DEFAULT_METHODS_PER_FILE) -> str:
+    """
+    Write a synthetic repository of the given size, reusing it if already complete.
+
+    Returns:
+        The corpus root
+    """
+    marker = os.path.join(root, MARKER_NAME)
+    expected = f"{files} {methods}"
+    if os.path.exists(marker):
+        with open(marker, "r", encoding="utf-8") as f:
+            if f.read().strip() == expected:
+                return root
+
+    for index in range(files):
+        package_dir = os.path.join(root, "src", *_package(index).split("."))
+        if index % FILES_PER_PACKAGE == 0:
+            os.makedirs(package_dir, exist_ok=True)
+        with open(os.path.join(package_dir, f"Type{index}.java"), "w", encoding="utf-8") as f:
+            f.write(class_source(index, methods))
+
+    with open(marker, "w", encoding="utf-8") as f:
+        f.write(expected)
+    return root
+
+
+if __name__ == "__main__":
+    parser = argparse.ArgumentParser(description="Generate a synthetic Java repository")
+    parser.add_argument("out", help="Output directory")
+    parser.add_argument("--files", type=int, default=100, help="Number of Java files (default: 100)")
+    parser.add_argument("--methods", type=int, default=DEFAULT_METHODS_PER_FILE,
+                        help=f"Long methods per class (default: {DEFAULT_METHODS_PER_FILE})")
+    args = parser.parse_args()
+    print(f"Corpus written to {generate_corpus(args.out, args.files, args.methods)}")
@@ -0,0 +1,141 @@
+# class_outline.py
+import re
+
+from java_parser import primary_type_index
+from comment_generator import estimate_tokens
+
+# Approximate input tokens of class outline per class comment request
+DEFAULT_CLASS_TOKEN_BUDGET = 600
+
+# Longest one-line method summary carried into an outline
+SUMMARY_MAX_CHARS = 160
+
+# Comment delimiters and leading asterisks of a JavaDoc line
+_COMMENT_DECORATION = re.compile(r"^/?\*+/?\s?|\*/$")
+# Annotations written before a declaration on the same line
+_LEADING_ANNOTATIONS = re.compile(r"^(@[\w.]+(\([^)]*\))?\s+)+")
+
+
+def comment_summary(comment):
+    """
+    First sentence of a JavaDoc comment, e.g. "Deletes a user by ID."
+
+    Returns:
+        Summary string, or None if the comment has no text before its tags
+    """
+    if not isinstance(comment, str):
+        return None
+    for line in comment.splitlines():
+        text = _COMMENT_DECORATION.sub("", line.strip()).strip()
+        if text.startswith("@"):
+            return None
+        if text:
+            sentence_end = text.find(". ")
+            if sentence_end != -1:
+                text = text[:sentence_end + 1]
+            return text[:SUMMARY_MAX_CHARS]
+    return None
+
+
+def existing_javadoc(lines: list, start: int):
+    """Return the JavaDoc block written directly above line start, or None."""
+    end = start - 1
+    while end >= 0 and not lines[end].strip():
+        end -= 1
+    if end < 0 or not lines[end].rstrip().endswith("*/"):
+        return None
+    first = end
+    while first >= 0 and "/**" not in lines[first]:
+        first -= 1
+    if first < 0:
+        return None
+    return "".join(lines[first:end + 1])
+
+
+def declaration_line(code: str) -> str:
+    """Collapse a member's declaration (annotations and body dropped) onto one line."""
+    lines = []
+    for line in code.splitlines():
+        line = line.strip()
+        if line.startswith("@"):
+            # Annotation lines are dropped, but a declaration following them on the same line is kept
+            line = _LEADING_ANNOTATIONS.sub("", line + " ").strip()
+        if line:
+            lines.append(line)
+    text = " ".join(" ".join(lines).split())
+    cut = min((i for i in (text.find("{"), text.find(";")) if i != -1), default=len(text))
+    return _LEADING_ANNOTATIONS.sub("", text[:cut].strip())
+
+
+def class_signature(model: dict, lines: list) -> str:
+    """Declaration line of the file's primary type, e.g. `public class UserService extends Base`."""
+    index = primary_type_index(model)
+    if index is None:
+        return "class " + (model.get("class_name") or "Unknown")
+    primary = model["types"][index]
+
+    pattern = re.compile(r"\b(class|interface|enum)\s+" + re.escape(primary["name"]) + r"\b")
+    start = primary.get("start") or primary.get("line") or 0
+    for i in range(start, len(lines)):
+        if pattern.search(lines[i]):
+            # Declarations may wrap; read up to the opening brace
+            declaration = []
+            for line in lines[i:i + 10]:
+                declaration.append(line.strip())
+                if "{" in line:
+                    break
+            return declaration_line(" ".join(declaration))
+    return f"{primary['kind']} {primary['name']}"
+
+
+def build_class_outline(model: dict, lines: list, method_comments: list,
+                        token_budget: int = DEFAULT_CLASS_TOKEN_BUDGET) -> str:
+    """
+    Render a compact outline of a class for the class comment prompt.
+
+    The outline holds the class signature, field declarations and method
+    signatures, each method preceded by the one-line summary of its comment
+    (generated, templated or already in the source). Methods are added in
+    source order while they fit the token budget, then fields; whatever does
+    not fit is counted in a trailing note instead of being sent.
+
+    Args:
+        model: Parsed model of the file
+        lines: Source lines of the file
+        method_comments: Comments aligned with model["methods"]; None or an
+            Exception where no comment was generated
+        token_budget: Approximate tokens the outline may use
+
+    Returns:
+        Outline text in Java syntax
+    """
+    header = class_signature(model, lines) + " {"
+    used = estimate_tokens(header) + 1
+
+    methods = []
+    skipped = 0
+    for method, comment in zip(model["methods"], method_comments):
+        code = "".join(lines[method["start"]:method["end"] + 1])
+        summary = comment_summary(comment) or comment_summary(existing_javadoc(lines, method["start"]))
+        entry = (f"    // {summary}\n" if summary else "") + f"    {declaration_line(code)};"
+        tokens = estimate_tokens(entry)
+        if used + tokens > token_budget:
+            skipped += 1
+            continue
+        methods.append(entry)
+        used += tokens
+
+    fields = []
+    for field in model.get("fields", []):
+        entry = f"    {field['declaration']}"
+        tokens = estimate_tokens(entry)
+        if used + tokens > token_budget:
+            skipped += 1
+            continue
+        fields.append(entry)
+        used += tokens
+
+    body = fields + ([""] if fields and methods else []) + methods
+    if skipped:
+        body.append(f"    // ... {skipped} more members omitted")
+    return "\n".join([header] + body + ["}"])
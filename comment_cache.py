@@ -0,0 +1,131 @@
+# comment_cache.py
+import os
+import time
+import sqlite3
+import hashlib
+import threading
+
+DEFAULT_CACHE_DIRNAME = ".comment_cache"
+DEFAULT_MAX_ENTRIES = 200_000
+
+# Flush pending writes to disk after this many cache updates
+COMMIT_INTERVAL = 100
+
+
+def normalize_source(code: str) -> str:
+    """Collapse insignificant whitespace so reformatting does not invalidate the cache."""
+    lines = (" ".join(line.split()) for line in code.splitlines())
+    return "\n".join(line for line in lines if line)
+
+
+def make_cache_key(source: str, prompt_version: str, model: str, temperature: float) -> str:
+    """
+    Build a content-addressed cache key.
+
+    Args:
+        source: Method or class source sent to the model
+        prompt_version: Version tag of the prompt template
+        model: Model name used for the completion
+        temperature: Sampling temperature used for the completion
+
+    Returns:
+        Hex SHA-256 digest identifying the comment
+    """
+    digest = hashlib.sha256()
+    for part in (prompt_version, model, repr(float(temperature)), normalize_source(source)):
+        digest.update(part.encode("utf-8"))
+        digest.update(b"\0")
+    return digest.hexdigest()
+
+
+class CommentCache:
+    """SQLite-backed cache of generated comments with LRU eviction."""
+
+    def __init__(self, cache_dir: str, max_entries: int = DEFAULT_MAX_ENTRIES):
+        os.makedirs(cache_dir, exist_ok=True)
+        self.path = os.path.join(cache_dir, "comments.sqlite3")
+        self.max_entries = max_entries
+        self.hits = 0
+        self.misses = 0
+        self.evictions = 0
+
+        self._lock = threading.Lock()
+        self._pending_writes = 0
+        self._conn = sqlite3.connect(self.path, check_same_thread=False)
+        self._conn.execute("PRAGMA journal_mode=WAL")
+        self._conn.execute("PRAGMA synchronous=NORMAL")
+        self._conn.execute(
+            "CREATE TABLE IF NOT EXISTS comments ("
+            " key TEXT PRIMARY KEY,"
+            " comment TEXT NOT NULL,"
+            " last_used REAL NOT NULL)"
+        )
+        self._conn.execute("CREATE INDEX IF NOT EXISTS idx_comments_last_used ON comments(last_used)")
+        self._conn.commit()
+        self._count = self._conn.execute("SELECT COUNT(*) FROM comments").fetchone()[0]
+
+    def get(self, key: str):
+        """Return the cached comment for key, or None on a miss."""
+        with self._lock:
+            row = self._conn.execute("SELECT comment FROM comments WHERE key = ?", (key,)).fetchone()
+            if row is None:
+                self.misses += 1
+                return None
+            self.hits += 1
+            self._conn.execute("UPDATE comments SET last_used = ? WHERE key = ?", (time.time(), key))
+            self._mark_dirty()
+            return row[0]
+
+    def put(self, key: str, comment: str):
+        """Store a generated comment, evicting least recently used entries over the cap."""
+        with self._lock:
+            now = time.time()
+            cursor = self._conn.execute(
+                "INSERT OR IGNORE INTO comments (key, comment, last_used) VALUES (?, ?, ?)",
+                (key, comment, now),
+            )
+            if cursor.rowcount == 1:
+                self._count += 1
+            else:
+                self._conn.execute(
+                    "UPDATE comments SET comment = ?, last_used = ? WHERE key = ?",
+                    (comment, now, key),
+                )
+            if self.max_entries and self._count > self.max_entries:
+                self._evict()
+            self._mark_dirty()
+
+    def _evict(self):
+        # Trim to 90% of the cap so eviction runs once per batch of inserts, not per insert
+        target = int(self.max_entries * 0.9)
+        excess = self._count - target
+        self._conn.execute(
+            "DELETE FROM comments WHERE key IN "
+            "(SELECT key FROM comments ORDER BY last_used ASC LIMIT ?)",
+            (excess,),
+        )
+        self.evictions += excess
+        self._count = target
+
+    def _mark_dirty(self):
+        self._pending_writes += 1
+        if self._pending_writes >= COMMIT_INTERVAL:
+            self._conn.commit()
+            self._pending_writes = 0
+
+    def stats(self) -> dict:
+        """Return hit/miss counters for the current run."""
+        lookups = self.hits + self.misses
+        return {
+            "hits": self.hits,
+            "misses": self.misses,
+            "hit_rate": self.hits / lookups if lookups else 0.0,
+            "entries": self._count,
+            "evictions": self.evictions,
+        }
+
+    def close(self):
+        """Flush pending writes and close the database."""
+        with self._lock:
+            self._conn.commit()
+            self._conn.close()
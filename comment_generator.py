@@ -1,17 +1,68 @@
 # comment_generator.py
 import os
+import re
+import json
+import time
 import asyncio
-import aiohttp
-from openai import AsyncOpenAI
+import httpx
+from openai import AsyncOpenAI, APIConnectionError, APITimeoutError
 from dotenv import load_dotenv
-from concurrent.futures import ThreadPoolExecutor
 import threading
 
+from comment_cache import make_cache_key
+from rate_limiter import RateLimiter, CircuitBreaker, backoff_delay, parse_duration
+from telemetry import Telemetry, current_source
+from tracing import tracer
+from scheduler import RequestScheduler, Deferred
+
 # Load environment variables
 load_dotenv()
 
-# Initialize OpenAI client
-client = AsyncOpenAI(api_key=os.getenv("OPENAI_API_KEY"))
+# Shared OpenAI client, bound to the event loop that created it (see _get_client)
+client = None
+_client_loop = None
+
+# Model settings; bump the prompt versions whenever a prompt template changes
+# so cached comments generated from the old wording are not reused
+MODEL = "gpt-4o-mini"
+TEMPERATURE = 0.2
+METHOD_PROMPT_VERSION = "method-v1"
+CLASS_PROMPT_VERSION = "class-v2"
+PACKED_PROMPT_VERSION = "packed-v1"
+
+# Completion length limits for single-method and class prompts
+METHOD_MAX_TOKENS = 500
+CLASS_MAX_TOKENS = 300
+
+# Default cap on concurrent API requests
+DEFAULT_MAX_INFLIGHT = 10
+
+# Packed mode: approximate method-source tokens and methods per request
+DEFAULT_PACK_TOKEN_BUDGET = 3000
+MAX_METHODS_PER_PACK = 40
+PACKED_MAX_OUTPUT_TOKENS = 8000
+
+# First identifier followed by '(' in a method block: its name (annotations have none before '(')
+_METHOD_NAME = re.compile(r"(?<![@\w])(\w+)\s*\(")
+
+# Retry policy for transient API failures
+MAX_RETRIES = 6
+RETRYABLE_STATUS = {408, 409, 429, 500, 502, 503, 504}
+
+# In-flight limit, rate limiter and circuit breaker bound to the event loop that created them
+_guards = None
+_guards_loop = None
+
+# Latency, token, retry and error record of every completion in this run
+_telemetry = Telemetry(MODEL)
+
+
+class _RequestGuards:
+    def __init__(self, max_inflight, requests_per_minute=None, tokens_per_minute=None, scheduler=None):
+        self.request_limit = scheduler or RequestScheduler(max_inflight)
+        self.rate_limiter = RateLimiter(requests_per_minute, tokens_per_minute)
+        self.circuit_breaker = CircuitBreaker()
+
 
 # Thread-local storage for batch processing
 _thread_local = threading.local()
@@ -23,12 +74,181 @@ def get_batch_requests():
     return _thread_local.batch_requests
 
 
-async def generate_method_summary_async(method_code: str) -> str:
-    """Async version of method comment generation."""
-    if not os.getenv("OPENAI_API_KEY"):
-        raise Exception("OPENAI_API_KEY not found in environment variables")
-    
-    prompt = f"""
+def get_telemetry() -> Telemetry:
+    """Return the telemetry every completion call reports to."""
+    return _telemetry
+
+
+def init_llm_session(max_inflight: int = DEFAULT_MAX_INFLIGHT, requests_per_minute: float = None,
+                     tokens_per_minute: float = None, telemetry: Telemetry = None,
+                     scheduler: RequestScheduler = None):
+    """
+    Create the shared client and request guards for the running event loop.
+
+    Every request made from this loop then reuses one HTTP connection pool,
+    waits on one in-flight semaphore and one RPM/TPM rate limiter, and is
+    paused by one circuit breaker, no matter how many files are being processed.
+    Passing telemetry starts a fresh per-run record; a scheduler replaces the
+    default arrival-order in-flight limit with its ordering, budget and deadline.
+    """
+    global client, _client_loop, _guards, _guards_loop, _telemetry
+    if telemetry is not None:
+        _telemetry = telemetry
+    client = _new_client(max_inflight)
+    _client_loop = asyncio.get_running_loop()
+    _guards = _RequestGuards(max_inflight, requests_per_minute, tokens_per_minute, scheduler)
+    _guards_loop = _client_loop
+
+
+async def close_llm_session():
+    """Close the shared client's connection pool."""
+    global client, _client_loop
+    if client is not None:
+        await client.close()
+    client = None
+    _client_loop = None
+
+
+def _new_client(max_inflight: int) -> AsyncOpenAI:
+    return AsyncOpenAI(
+        api_key=os.getenv("OPENAI_API_KEY"),
+        max_retries=0,  # retries are handled by _send_completion
+        http_client=httpx.AsyncClient(
+            limits=httpx.Limits(max_connections=max_inflight, max_keepalive_connections=max_inflight)
+        ),
+    )
+
+
+def _get_client() -> AsyncOpenAI:
+    """Return the client for the running loop, creating one if the session was not initialized here."""
+    global client, _client_loop
+    loop = asyncio.get_running_loop()
+    if client is None or _client_loop is not loop:
+        # A client left over from another loop holds connections that loop owned
+        client = _new_client(DEFAULT_MAX_INFLIGHT)
+        _client_loop = loop
+    return client
+
+
+def _get_guards():
+    """Return the request guards for the running loop, creating defaults if needed."""
+    global _guards, _guards_loop
+    loop = asyncio.get_running_loop()
+    if _guards is None or _guards_loop is not loop:
+        _guards = _RequestGuards(DEFAULT_MAX_INFLIGHT)
+        _guards_loop = loop
+    return _guards
+
+
+def _retry_after(error):
+    """Read the server's requested retry delay from an API error, if any."""
+    response = getattr(error, "response", None)
+    headers = getattr(response, "headers", None)
+    if not headers:
+        return None
+    retry_after_ms = parse_duration(headers.get("retry-after-ms"))
+    if retry_after_ms is not None:
+        return retry_after_ms / 1000
+    return parse_duration(headers.get("retry-after"))
+
+
+def _is_retryable(error) -> bool:
+    if isinstance(error, (APIConnectionError, APITimeoutError)):
+        return True
+    if getattr(error, "code", None) == "insufficient_quota":
+        return False
+    return getattr(error, "status_code", None) in RETRYABLE_STATUS
+
+
+async def _create_completion(prompt: str, max_tokens: int, kind: str = "method", label: str = None,
+                             source: str = None, **kwargs):
+    """
+    Send one chat completion through the scheduler, rate limiter and circuit breaker.
+
+    Rate-limit and transient errors are retried with jittered exponential backoff,
+    honoring retry-after headers; 429 responses also pause every other request.
+    Queue wait, latency, token usage, retries and errors are reported to the
+    run's telemetry under kind and label. source (the method or class code)
+    lets the scheduler rank the request; Deferred is raised when the
+    scheduler's budget or deadline rules it out.
+    """
+    with tracer.async_span("request", label or kind, kind=kind, file=current_source.get()):
+        return await _send_completion(prompt, max_tokens, kind, label, source, **kwargs)
+
+
+async def _send_completion(prompt: str, max_tokens: int, kind: str, label: str, source: str, **kwargs):
+    guards = _get_guards()
+    telemetry = _telemetry
+    prompt_tokens = estimate_tokens(prompt)
+    estimated_tokens = prompt_tokens + max_tokens
+    queue_wait = 0.0
+
+    for attempt in range(MAX_RETRIES + 1):
+        waiting_since = time.perf_counter()
+        probe = await guards.circuit_breaker.wait_if_open()
+        try:
+            # The scheduler picks which waiting request of the run goes next
+            slot = await guards.request_limit.acquire(prompt_tokens, max_tokens, source)
+        except BaseException:
+            if probe:
+                guards.circuit_breaker.abandon_probe()
+            raise
+        sent = None
+        try:
+            await guards.rate_limiter.acquire(estimated_tokens)
+            # The rate limiter may have held an admitted request past the deadline
+            guards.request_limit.check_deadline()
+            sent = time.perf_counter()
+            queue_wait += sent - waiting_since
+            raw = await _get_client().chat.completions.with_raw_response.create(
+                model=MODEL,
+                messages=[{"role": "user", "content": prompt}],
+                temperature=TEMPERATURE,
+                max_tokens=max_tokens,
+                **kwargs
+            )
+            response = raw.parse()
+        except (asyncio.CancelledError, Deferred):
+            guards.request_limit.release(slot)
+            if probe:
+                guards.circuit_breaker.abandon_probe()
+            raise
+        except Exception as e:
+            # Free the slot before backing off so other requests can use it
+            guards.request_limit.release(slot)
+            latency = time.perf_counter() - sent if sent is not None else 0.0
+            # Other errors (e.g. a 400 for a bad prompt) still mean the API answered
+            guards.circuit_breaker.record(not _is_retryable(e), probe)
+            telemetry.record_error(e)
+            if attempt == MAX_RETRIES or not _is_retryable(e):
+                telemetry.record(kind, label, queue_wait, latency, retries=attempt, error=e)
+                raise
+            delay = max(backoff_delay(attempt), _retry_after(e) or 0)
+            if getattr(e, "status_code", None) == 429:
+                guards.rate_limiter.pause(delay)
+            await asyncio.sleep(delay)
+            continue
+
+        latency = time.perf_counter() - sent
+        usage = getattr(response, "usage", None)
+        guards.request_limit.release(slot, usage)
+        guards.circuit_breaker.record(True, probe)
+        guards.rate_limiter.update_from_headers(raw.headers)
+        if usage and usage.total_tokens:
+            guards.rate_limiter.refund(estimated_tokens - usage.total_tokens)
+        telemetry.record(kind, label, queue_wait, latency, usage, retries=attempt)
+        return response
+
+
+def _method_label(method_code: str):
+    """Name of the method in a source block, for telemetry."""
+    match = _METHOD_NAME.search(method_code)
+    return match.group(1) if match else None
+
+
+def build_method_prompt(method_code: str) -> str:
+    """Render the method comment prompt."""
+    return f"""
 You are a senior Java developer writing JavaDoc-style comments for production code.
 
 Your task is to generate a concise and professional JavaDoc comment for the given method. Follow these exact rules:
@@ -61,25 +281,28 @@ Now write a comment for the following method:
 
 Return ONLY the comment block.
 """
+
+
+async def generate_method_summary_async(method_code: str) -> str:
+    """Async version of method comment generation."""
+    if not os.getenv("OPENAI_API_KEY"):
+        raise Exception("OPENAI_API_KEY not found in environment variables")
+    
+    prompt = build_method_prompt(method_code)
     
     try:
-        response = await client.chat.completions.create(
-            model="gpt-4o-mini",
-            messages=[{"role": "user", "content": prompt}],
-            temperature=0.2,
-            max_tokens=500
-        )
+        response = await _create_completion(prompt, max_tokens=METHOD_MAX_TOKENS, kind="method",
+                                            label=_method_label(method_code), source=method_code)
         return response.choices[0].message.content.strip()
+    except Deferred:
+        raise
     except Exception as e:
         raise Exception(f"OpenAI API error: {str(e)}")
 
 
-async def generate_class_comment_async(class_code: str) -> str:
-    """Async version of class comment generation."""
-    if not os.getenv("OPENAI_API_KEY"):
-        raise Exception("OPENAI_API_KEY not found in environment variables")
-    
-    prompt = f"""
+def build_class_prompt(class_outline: str) -> str:
+    """Render the class comment prompt for a class outline (see class_outline.build_class_outline)."""
+    return f"""
 You are a senior Java engineer. Write a concise JavaDoc-style comment block that describes what the given Java class does.
 
 - Use `/** ... */` format
@@ -88,69 +311,374 @@ You are a senior Java engineer. Write a concise JavaDoc-style comment block that
 - Return only the comment, no code, no markdown
 - DO NOT include triple backticks or "java" keyword
 
-Java class:
-{class_code[:1000]}  # Truncate for API efficiency
+The outline below lists the class signature, its fields, and its method signatures,
+each preceded by a one-line summary of what the method does.
+
+Java class outline:
+{class_outline}
 """
+
+
+def class_cache_key(class_outline: str) -> str:
+    """Cache key of a class comment; outlines embed method summaries, so they change with them."""
+    return make_cache_key(class_outline, CLASS_PROMPT_VERSION, MODEL, TEMPERATURE)
+
+
+async def generate_class_comment_async(class_outline: str) -> str:
+    """Async version of class comment generation."""
+    if not os.getenv("OPENAI_API_KEY"):
+        raise Exception("OPENAI_API_KEY not found in environment variables")
+    
+    prompt = build_class_prompt(class_outline)
     
     try:
-        response = await client.chat.completions.create(
-            model="gpt-4o-mini",
-            messages=[{"role": "user", "content": prompt}],
-            temperature=0.2,
-            max_tokens=300
+        response = await _create_completion(prompt, max_tokens=CLASS_MAX_TOKENS, kind="class",
+                                            source=class_outline)
+        return clean_class_comment(response.choices[0].message.content)
+    except Deferred:
+        raise
+    except Exception as e:
+        raise Exception(f"OpenAI API error: {str(e)}")
+
+
+def clean_class_comment(content: str) -> str:
+    """Strip stray code fences from a generated class comment."""
+    return content.strip().replace("```", "").strip()
+
+
+async def generate_class_summary(class_outline: str, cache=None, offline: bool = False):
+    """
+    Generate (or look up) the class comment for an outline built after the method comments.
+
+    Returns:
+        Comment string, None when offline without a cached comment, or the
+        exception (e.g. Deferred) when the request fails, like a failed method slot
+    """
+    key = class_cache_key(class_outline)
+    cached = cache.get(key) if cache is not None else None
+    if cached is not None or offline:
+        return cached
+    try:
+        comment = await generate_class_comment_async(class_outline)
+    except Exception as e:
+        return e
+    if comment and cache is not None:
+        cache.put(key, comment)
+    return comment or None
+
+
+def estimate_tokens(text: str) -> int:
+    """Rough token count (about four characters per token)."""
+    return len(text) // 4 + 1
+
+
+def pack_methods(method_codes: list, token_budget: int = DEFAULT_PACK_TOKEN_BUDGET,
+                 max_methods: int = MAX_METHODS_PER_PACK) -> list:
+    """
+    Group method indices into packs whose combined source fits the token budget.
+
+    Args:
+        method_codes: Method source blocks
+        token_budget: Approximate input tokens of method source per request
+        max_methods: Upper bound on methods per request to keep responses short
+
+    Returns:
+        List of index lists, in source order
+    """
+    packs = []
+    current = []
+    current_tokens = 0
+    for i, method_code in enumerate(method_codes):
+        tokens = estimate_tokens(method_code)
+        if current and (current_tokens + tokens > token_budget or len(current) >= max_methods):
+            packs.append(current)
+            current = []
+            current_tokens = 0
+        current.append(i)
+        current_tokens += tokens
+    if current:
+        packs.append(current)
+    return packs
+
+
+def build_packed_prompt(method_codes: list) -> str:
+    """Render one prompt asking for comments on several methods at once."""
+    methods = "\n\n".join(f"### Method {i}\n{code}" for i, code in enumerate(method_codes))
+    return f"""
+You are a senior Java developer writing JavaDoc-style comments for production code.
+
+Write one concise, professional JavaDoc comment for EACH method below. Follow these exact rules:
+
+- Use `/** ... */` JavaDoc format.
+- Write a one-line summary of the method's purpose using active voice.
+- Use @param for each input with short, natural phrasing (e.g. "User's name")
+- Use @return if the method returns a value (e.g. "List of users", "True if deleted")
+- Avoid using articles like *the*, *a*, or *an* in parameter and return descriptions.
+- Be clear and helpful, but never verbose.
+
+Respond with a JSON object of this exact shape and nothing else:
+{{"comments": [{{"index": 0, "comment": "/**\\n * Deletes a user by ID.\\n *\\n * @param id ID of the user\\n * @return True if deleted\\n */"}}]}}
+
+Include one entry per method, using the number from its "### Method N" heading as "index".
+
+{methods}
+"""
+
+
+def _is_valid_comment(comment) -> bool:
+    return isinstance(comment, str) and comment.strip().startswith("/**") and comment.strip().endswith("*/")
+
+
+def parse_packed_response(content: str, count: int) -> dict:
+    """
+    Validate a packed response.
+
+    Args:
+        content: Raw model output
+        count: Number of methods in the request
+
+    Returns:
+        Dictionary of method index to comment for every well-formed entry
+    """
+    content = content.strip()
+    if content.startswith("```"):
+        content = content.strip("`")
+        content = content[content.find("{"):]
+    try:
+        data = json.loads(content)
+    except ValueError:
+        return {}
+    entries = data.get("comments") if isinstance(data, dict) else data
+    if not isinstance(entries, list):
+        return {}
+
+    comments = {}
+    for entry in entries:
+        if not isinstance(entry, dict):
+            continue
+        index = entry.get("index")
+        comment = entry.get("comment")
+        if isinstance(index, int) and 0 <= index < count and index not in comments and _is_valid_comment(comment):
+            comments[index] = comment.strip()
+    return comments
+
+
+async def generate_packed_comments_async(method_codes: list) -> dict:
+    """Request comments for several methods in one call; returns index -> comment for valid entries."""
+    if not os.getenv("OPENAI_API_KEY"):
+        raise Exception("OPENAI_API_KEY not found in environment variables")
+
+    prompt = build_packed_prompt(method_codes)
+
+    try:
+        response = await _create_completion(
+            prompt,
+            max_tokens=min(PACKED_MAX_OUTPUT_TOKENS, 250 * len(method_codes)),
+            kind="packed",
+            label=", ".join(filter(None, map(_method_label, method_codes))),
+            source="\n".join(method_codes),
+            response_format={"type": "json_object"}
         )
-        comment = response.choices[0].message.content.strip()
-        return comment.replace("```", "").strip()
+        return parse_packed_response(response.choices[0].message.content, len(method_codes))
+    except Deferred:
+        raise
     except Exception as e:
         raise Exception(f"OpenAI API error: {str(e)}")
 
 
-async def batch_generate_comments(method_codes: list, class_code: str = None):
-    """Generate comments for multiple methods and optionally a class in parallel."""
-    tasks = []
-    
-    # Add class comment task if provided
-    if class_code:
-        tasks.append(generate_class_comment_async(class_code))
-    
-    # Add method comment tasks
-    for method_code in method_codes:
-        tasks.append(generate_method_summary_async(method_code))
-    
-    # Execute all tasks concurrently with rate limiting
-    semaphore = asyncio.Semaphore(10)  # Limit to 10 concurrent requests
-    
-    async def limited_task(task):
-        async with semaphore:
-            return await task
-    
-    limited_tasks = [limited_task(task) for task in tasks]
-    results = await asyncio.gather(*limited_tasks, return_exceptions=True)
-    
-    # Separate results
+async def generate_method_comments_packed(method_codes: list, token_budget: int = DEFAULT_PACK_TOKEN_BUDGET) -> list:
+    """
+    Generate method comments with packed requests, falling back to single requests.
+
+    Returns:
+        List aligned with method_codes holding a comment or an Exception per method
+    """
+    results = [None] * len(method_codes)
+
+    async def run_pack(indices):
+        if len(indices) == 1:
+            return {}
+        try:
+            return await generate_packed_comments_async([method_codes[i] for i in indices])
+        except Exception:
+            return {}
+
+    packs = pack_methods(method_codes, token_budget)
+    pack_results = await asyncio.gather(*(run_pack(indices) for indices in packs))
+
+    # Anything missing or malformed (and single-method packs) goes through the one-method prompt
+    fallback = []
+    for indices, comments in zip(packs, pack_results):
+        for local_index, method_index in enumerate(indices):
+            if local_index in comments:
+                results[method_index] = comments[local_index]
+            else:
+                fallback.append(method_index)
+
+    singles = await asyncio.gather(
+        *(generate_method_summary_async(method_codes[i]) for i in fallback), return_exceptions=True
+    )
+    for method_index, result in zip(fallback, singles):
+        results[method_index] = result
+
+    return results
+
+
+async def _no_comment():
+    return None
+
+
+async def batch_generate_comments(method_codes: list, class_code: str = None, cache=None,
+                                  packed: bool = False, pack_token_budget: int = DEFAULT_PACK_TOKEN_BUDGET,
+                                  offline: bool = False, dedup=None):
+    """
+    Generate comments for multiple methods and optionally a class outline in parallel.
+
+    The pipeline passes no class_code: it builds the class outline from the
+    finished method comments and calls generate_class_summary afterwards.
+
+    With offline set, only cached comments are returned and misses stay None.
+    With a MethodDeduplicator, only the first method of each canonical form in
+    the run is sent; its duplicates reuse that comment with their own variable names.
+    Exact duplicates are cached under their own key; near duplicates are not, so
+    a later run that does not also process their leader requests them anew.
+    """
     class_comment = None
-    method_comments = []
-    
+    method_comments = [None] * len(method_codes)
+    method_prompt_version = PACKED_PROMPT_VERSION if packed else METHOD_PROMPT_VERSION
+
+    # Resolve cached comments first so only misses are queued for the API
+    class_key = None
     if class_code:
-        class_comment = results[0] if not isinstance(results[0], Exception) else None
-        method_comments = results[1:]
+        key = class_cache_key(class_code)
+        cached = cache.get(key) if cache else None
+        if cached is not None:
+            class_comment = cached
+        else:
+            class_key = key
+
+    misses = []  # (method index, cache key)
+    for i, method_code in enumerate(method_codes):
+        key = make_cache_key(method_code, method_prompt_version, MODEL, TEMPERATURE)
+        cached = cache.get(key) if cache else None
+        if cached is not None:
+            method_comments[i] = cached
+            if dedup and not offline:
+                dedup.record(method_code, cached)
+        else:
+            misses.append((i, key))
+
+    if offline or (class_key is None and not misses):
+        return class_comment, method_comments
+
+    # Duplicates of a method already requested in this run wait for that request
+    followers = []
+    claims = []
+    if dedup:
+        leaders = []
+        for slot, key in misses:
+            claim = dedup.claim(method_codes[slot])
+            if claim.leader:
+                leaders.append((slot, key))
+                claims.append(claim)
+            else:
+                followers.append((slot, key, claim))
+        misses = leaders
+
+    # Execute all tasks concurrently; the shared request limit caps in-flight calls
+    miss_codes = [method_codes[i] for i, _ in misses]
+    if packed:
+        methods_task = generate_method_comments_packed(miss_codes, pack_token_budget)
     else:
-        method_comments = results
-    
+        methods_task = asyncio.gather(
+            *(generate_method_summary_async(code) for code in miss_codes), return_exceptions=True
+        )
+    class_task = generate_class_comment_async(class_code) if class_key is not None else _no_comment()
+    method_results = None
+    try:
+        class_result, method_results = await asyncio.gather(class_task, methods_task, return_exceptions=True)
+    finally:
+        # Release waiting duplicates even if this file's requests failed or were cancelled
+        for index, claim in enumerate(claims):
+            result = method_results[index] if isinstance(method_results, list) else None
+            dedup.resolve(claim, result)
+
+    # Place results back into their slots and remember successful ones
+    if class_key is not None and class_result and not isinstance(class_result, Exception):
+        class_comment = class_result
+        if cache:
+            cache.put(class_key, class_result)
+
+    if isinstance(method_results, Exception):
+        method_results = [method_results] * len(misses)
+    for (slot, key), result in zip(misses, method_results):
+        if cache and result and not isinstance(result, Exception):
+            cache.put(key, result)
+        method_comments[slot] = result
+
+    if followers:
+        shared = await asyncio.gather(*(dedup.follow(claim) for _, _, claim in followers))
+        for (slot, key, claim), result in zip(followers, shared):
+            method_comments[slot] = result
+            # An exact duplicate's comment is the leader's with its own variable names, so it is
+            # cached like a generated one; a near duplicate's adapted comment only lives for the run
+            if cache and not claim.near and result and not isinstance(result, Exception):
+                cache.put(key, result)
+
     return class_comment, method_comments
 
 
+def pending_requests(method_codes: list, class_code: str = None, cache=None) -> list:
+    """
+    List the uncached single-method and class requests batch_generate_comments would send.
+
+    Returns:
+        List of (cache key, kind, source, prompt, max_tokens) with kind "method" or "class"
+    """
+    requests = []
+    if class_code:
+        key = class_cache_key(class_code)
+        if cache is None or cache.get(key) is None:
+            requests.append((key, "class", class_code, build_class_prompt(class_code), CLASS_MAX_TOKENS))
+    for method_code in method_codes:
+        key = make_cache_key(method_code, METHOD_PROMPT_VERSION, MODEL, TEMPERATURE)
+        if cache is None or cache.get(key) is None:
+            requests.append((key, "method", method_code, build_method_prompt(method_code), METHOD_MAX_TOKENS))
+    return requests
+
+
 # Synchronous wrapper functions for backward compatibility
+def _run_sync(coroutine_function, *args):
+    """
+    Run one coroutine in a fresh event loop with its own client and guards.
+
+    The client is resolved when the call runs, not at import time, and is closed
+    before the loop goes away; retries happen only in _send_completion.
+    """
+    async def run():
+        init_llm_session()
+        try:
+            return await coroutine_function(*args)
+        finally:
+            await close_llm_session()
+    return asyncio.run(run())
+
+
 def generate_method_summary(method_code: str) -> str:
     """Synchronous wrapper for async method comment generation."""
-    return asyncio.run(generate_method_summary_async(method_code))
+    return _run_sync(generate_method_summary_async, method_code)
 
 
-def generate_class_comment(class_code: str) -> str:
+def generate_class_comment(class_outline: str) -> str:
     """Synchronous wrapper for async class comment generation."""
-    return asyncio.run(generate_class_comment_async(class_code))
+    return _run_sync(generate_class_comment_async, class_outline)
+
+
+def generate_class_summary_sync(class_outline: str, cache=None):
+    """Synchronous wrapper for cached class comment generation."""
+    return _run_sync(generate_class_summary, class_outline, cache)
 
 
-def batch_generate_comments_sync(method_codes: list, class_code: str = None):
+def batch_generate_comments_sync(method_codes: list, class_code: str = None, cache=None, packed: bool = False):
     """Synchronous wrapper for batch comment generation."""
-    return asyncio.run(batch_generate_comments(method_codes, class_code))
\ No newline at end of file
+    return _run_sync(batch_generate_comments, method_codes, class_code, cache, packed)
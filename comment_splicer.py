@@ -0,0 +1,77 @@
+# comment_splicer.py
+import os
+import textwrap
+
+from java_parser import primary_type_index
+
+
+def _usable(comment) -> bool:
+    return bool(comment) and not isinstance(comment, Exception)
+
+
+def _comment_block(comment: str, declaration_line: str) -> str:
+    """Indent a comment to match its declaration."""
+    indent = declaration_line[:len(declaration_line) - len(declaration_line.lstrip(" \t"))]
+    return "".join(f"{indent}{line}\n" if line.strip() else "\n"
+                   for line in textwrap.dedent(comment.strip("\r\n")).splitlines())
+
+
+def type_comments_for(model: dict, class_comment) -> list:
+    """Place a class comment on the primary type; returns comments aligned with model['types']."""
+    comments = [None] * len(model.get("types") or [])
+    index = primary_type_index(model)
+    if index is not None:
+        comments[index] = class_comment
+    return comments
+
+
+def build_edits(lines: list, model: dict, type_comments: list, method_comments: list) -> list:
+    """
+    Turn generated comments into a sorted edit list.
+
+    Every comment becomes one (line, text) insertion placed at its
+    declaration's first line (annotations and modifiers included), as the
+    parser reported it, so top-level, nested and multiple types are handled
+    alike and nothing is found by searching the text.
+
+    Args:
+        lines: Source lines including line endings
+        model: Parsed model of the file
+        type_comments: Comment per entry of model['types'] (see type_comments_for)
+        method_comments: Comment per entry of model['methods']
+
+    Returns:
+        List of (0-based line, text) insertions ordered by line; insertions at
+        the same line keep type-before-method, then source order
+    """
+    edits = []
+    for type_info, comment in zip(model.get("types") or [], type_comments):
+        line = type_info.get("start")
+        if line is None:
+            line = type_info.get("line")
+        if _usable(comment) and line is not None and line < len(lines):
+            edits.append((line, 0, _comment_block(comment, lines[line])))
+    for method, comment in zip(model["methods"], method_comments):
+        if _usable(comment) and method["start"] < len(lines):
+            edits.append((method["start"], 1, _comment_block(comment, lines[method["start"]])))
+    edits.sort(key=lambda edit: (edit[0], edit[1]))
+    return [(line, text) for line, _, text in edits]
+
+
+def iter_spliced(lines: list, edits: list):
+    """Merge sorted edits into the source in one linear pass, yielding output chunks."""
+    edit_index = 0
+    for line_number, line in enumerate(lines):
+        while edit_index < len(edits) and edits[edit_index][0] == line_number:
+            yield edits[edit_index][1]
+            edit_index += 1
+        yield line
+    for _, text in edits[edit_index:]:
+        yield text
+
+
+def write_spliced(path: str, lines: list, edits: list):
+    """Stream the spliced file to disk without building a second copy of it in memory."""
+    os.makedirs(os.path.dirname(path) or ".", exist_ok=True)
+    with open(path, "w", encoding="utf-8") as f:
+        f.writelines(iter_spliced(lines, edits))
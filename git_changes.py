@@ -0,0 +1,143 @@
+# git_changes.py
+import re
+import subprocess
+
+from java_parser import parse_java_file, primary_type_index
+from class_outline import existing_javadoc, declaration_line, class_signature
+
+_HUNK_HEADER = re.compile(r"^@@ -\d+(?:,\d+)? \+(\d+)(?:,(\d+))? @@")
+
+
+def changed_lines(repo_path: str, rev: str) -> dict:
+    """
+    Lines of each Java file changed in the working tree since a git revision.
+
+    Reads `git diff --unified=0 <rev>` and records, per file, the 0-based
+    line numbers of the current version covered by a hunk. A pure deletion
+    marks the lines on both sides of the removed block, so a method that lost
+    lines still counts as changed. Untracked (not ignored) files count as added.
+
+    Args:
+        repo_path: Repository root (or a directory inside a git work tree)
+        rev: Revision to compare against, e.g. "origin/main" or "HEAD~1"
+
+    Returns:
+        Dictionary mapping repo-relative paths to sets of changed lines; added
+        files map to None (every line is new) and deleted files are left out
+
+    Raises:
+        ValueError: If git fails, e.g. outside a work tree or for an unknown revision
+    """
+    output = _git(repo_path, "diff", "--unified=0", "--no-color", "--no-renames", "--no-ext-diff", "--relative",
+                  rev, "--", "*.java")
+    # git diff leaves out files that were never added
+    untracked = _git(repo_path, "ls-files", "--others", "--exclude-standard", "-z", "--", "*.java")
+
+    changes = {}
+    current = None
+    new_file = False
+    for line in output.splitlines():
+        if line.startswith("diff --git "):
+            current = None
+            new_file = False
+        elif line.startswith("new file mode"):
+            new_file = True
+        elif line.startswith("+++ "):
+            path = line[4:]
+            current = None if path == "/dev/null" else path[2:] if path.startswith("b/") else path
+            if current is not None:
+                changes[current] = None if new_file else set()
+        elif current is not None and changes[current] is not None:
+            hunk = _HUNK_HEADER.match(line)
+            if not hunk:
+                continue
+            start = int(hunk.group(1))
+            count = int(hunk.group(2)) if hunk.group(2) is not None else 1
+            if count:
+                changes[current].update(range(start - 1, start - 1 + count))
+            else:
+                # Deletion after line `start`: mark it and the line that now follows it
+                changes[current].update((start - 1, start))
+    changes.update((path, None) for path in untracked.split("\0") if path)
+    return changes
+
+
+def _git(repo_path: str, *args) -> str:
+    """Run a git command in repo_path and return its output."""
+    try:
+        result = subprocess.run(["git", "-C", repo_path, "-c", "core.quotePath=false", *args],
+                                capture_output=True, text=True, encoding="utf-8")
+    except OSError as e:
+        raise ValueError(f"git is not available: {e}")
+    if result.returncode != 0:
+        raise ValueError(result.stderr.strip() or f"git {args[0]} failed")
+    return result.stdout
+
+
+def touched_methods(model: dict, changed: set) -> set:
+    """Indices of methods whose declaration or body (annotations included) has a changed line."""
+    return {
+        i for i, method in enumerate(model["methods"])
+        if any(line in changed for line in range(method["start"], method["end"] + 1))
+    }
+
+
+def _member_code(method: dict, lines: list) -> tuple:
+    return tuple(line.strip() for line in lines[method["start"]:method["end"] + 1])
+
+
+def _outline_shape(model: dict, lines: list) -> tuple:
+    """What a class outline is built from, minus the method summaries."""
+    return (
+        class_signature(model, lines),
+        tuple(field["declaration"] for field in model.get("fields", [])),
+        tuple(declaration_line("".join(lines[m["start"]:m["end"] + 1])) for m in model["methods"]),
+    )
+
+
+def carry_over(model: dict, lines: list, previous_lines: list, changed: set, indices: list) -> tuple:
+    """
+    Reuse comments from the previous commented output for untouched members.
+
+    A method keeps its previous comment when none of its lines changed and
+    the previous output holds the same code (whitespace aside) with a JavaDoc
+    directly above it; identical copies are matched in source order. The class
+    comment is kept when the class signature, fields and method signatures
+    are all unchanged, since those are what its outline is built from.
+
+    Args:
+        model: Parsed model of the current source
+        lines: Current source lines
+        previous_lines: Lines of the previous commented output of the file
+        changed: Changed line numbers of the current source (see changed_lines)
+        indices: Methods that would otherwise be sent to the model
+
+    Returns:
+        Tuple of (dict mapping method index to comment, class comment or None)
+    """
+    previous = parse_java_file("".join(previous_lines))
+    if not previous:
+        return {}, None
+
+    available = {}
+    for method in previous["methods"]:
+        available.setdefault(_member_code(method, previous_lines), []).append(method["start"])
+
+    touched = touched_methods(model, changed)
+    comments = {}
+    for i in indices:
+        if i in touched:
+            continue
+        starts = available.get(_member_code(model["methods"][i], lines))
+        if starts:
+            comment = existing_javadoc(previous_lines, starts.pop(0))
+            if comment:
+                comments[i] = comment
+
+    class_comment = None
+    index = primary_type_index(previous)
+    if index is not None and _outline_shape(model, lines) == _outline_shape(previous, previous_lines):
+        type_info = previous["types"][index]
+        start = type_info.get("start")
+        class_comment = existing_javadoc(previous_lines, type_info["line"] if start is None else start)
+    return comments, class_comment
@@ -1,40 +1,377 @@
 # java_parser.py
+import os
+from bisect import bisect_right
+from itertools import accumulate, repeat
+from concurrent.futures import ProcessPoolExecutor
+
 import javalang
 
+# Files per parse task; large enough to amortize process hand-off, small enough to balance load
+DEFAULT_PARSE_CHUNK_SIZE = 32
 
-def extract_methods_with_lines(code: str):
+
+# Tokens that close the previous class member; a method's declaration starts after one
+_MEMBER_BOUNDARIES = {";", "{", "}"}
+
+# Conventional modifier order, used when rendering field declarations
+_MODIFIER_ORDER = ("public", "protected", "private", "abstract", "static", "final", "transient", "volatile")
+
+
+def match_braces(tokens: list) -> dict:
     """
-    Extracts methods and their starting lines.
-    Returns a list of (start_line, method_name, raw_code_block).
+    Pairs every '{' token with its closing '}' in a single pass.
+    Returns a dictionary mapping opening token index to closing token index.
+    String, char literals and comments are separate tokens (or skipped), so
+    braces inside them never count.
+    """
+    pairs = {}
+    stack = []
+    for i, token in enumerate(tokens):
+        if token.value == "{":
+            stack.append(i)
+        elif token.value == "}" and stack:
+            pairs[stack.pop()] = i
+    return pairs
+
+
+def method_extent(tokens: list, brace_pairs: dict, index: int):
+    """
+    Finds the first and last token of the member whose name/type token is at index.
+    Walks back over modifiers and annotations to the previous member boundary and
+    forward over the signature to the body, so the work is bounded by the
+    signature length rather than the file length.
+    Returns a tuple of (first_token_index, last_token_index).
+    """
+    first = index
+    depth = 0
+    while first > 0:
+        value = tokens[first - 1].value
+        if value == ")":
+            depth += 1
+        elif value == "(":
+            depth -= 1
+        elif depth == 0 and value in _MEMBER_BOUNDARIES:
+            break
+        first -= 1
+
+    depth = 0
+    last = index
+    while last < len(tokens):
+        value = tokens[last].value
+        if value == "(":
+            depth += 1
+        elif value == ")":
+            depth -= 1
+        elif depth == 0 and value == "{":
+            return first, brace_pairs.get(last, len(tokens) - 1)
+        elif depth == 0 and value == ";":
+            # Abstract or interface method without a body
+            return first, last
+        last += 1
+    return first, len(tokens) - 1
+
+
+def _type_name(ref):
+    return ref.name if ref is not None else None
+
+
+def _field_target(expression):
+    """Field name for `x` or `this.x`, or None for anything else."""
+    if getattr(expression, "prefix_operators", None) or getattr(expression, "postfix_operators", None):
+        return None
+    if isinstance(expression, javalang.tree.MemberReference) and not expression.qualifier \
+            and not expression.selectors:
+        return expression.member
+    if isinstance(expression, javalang.tree.This) and not expression.qualifier \
+            and len(expression.selectors or []) == 1 \
+            and isinstance(expression.selectors[0], javalang.tree.MemberReference):
+        return expression.selectors[0].member
+    return None
+
+
+def _field_assignment(statement):
+    """(field, parameter) for a statement like `this.x = x;`, or None."""
+    if not isinstance(statement, javalang.tree.StatementExpression):
+        return None
+    expression = statement.expression
+    if not isinstance(expression, javalang.tree.Assignment) or expression.type != "=":
+        return None
+    field = _field_target(expression.expressionl)
+    value = _field_target(expression.value)
+    return (field, value) if field and value else None
+
+
+def _delegate_target(expression, params: set):
+    """`target.member` for a call like `repo.find(id)` or `this.repo.find(id)` passing parameters through."""
+    if getattr(expression, "prefix_operators", None) or getattr(expression, "postfix_operators", None):
+        return None
+    if isinstance(expression, javalang.tree.MethodInvocation):
+        qualifier = expression.qualifier
+        call = expression
+    elif isinstance(expression, javalang.tree.This) and len(expression.selectors or []) == 2 \
+            and isinstance(expression.selectors[0], javalang.tree.MemberReference) \
+            and isinstance(expression.selectors[1], javalang.tree.MethodInvocation):
+        qualifier = expression.selectors[0].member
+        call = expression.selectors[1]
+    else:
+        return None
+    if not qualifier or call.selectors:
+        return None
+    if not all(_field_target(arg) in params for arg in call.arguments or []):
+        return None
+    return f"{qualifier}.{call.member}"
+
+
+def _method_shape(node):
+    """
+    Classifies trivial member bodies from the AST.
+    Returns {'kind': 'getter'|'setter'|'constructor'|'delegate', ...} or None
+    for anything that needs a generated summary.
+    """
+    body = node.body
+    params = [param.name for param in node.parameters]
+    if isinstance(node, javalang.tree.ConstructorDeclaration):
+        # Empty constructors and ones that only store their parameters
+        assignments = [_field_assignment(statement) for statement in body or []]
+        if all(assignment and assignment[1] in params for assignment in assignments):
+            return {"kind": "constructor", "fields": [field for field, _ in assignments]}
+        return None
+    if not body or len(body) != 1:
+        return None
+
+    statement = body[0]
+    if isinstance(statement, javalang.tree.ReturnStatement):
+        field = _field_target(statement.expression)
+        if field and not params:
+            return {"kind": "getter", "field": field}
+        target = _delegate_target(statement.expression, set(params))
+        if target:
+            return {"kind": "delegate", "target": target}
+        return None
+
+    assignment = _field_assignment(statement)
+    if assignment and len(params) == 1 and assignment[1] == params[0] and node.return_type is None:
+        return {"kind": "setter", "field": assignment[0]}
+    if isinstance(statement, javalang.tree.StatementExpression):
+        target = _delegate_target(statement.expression, set(params))
+        if target:
+            return {"kind": "delegate", "target": target}
+    return None
+
+
+def _qualified_reference(ref) -> str:
+    """Joins a ReferenceType chain (e.g. Map -> Entry) into a dotted name."""
+    parts = []
+    while ref is not None:
+        parts.append(ref.name)
+        ref = getattr(ref, "sub_type", None)
+    return ".".join(parts)
+
+
+def _field_declaration(node) -> str:
+    """Renders a field declaration without its initializer, e.g. `private final UserRepository repo;`."""
+    field_type = node.type
+    type_name = _qualified_reference(field_type) if isinstance(field_type, javalang.tree.ReferenceType) \
+        else field_type.name
+    type_name += "[]" * len(field_type.dimensions or [])
+    modifiers = [modifier for modifier in _MODIFIER_ORDER if modifier in (node.modifiers or ())]
+    names = ", ".join(declarator.name for declarator in node.declarators)
+    return " ".join(modifiers + [type_name, names]) + ";"
+
+
+def _member_fields(fields: list, methods: list) -> list:
+    """
+    Drops fields declared on a line inside any method's extent.
+    Method ranges are sorted once; a running maximum of their ends covers nested
+    ranges, so each field is a single binary search instead of a scan of all methods.
+    """
+    ranges = sorted((method["start"], method["end"]) for method in methods)
+    starts = [start for start, _ in ranges]
+    reach = list(accumulate((end for _, end in ranges), max))
+    kept = []
+    for field in fields:
+        line = field["line"]
+        covering = bisect_right(starts, line) if line is not None else 0
+        if not covering or reach[covering - 1] < line:
+            kept.append(field)
+    return kept
+
+
+def parse_java_file(code: str, file_path: str = None):
+    """
+    Parses Java code once into a compact per-file model shared by all stages.
+    Returns a dictionary with keys: 'file_path', 'package', 'imports', 'wildcard_imports',
+    'types' (with 0-based 'line' of the keyword and 'start' of the declaration), 'methods' (methods and constructors: name, 0-based 'start'/'end' lines,
+    'kind', 'documented', 'params', 'returns' and trivial-body 'shape'), 'fields'
+    (rendered 'declaration' and 0-based 'line'), 'references' (type names used in the file), and the primary class's 'class_name', 'extends'
+    and 'implements'. Returns None if the code does not parse.
     """
     try:
-        tree = javalang.parse.parse(code)
+        # Tokenize once and hand the same token list to the parser and to the extent pass
+        tokens = list(javalang.tokenizer.tokenize(code))
+        tree = javalang.parser.Parser(tokens).parse()
     except Exception as e:
         print(f"Error parsing Java code: {e}")
-        return []
+        return None
+
+    model = {
+        "file_path": file_path,
+        "package": tree.package.name if tree.package else None,
+        "imports": [imp.path for imp in tree.imports],
+        "wildcard_imports": [imp.path for imp in tree.imports if imp.wildcard and not imp.static],
+        "types": [],
+        "methods": [],
+        "fields": [],
+        "class_name": None,
+        "extends": None,
+        "implements": []
+    }
+
+    token_index = {token.position: i for i, token in enumerate(tokens)}
+    brace_pairs = match_braces(tokens)
+    references = set()
+
+    # One walk over the tree collects types, methods and type references
+    for _, node in tree:
+        if isinstance(node, javalang.tree.TypeDeclaration):
+            # The declaration starts at its first annotation or modifier, where JavaDoc belongs
+            index = token_index.get(node.position)
+            start = tokens[method_extent(tokens, brace_pairs, index)[0]].position.line - 1 \
+                if index is not None else None
+            extends = getattr(node, "extends", None)
+            if isinstance(extends, list):
+                # Interfaces may extend several interfaces
+                extends = extends[0] if extends else None
+            model["types"].append({
+                "name": node.name,
+                "kind": type(node).__name__.replace("Declaration", "").lower(),
+                "line": node.position.line - 1 if node.position else None,
+                "start": start,
+                "documented": node.documentation is not None,
+                "extends": _type_name(extends),
+                "implements": [impl.name for impl in getattr(node, "implements", None) or []]
+            })
+            # Primary class: first class declaration, as before
+            if isinstance(node, javalang.tree.ClassDeclaration) and model["class_name"] is None:
+                model["class_name"] = node.name
+                model["extends"] = node.extends.name if node.extends else None
+                model["implements"] = [impl.name for impl in node.implements] if node.implements else []
+
+        elif isinstance(node, (javalang.tree.MethodDeclaration, javalang.tree.ConstructorDeclaration)):
+            index = token_index.get(node.position)
+            if index is None:
+                continue
+            first, last = method_extent(tokens, brace_pairs, index)
+            is_constructor = isinstance(node, javalang.tree.ConstructorDeclaration)
+            return_type = None if is_constructor else node.return_type
+            model["methods"].append({
+                "name": node.name,
+                "start": tokens[first].position.line - 1,
+                "end": tokens[last].position.line - 1,
+                "kind": "constructor" if is_constructor else "method",
+                "documented": node.documentation is not None,
+                "params": [param.name for param in node.parameters],
+                "returns": return_type.name + "[]" * len(return_type.dimensions or []) if return_type else None,
+                "shape": _method_shape(node)
+            })
+
+        elif isinstance(node, javalang.tree.FieldDeclaration):
+            model["fields"].append({
+                "declaration": _field_declaration(node),
+                "line": node.position.line - 1 if node.position else None
+            })
+
+        elif isinstance(node, javalang.tree.ReferenceType):
+            references.add(_qualified_reference(node))
+
+        elif isinstance(node, javalang.tree.Annotation):
+            references.add(node.name)
+
+        elif isinstance(node, (javalang.tree.MethodInvocation, javalang.tree.MemberReference)):
+            # Static access such as Foo.bar() or Foo.CONSTANT names a type in the qualifier
+            if node.qualifier and node.qualifier[0].isupper():
+                references.add(node.qualifier)
+
+    model["references"] = sorted(references)
+    # Fields of anonymous classes inside method bodies are not members of the file's types
+    model["fields"] = _member_fields(model["fields"], model["methods"])
+
+    return model
 
-    lines = code.splitlines()
-    methods = []
 
-    for _, node in tree.filter(javalang.tree.MethodDeclaration):
-        start = node.position.line - 1 if node.position else None
-        if start is None:
-            continue
+def parse_files(paths: list, root: str = None) -> list:
+    """
+    Reads and parses a chunk of files; this is the unit of work for parse worker processes.
+    Returns a list of models aligned with paths (None for files that fail to read or parse),
+    with 'file_path' relative to root when given.
+    """
+    models = []
+    for path in paths:
+        try:
+            with open(path, 'r', encoding='utf-8') as f:
+                code = f.read()
+            models.append(parse_java_file(code, os.path.relpath(path, root) if root else path))
+        except Exception as e:
+            print(f"⚠️ Error processing {path}: {e}")
+            models.append(None)
+    return models
+
 
-        # Find method end by counting braces
-        brace_count = 0
-        method_lines = []
-        for i in range(start, len(lines)):
-            line = lines[i]
-            method_lines.append(line)
-            brace_count += line.count("{") - line.count("}")
-            if brace_count <= 0 and "}" in line:
-                break
+def chunked(items: list, size: int = DEFAULT_PARSE_CHUNK_SIZE):
+    """Splits a list into consecutive chunks of at most size items."""
+    return [items[i:i + size] for i in range(0, len(items), size)]
 
-        raw_code = "\n".join(method_lines)
-        methods.append((start, node.name, raw_code))
 
-    return methods
+def parse_files_parallel(paths: list, root: str = None, workers: int = None,
+                         chunk_size: int = DEFAULT_PARSE_CHUNK_SIZE):
+    """
+    Parses files in a process pool so javalang is not limited to one core by the GIL.
+    Yields (path, model) pairs in input order; falls back to in-process parsing
+    for a single worker or a single chunk.
+    """
+    chunks = chunked(list(paths), chunk_size)
+    workers = workers or os.cpu_count() or 1
+    if workers <= 1 or len(chunks) <= 1:
+        for chunk in chunks:
+            yield from zip(chunk, parse_files(chunk, root))
+        return
+
+    with ProcessPoolExecutor(max_workers=min(workers, len(chunks))) as pool:
+        for chunk, models in zip(chunks, pool.map(parse_files, chunks, repeat(root))):
+            yield from zip(chunk, models)
+
+
+def primary_type_index(model):
+    """
+    Index in model['types'] of the type the class comment describes: the primary
+    class, or the first type of a file without classes. None if there are no types.
+    """
+    types = model.get("types") or []
+    for i, type_info in enumerate(types):
+        if type_info["name"] == model.get("class_name") and type_info.get("kind") == "class":
+            return i
+    return 0 if types else None
+
+
+def method_blocks(model, lines: list):
+    """
+    Slices method source out of a file using a model's line extents.
+    Returns a list of (start_line, method_name, raw_code_block).
+    """
+    if not model:
+        return []
+    return [
+        (m["start"], m["name"], "\n".join(line.rstrip("\r\n") for line in lines[m["start"]:m["end"] + 1]))
+        for m in model["methods"]
+    ]
+
+
+def extract_methods_with_lines(code: str):
+    """
+    Extracts methods and their starting lines.
+    Returns a list of (start_line, method_name, raw_code_block).
+    """
+    return method_blocks(parse_java_file(code), code.splitlines())
 
 
 def extract_class_structure(code: str):
@@ -42,10 +379,8 @@ def extract_class_structure(code: str):
     Extracts class name and imported packages from Java code.
     Returns a dictionary with keys: 'class_name', 'imports', 'extends', 'implements'.
     """
-    try:
-        tree = javalang.parse.parse(code)
-    except Exception as e:
-        print(f"Error parsing Java code: {e}")
+    model = parse_java_file(code)
+    if model is None:
         return {
             "class_name": None,
             "imports": [],
@@ -53,22 +388,9 @@ def extract_class_structure(code: str):
             "implements": []
         }
 
-    structure = {
-        "class_name": None,
-        "imports": [],
-        "extends": None,
-        "implements": []
+    return {
+        "class_name": model["class_name"],
+        "imports": model["imports"],
+        "extends": model["extends"],
+        "implements": model["implements"]
     }
-
-    # Extract class information
-    for path, node in tree.filter(javalang.tree.ClassDeclaration):
-        structure["class_name"] = node.name
-        structure["extends"] = node.extends.name if node.extends else None
-        structure["implements"] = [impl.name for impl in node.implements] if node.implements else []
-        break  # Assume one primary class per file
-
-    # Extract imports
-    for path, node in tree.filter(javalang.tree.Import):
-        structure["imports"].append(node.path)
-
-    return structure
\ No newline at end of file
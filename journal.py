@@ -0,0 +1,149 @@
+# journal.py
+import os
+import json
+import time
+
+JOURNAL_NAME = ".codecomprehender_journal.jsonl"
+
+# fsync after this many records or this many seconds, whichever comes first
+FSYNC_EVERY = 50
+FSYNC_INTERVAL = 2.0
+
+
+class Journal:
+    """
+    Append-only JSONL checkpoint of completed work in the output repository.
+
+    Records:
+        {"type": "comment", "key": ..., "comment": ...}  generated method/class comment by cache key
+        {"type": "file", "path": ..., "entry": {...}}     written file with its manifest entry
+        {"type": "failure", "path": ..., "error": ...}   file whose commenting failed
+    """
+
+    def __init__(self, dest_root: str):
+        self.path = os.path.join(dest_root, JOURNAL_NAME)
+        # Never truncate on open: a crashed run's comments may exist nowhere else (e.g. with --no-cache)
+        self._file = open(self.path, "a", encoding="utf-8")
+        self._unsynced = 0
+        self._last_sync = time.monotonic()
+        self.failures = 0
+
+    def _write(self, record: dict):
+        self._file.write(json.dumps(record, ensure_ascii=False) + "\n")
+        self._unsynced += 1
+        if self._unsynced >= FSYNC_EVERY or time.monotonic() - self._last_sync >= FSYNC_INTERVAL:
+            self.sync()
+
+    def record_comment(self, key: str, comment: str):
+        self._write({"type": "comment", "key": key, "comment": comment})
+
+    def record_file(self, rel_path: str, entry: dict):
+        self._write({"type": "file", "path": rel_path, "entry": entry})
+
+    def record_failure(self, rel_path: str, error):
+        self.failures += 1
+        self._write({"type": "failure", "path": rel_path, "error": str(error)})
+
+    def keep_comments(self, comments: dict):
+        """Re-record replayed comments if a clean sync wiped the journal along with the output tree."""
+        if self._file.tell() == 0:
+            for key, comment in comments.items():
+                self.record_comment(key, comment)
+
+    def reset(self):
+        """
+        Drop every record once the outputs and manifest hold the work.
+
+        Call only after the manifest is saved for a run in which no file failed;
+        otherwise the journal is the only copy of comments that never reached an output.
+        """
+        self._file.seek(0)
+        self._file.truncate()
+        self.sync()
+        self.failures = 0
+
+    def sync(self):
+        """Flush buffered records and fsync them to disk."""
+        self._file.flush()
+        os.fsync(self._file.fileno())
+        self._unsynced = 0
+        self._last_sync = time.monotonic()
+
+    def close(self):
+        self.sync()
+        self._file.close()
+
+
+def replay_journal(dest_root: str) -> dict:
+    """
+    Read the journal left by a previous, possibly interrupted, run.
+
+    Args:
+        dest_root: Output repository path
+
+    Returns:
+        Dictionary with 'comments' (cache key -> comment), 'files' (path -> manifest
+        entry of completed files) and 'failures' (path -> last error)
+    """
+    state = {"comments": {}, "files": {}, "failures": {}}
+    path = os.path.join(dest_root, JOURNAL_NAME)
+    if not os.path.exists(path):
+        return state
+
+    with open(path, "r", encoding="utf-8") as f:
+        for line in f:
+            try:
+                record = json.loads(line)
+            except ValueError:
+                # A crash can leave the last line half-written
+                continue
+            kind = record.get("type")
+            if kind == "comment":
+                state["comments"][record["key"]] = record["comment"]
+            elif kind == "file":
+                state["files"][record["path"]] = record["entry"]
+                state["failures"].pop(record["path"], None)
+            elif kind == "failure":
+                state["failures"][record["path"]] = record["error"]
+                state["files"].pop(record["path"], None)
+    return state
+
+
+def apply_journal_to_manifest(state: dict, manifest: dict) -> int:
+    """
+    Mark files completed by the interrupted run as done in the manifest.
+
+    Entries carry the source hash, so sync_repo still re-processes any file
+    that changed since it was journaled.
+
+    Returns:
+        Number of completed files restored
+    """
+    for rel_path, entry in state["files"].items():
+        manifest["files"][rel_path] = dict(entry)
+    return len(state["files"])
+
+
+class JournaledCache:
+    """
+    Comment lookup used by batch_generate_comments during a journaled run.
+
+    Lookups try comments replayed from the journal, then the on-disk comment
+    cache; every newly generated comment is appended to the journal.
+    """
+
+    def __init__(self, journal: Journal, replayed: dict = None, cache=None):
+        self.journal = journal
+        self.replayed = replayed or {}
+        self.cache = cache
+
+    def get(self, key: str):
+        comment = self.replayed.get(key)
+        if comment is None and self.cache:
+            comment = self.cache.get(key)
+        return comment
+
+    def put(self, key: str, comment: str):
+        self.journal.record_comment(key, comment)
+        if self.cache:
+            self.cache.put(key, comment)
@@ -1,25 +1,50 @@
 # main.py
 import os
 import shutil
+import asyncio
 import argparse
-from concurrent.futures import ThreadPoolExecutor, as_completed
 import time
 
-from java_parser import extract_methods_with_lines
-from comment_generator import batch_generate_comments_sync
-from architecture_generator import analyze_repo_architecture, architecture_to_markdown
-from visual_architecture import save_visual_architecture, print_visual_architecture
-
-
-def validate_repo_path(repo_path: str) -> bool:
+from java_parser import parse_java_file, method_blocks
+from comment_generator import (
+    batch_generate_comments_sync, generate_class_summary_sync, get_telemetry, MODEL, TEMPERATURE, METHOD_PROMPT_VERSION, CLASS_PROMPT_VERSION,
+    DEFAULT_MAX_INFLIGHT, PACKED_PROMPT_VERSION, DEFAULT_PACK_TOKEN_BUDGET
+)
+from comment_splicer import build_edits, type_comments_for, write_spliced
+from class_outline import build_class_outline, DEFAULT_CLASS_TOKEN_BUDGET
+from telemetry import Telemetry, current_source
+from tracing import tracer
+from method_classifier import classify_methods, class_is_documented, merge_comments
+from pipeline import run_pipeline
+from comment_cache import CommentCache, DEFAULT_CACHE_DIRNAME, DEFAULT_MAX_ENTRIES
+from manifest import (
+    load_manifest, save_manifest, sync_repo, record_output, commented_output_path,
+    OUTPUT_MODES, LINK_MODES
+)
+from repo_discovery import discover_repo, java_sources, SourceFile, DEFAULT_EXCLUDES
+from journal import Journal, JournaledCache, replay_journal, apply_journal_to_manifest
+from architecture_generator import (
+    analyze_repo_architecture, architecture_to_markdown
+)
+from symbol_index import SymbolIndex, default_index_path
+from scheduler import SCHEDULING_ORDERS, DEFAULT_ORDER, parse_deadline
+from batch_runner import run_batch, default_batch_dir, BATCH_BACKENDS, DEFAULT_POLL_INTERVAL
+from git_changes import changed_lines
+from watcher import create_watcher, DEFAULT_DEBOUNCE, DEFAULT_RESCAN_INTERVAL
+from visual_architecture import (
+    save_visual_architecture, print_visual_architecture, save_sharded_architecture, DEFAULT_NODE_CAP,
+)
+
+
+def validate_repo_path(repo_path: str, source_files: list = None) -> bool:
     """Validate that the repository path exists and contains Java files."""
     if not os.path.exists(repo_path):
         print(f"Repository path does not exist: {repo_path}")
         return False
     
-    java_files = []
-    for root, _, files in os.walk(repo_path):
-        java_files.extend([f for f in files if f.endswith('.java')])
+    if source_files is None:
+        source_files = discover_repo(repo_path)
+    java_files = java_sources(source_files)
     
     if not java_files:
         print(f"No Java files found in: {repo_path}")
@@ -39,104 +64,94 @@ def copy_repo(src_path, dest_path):
 
 def get_java_files(dest_repo_root):
     """Get all Java files to process."""
-    java_files = []
-    for root, _, files in os.walk(dest_repo_root):
-        for file in files:
-            if file.endswith(".java") and not file.endswith("_commented.java"):
-                full_path = os.path.join(root, file)
-                java_files.append(full_path)
-    return java_files
-
-
-def process_java_files_parallel(dest_repo_root, max_workers=4):
-    """Process Java files in parallel using ThreadPoolExecutor."""
-    java_files = get_java_files(dest_repo_root)
+    return [os.path.join(dest_repo_root, f.rel_path) for f in java_sources(discover_repo(dest_repo_root))]
+
+
+def process_java_files_parallel(dest_repo_root, max_workers=4, cache=None, java_files=None, manifest=None,
+                                journal=None, source_root=None, **pipeline_options):
+    """
+    Process Java files through a single asyncio pipeline with a global request limit.
+
+    java_files may hold (source path, output path) pairs, in which case source_root
+    is the directory they are relative to. Extra keyword arguments are passed on
+    to pipeline.run_pipeline.
+    """
+    if java_files is None:
+        java_files = get_java_files(dest_repo_root)
     
     if not java_files:
         print("No Java files to process")
         return
     
-    processed_count = 0
-    error_count = 0
     start_time = time.time()
+    max_inflight = pipeline_options.get("max_inflight", DEFAULT_MAX_INFLIGHT)
     
-    print(f"Processing {len(java_files)} files with {max_workers} workers...")
-    
-    with ThreadPoolExecutor(max_workers=max_workers) as executor:
-        # Submit all tasks
-        future_to_file = {}
-        for filepath in java_files:
-            base_name = os.path.splitext(os.path.basename(filepath))[0]
-            output_path = os.path.join(os.path.dirname(filepath), f"{base_name}_commented.java")
-            future = executor.submit(comment_methods_in_file_optimized, filepath, output_path)
-            future_to_file[future] = filepath
-        
-        # Process completed tasks
-        for future in as_completed(future_to_file):
-            filepath = future_to_file[future]
-            try:
-                future.result()
-                processed_count += 1
-                if processed_count % 5 == 0:  # Progress update every 5 files
-                    elapsed = time.time() - start_time
-                    rate = processed_count / elapsed
-                    print(f"Progress: {processed_count}/{len(java_files)} files ({rate:.1f} files/sec)")
-            except Exception as e:
-                print(f"Error processing {filepath}: {e}")
-                error_count += 1
+    print(f"Processing {len(java_files)} files with {max_workers} workers "
+          f"({max_inflight} concurrent requests max)...")
+
+    fast_path = {"documented": 0, "templated": 0, "carried": 0, "generated": 0}
+
+    def on_file_done(job):
+        for key, count in (job.fast_path or {}).items():
+            fast_path[key] += count
+        rel_path = os.path.relpath(job.path, source_root or dest_repo_root)
+        if job.commented:
+            if manifest is not None:
+                record_output(dest_repo_root, manifest, rel_path)
+                if journal:
+                    journal.record_file(rel_path, manifest["files"][rel_path])
+        elif journal:
+            journal.record_failure(rel_path, job.error or "comment generation failed")
+
+    processed_count, error_count = asyncio.run(
+        run_pipeline(java_files, max_workers=max_workers, cache=cache, on_file_done=on_file_done,
+                     **pipeline_options)
+    )
     
     elapsed = time.time() - start_time
     print(f"Processed {processed_count} Java files in {elapsed:.1f}s ({error_count} errors)")
+    print(f"Fast path: {fast_path['documented']} documented methods skipped, {fast_path['templated']} "
+          f"template comments, {fast_path['carried']} carried over, {fast_path['generated']} sent to the model "
+          f"({fast_path['documented'] + fast_path['templated'] + fast_path['carried']} API calls avoided)")
+    print(f"LLM requests: {get_telemetry().summary_line()}")
 
 
-def comment_methods_in_file_optimized(filepath, output_path):
+def comment_methods_in_file_optimized(filepath, output_path, cache=None):
     """Optimized version that batches API calls per file."""
     with open(filepath, 'r', encoding='utf-8') as f:
         original_lines = f.readlines()
 
     code = "".join(original_lines)
-    methods = extract_methods_with_lines(code)
+    model = parse_java_file(code)
+    methods = method_blocks(model, original_lines)
 
     if not methods:
         # Still create the file, just copy it
         shutil.copy2(filepath, output_path)
-        return
+        return True
 
-    # Extract all method codes for batch processing
-    method_codes = [raw_code for _, _, raw_code in methods]
+    # Only members without JavaDoc and without a template comment go to the API
+    local_comments, api_indices, _ = classify_methods(model["methods"])
+    method_codes = [methods[i][2] for i in api_indices]
+    current_source.set(filepath)
     
     try:
         # Batch generate all comments for this file
-        class_comment, method_comments = batch_generate_comments_sync(method_codes, code)
-        
-        new_lines = original_lines[:]
-        offset = 0
-
-        # Add class-level JavaDoc
-        if class_comment:
-            for i, line in enumerate(new_lines):
-                if "public class" in line or "class " in line:
-                    comment_block = [f"{l}\n" for l in class_comment.splitlines()]
-                    new_lines[i:i] = comment_block + ["\n"]
-                    offset += len(comment_block) + 1
-                    break
-
-        # Add JavaDoc above each method
-        for i, (start_line, method_name, _) in enumerate(methods):
-            if i < len(method_comments) and method_comments[i] and not isinstance(method_comments[i], Exception):
-                comment = method_comments[i]
-                comment_block = [f"{line}\n" for line in comment.splitlines()]
-                insert_index = start_line + offset
-                new_lines[insert_index:insert_index] = comment_block + ["\n"]
-                offset += len(comment_block) + 1
-
-        with open(output_path, 'w', encoding='utf-8') as f:
-            f.writelines(new_lines)
+        _, api_comments = batch_generate_comments_sync(method_codes, None, cache)
+        method_comments = merge_comments(local_comments, api_indices, api_comments)
+        class_comment = None
+        if not class_is_documented(model):
+            outline = build_class_outline(model, original_lines, method_comments)
+            class_comment = generate_class_summary_sync(outline, cache)
+        edits = build_edits(original_lines, model, type_comments_for(model, class_comment), method_comments)
+        write_spliced(output_path, original_lines, edits)
+        return not isinstance(class_comment, Exception)
 
     except Exception as e:
         print(f"Batch processing error for {filepath}: {e}")
         # Fallback: just copy the file
         shutil.copy2(filepath, output_path)
+        return False
 
 
 def comment_methods_in_file(filepath, output_path):
@@ -149,10 +164,11 @@ def process_java_files_in_place(dest_repo_root):
     process_java_files_parallel(dest_repo_root)
 
 
-def generate_architecture_report(repo_path: str, output_base: str, repo_name: str):
+def generate_architecture_report(repo_path: str, output_base: str, repo_name: str, arch_data: list = None):
     """Generate and save architecture report as markdown."""
     try:
-        arch_data = analyze_repo_architecture(repo_path)
+        if arch_data is None:
+            arch_data = analyze_repo_architecture(repo_path)
         markdown = architecture_to_markdown(arch_data)
         arch_path = os.path.join(output_base, f"{repo_name}_architecture.md")
         
@@ -165,10 +181,11 @@ def generate_architecture_report(repo_path: str, output_base: str, repo_name: st
         print(f"Error generating architecture report: {e}")
 
 
-def print_architecture_inline(repo_path: str):
+def print_architecture_inline(repo_path: str, arch_data: list = None):
     """Print architecture analysis to console."""
     try:
-        arch_data = analyze_repo_architecture(repo_path)
+        if arch_data is None:
+            arch_data = analyze_repo_architecture(repo_path)
         markdown = architecture_to_markdown(arch_data)
         print("\nProject Architecture\n")
         print(markdown)
@@ -176,6 +193,151 @@ def print_architecture_inline(repo_path: str):
         print(f"Error analyzing architecture: {e}")
 
 
+def generate_reports(args, repo_name: str, symbol_index: SymbolIndex):
+    """Write the architecture outputs requested on the command line from the symbol index."""
+    arch_data = edges = None
+    if args.arch_report or args.visual or args.architecture:
+        arch_data = symbol_index.architecture()
+    if args.visual or args.architecture:
+        # Diagrams draw the edges resolved when the index was updated
+        edges = symbol_index.edges()
+
+    if args.arch_report:
+        generate_architecture_report(args.repo, args.out, repo_name, arch_data)
+
+    if args.visual and args.sharded:
+        save_sharded_architecture(arch_data, args.out, repo_name, args.node_cap, edges)
+    elif args.visual:
+        save_visual_architecture(args.repo, args.out, repo_name, arch_data, edges)
+
+    if args.architecture:
+        print_visual_architecture(args.repo, arch_data, edges)
+
+
+def comment_files(args, rel_paths: list, repo_name: str, output_repo_path: str, symbol_index: SymbolIndex,
+                  comment_store, manifest: dict, journal: Journal, deadline: float = None, since: dict = None):
+    """
+    Comment the given repo-relative Java files, taking their models from the symbol index.
+
+    since maps repo-relative paths to the lines changed since --since (see
+    git_changes.changed_lines); methods outside them keep their previous comments.
+    """
+    # Lean mode reads sources in place; full mode processes the mirrored copies
+    input_root = args.repo if args.output_mode == "lean" else output_repo_path
+    to_process = [
+        (os.path.join(input_root, rel_path), commented_output_path(os.path.join(output_repo_path, rel_path)))
+        for rel_path in rel_paths
+    ]
+    if not to_process:
+        print("All commented files are up to date")
+        return
+
+    input_models = {
+        os.path.join(input_root, rel_path): model
+        for rel_path, model in symbol_index.models(rel_paths).items()
+    }
+    if since is not None:
+        since = {os.path.join(input_root, rel_path): lines for rel_path, lines in since.items()}
+    if args.batch_mode:
+        # Batch results land in the comment store; the pipeline below splices them and
+        # only calls the live API for requests the batch could not answer
+        with tracer.span("batch"):
+            batch = run_batch(to_process, input_models, default_batch_dir(args.out, repo_name),
+                              BATCH_BACKENDS[args.batch_backend](), comment_store, args.batch_poll_interval,
+                              dedup=not args.no_dedup)
+        comment_store.replayed.update(batch["comments"])
+    telemetry = Telemetry(MODEL)
+    process_java_files_parallel(output_repo_path, max_workers=args.workers, cache=comment_store,
+                                java_files=to_process, manifest=manifest, journal=journal,
+                                source_root=input_root, telemetry=telemetry,
+                                max_inflight=args.max_inflight, models=input_models, packed=args.packed,
+                                pack_token_budget=args.pack_token_budget,
+                                requests_per_minute=args.rpm, tokens_per_minute=args.tpm,
+                                parse_workers=args.parse_workers, offline=args.resplice,
+                                dedup=not args.no_dedup, near_duplicates=args.dedup_near,
+                                class_token_budget=args.class_token_budget, order=args.order,
+                                budget_tokens=args.budget_tokens, budget_usd=args.budget_usd,
+                                deadline=deadline, changed_lines=since)
+    metrics_path = args.metrics_out or os.path.join(args.out, f"{repo_name}_llm_metrics.json")
+    telemetry.save(metrics_path, args.prometheus_out)
+    print(f"LLM metrics saved to: {metrics_path}"
+          + (f" (Prometheus: {args.prometheus_out})" if args.prometheus_out else ""))
+
+
+def refresh_sources(known: dict, repo_path: str, paths: set, rediscover) -> list:
+    """
+    Update the discovered file list for changed paths without walking the repository.
+
+    Only files already known are re-stat'ed; added or deleted files (or paths
+    that could not be stat'ed) fall back to rediscover(), so excludes and
+    .gitignore rules apply to them as in a full run.
+    """
+    try:
+        if all(rel_path in known for rel_path in paths):
+            for rel_path in paths:
+                stat = os.stat(os.path.join(repo_path, rel_path))
+                known[rel_path] = SourceFile(rel_path, stat.st_size, stat.st_mtime_ns)
+            return sorted(known.values())
+    except FileNotFoundError:
+        pass
+    source_files = rediscover()
+    known.clear()
+    known.update((f.rel_path, f) for f in source_files)
+    return source_files
+
+
+def watch_repo(args, repo_name: str, output_repo_path: str, source_files: list, excludes: list, manifest: dict,
+               symbol_index: SymbolIndex, comment_store, journal: Journal, deadline: float = None):
+    """
+    Re-comment Java files as they change until interrupted (--watch).
+
+    The process stays up with the API client module, the symbol index, the
+    comment cache and the manifest loaded. After each debounced batch of
+    changes only the touched files are re-stat'ed, re-parsed and re-commented,
+    and the architecture outputs are regenerated from the index if any models
+    changed, so a one-file edit costs about one LLM round trip.
+    """
+    def rediscover():
+        return discover_repo(args.repo, excludes, skip_dirs=[args.out], use_gitignore=not args.no_gitignore)
+
+    known = {f.rel_path: f for f in source_files}
+    ignored = set()
+    watcher = create_watcher(args.repo, excludes, skip_dirs=[args.out], use_gitignore=not args.no_gitignore,
+                             rescan_interval=args.rescan_interval)
+    print(f"Watching {args.repo} for changes ({watcher.kind}); press Ctrl+C to stop")
+    try:
+        for paths, rescan in watcher.changes(args.debounce):
+            # Files skipped by .gitignore or excludes stay skipped until a rescan
+            paths -= ignored
+            if not paths and not rescan:
+                continue
+            update_start = time.perf_counter()
+            source_files = rediscover() if rescan else refresh_sources(known, args.repo, paths, rediscover)
+            if rescan:
+                known = {f.rel_path: f for f in source_files}
+                ignored.clear()
+            ignored.update(path for path in paths if path not in known and os.path.exists(os.path.join(args.repo, path)))
+
+            plan = sync_repo(args.repo, output_repo_path, manifest, clean=False, output_mode=args.output_mode,
+                             link_mode=args.link_mode, source_files=source_files)
+            index_stats = symbol_index.update(args.repo, source_files, args.parse_workers)
+            if plan["to_process"]:
+                comment_files(args, plan["to_process"], repo_name, output_repo_path, symbol_index,
+                              comment_store, manifest, journal, deadline)
+            if plan["to_process"] or plan["removed"]:
+                save_manifest(output_repo_path, manifest)
+                if not journal.failures:
+                    journal.reset()
+            if index_stats["indexed"] or index_stats["removed"]:
+                generate_reports(args, repo_name, symbol_index)
+            print(f"Updated {len(plan['to_process'])} files ({len(plan['removed'])} removed) "
+                  f"in {time.perf_counter() - update_start:.1f}s; watching for changes")
+    except KeyboardInterrupt:
+        print("Stopped watching")
+    finally:
+        watcher.close()
+
+
 if __name__ == "__main__":
     parser = argparse.ArgumentParser(description="CodeComprehender - Java codebase analyzer and commenter")
     parser.add_argument("--repo", required=True, help="Path to Java repo to process")
@@ -183,30 +345,192 @@ if __name__ == "__main__":
     parser.add_argument("--arch-report", action="store_true", help="Generate architecture report (Markdown)")
     parser.add_argument("--visual", action="store_true", help="Generate visual architecture diagrams")
     parser.add_argument("--architecture", action="store_true", help="Print class architecture to console")
+    parser.add_argument("--sharded", action="store_true",
+                        help="With --visual, write a package overview plus one diagram per package")
+    parser.add_argument("--node-cap", type=int, default=DEFAULT_NODE_CAP,
+                        help=f"Maximum nodes per sharded package diagram (default: {DEFAULT_NODE_CAP})")
     parser.add_argument("--workers", type=int, default=4, help="Number of parallel workers (default: 4)")
+    parser.add_argument("--parse-workers", type=int, default=os.cpu_count() or 1,
+                        help="Number of parser processes (default: CPU count)")
+    parser.add_argument("--max-inflight", type=int, default=DEFAULT_MAX_INFLIGHT,
+                        help=f"Maximum concurrent API requests across all files (default: {DEFAULT_MAX_INFLIGHT})")
+    parser.add_argument("--rpm", type=float, help="Requests-per-minute limit for the OpenAI API")
+    parser.add_argument("--tpm", type=float, help="Tokens-per-minute limit for the OpenAI API")
+    parser.add_argument("--packed", action="store_true",
+                        help="Comment several methods per API request using structured JSON output")
+    parser.add_argument("--pack-token-budget", type=int, default=DEFAULT_PACK_TOKEN_BUDGET,
+                        help=f"Approximate method-source tokens per packed request (default: {DEFAULT_PACK_TOKEN_BUDGET})")
+    parser.add_argument("--class-token-budget", type=int, default=DEFAULT_CLASS_TOKEN_BUDGET,
+                        help=f"Approximate class outline tokens per class comment request (default: {DEFAULT_CLASS_TOKEN_BUDGET})")
+    parser.add_argument("--no-dedup", action="store_true",
+                        help="Send every uncached method, even when another method in the run has the same structure")
+    parser.add_argument("--dedup-near", action="store_true",
+                        help="Also reuse comments for near-duplicate methods found with MinHash/LSH")
+    parser.add_argument("--order", choices=SCHEDULING_ORDERS, default=DEFAULT_ORDER,
+                        help="Which waiting API requests go first: fifo, largest-first or public-first "
+                             "(default: fifo); requests compete among the --workers files in the LLM stage, "
+                             "and the other orders also feed files largest-first")
+    parser.add_argument("--budget-tokens", type=int,
+                        help="Stop sending API requests once this many tokens are spent; the rest get template comments")
+    parser.add_argument("--budget-usd", type=float,
+                        help="Stop sending API requests once this much estimated cost is spent")
+    parser.add_argument("--deadline",
+                        help="Send no API requests after this time (e.g. 45m, 06:00, 2026-10-19T06:00)")
+    parser.add_argument("--batch-mode", action="store_true",
+                        help="Generate comments through the provider's Batch API (cheaper, finishes within 24h)")
+    parser.add_argument("--batch-backend", choices=sorted(BATCH_BACKENDS), default="openai",
+                        help="Batch API backend (default: openai)")
+    parser.add_argument("--batch-poll-interval", type=float, default=DEFAULT_POLL_INTERVAL,
+                        help=f"Seconds between batch status checks (default: {DEFAULT_POLL_INTERVAL:.0f})")
+    parser.add_argument("--metrics-out",
+                        help="Per-run LLM metrics JSON (default: <out>/<repo>_llm_metrics.json)")
+    parser.add_argument("--prometheus-out", help="Also write the LLM metrics in Prometheus text format to this file")
+    parser.add_argument("--trace", help="Write a Chrome trace-event JSON of the run's stages (open in Perfetto)")
+    parser.add_argument("--output-mode", choices=OUTPUT_MODES, default="full",
+                        help="full: mirror the repo next to commented files; lean: write only commented Java files")
+    parser.add_argument("--link-mode", choices=LINK_MODES, default="copy",
+                        help="How the full mirror places files: copy, hardlink or reflink (default: copy)")
+    parser.add_argument("--exclude", action="append", default=[], metavar="GLOB",
+                        help=f"Exclude matching files/directories (repeatable; always excluded: {', '.join(DEFAULT_EXCLUDES)})")
+    parser.add_argument("--no-gitignore", action="store_true", help="Do not apply .gitignore rules during discovery")
+    parser.add_argument("--full-rebuild", action="store_true",
+                        help="Ignore the previous run's manifest and re-comment every file")
+    parser.add_argument("--resume", action="store_true",
+                        help="Resume an interrupted run from its journal, retrying only unfinished or failed files")
+    parser.add_argument("--resplice", action="store_true",
+                        help="Re-splice journaled/cached comments into every file without calling the API")
+    parser.add_argument("--since", metavar="GIT_REV",
+                        help="Re-comment only methods changed since this git revision; "
+                             "other methods keep their comments from the previous output in --out")
+    parser.add_argument("--watch", action="store_true",
+                        help="After the run, keep watching the repo and re-comment Java files as they change")
+    parser.add_argument("--debounce", type=float, default=DEFAULT_DEBOUNCE,
+                        help=f"Seconds without changes before a watch update starts (default: {DEFAULT_DEBOUNCE:g})")
+    parser.add_argument("--rescan-interval", type=float, default=DEFAULT_RESCAN_INTERVAL,
+                        help=f"Watch rescan interval when inotify is unavailable (default: {DEFAULT_RESCAN_INTERVAL:g}s)")
+    parser.add_argument("--index-path", help="Symbol index database (default: <out>/.<repo>_symbols.sqlite3)")
+    parser.add_argument("--no-cache", action="store_true", help="Disable the on-disk comment cache")
+    parser.add_argument("--cache-dir", help=f"Comment cache directory (default: <out>/{DEFAULT_CACHE_DIRNAME})")
+    parser.add_argument("--cache-max-entries", type=int, default=DEFAULT_MAX_ENTRIES,
+                        help=f"Maximum cached comments before LRU eviction (default: {DEFAULT_MAX_ENTRIES})")
 
     args = parser.parse_args()
+    if args.batch_mode and (args.packed or args.resplice):
+        parser.error("--batch-mode cannot be combined with --packed or --resplice")
+    if args.watch and (args.batch_mode or args.resplice):
+        parser.error("--watch cannot be combined with --batch-mode or --resplice")
+    if args.since and (args.watch or args.resplice):
+        parser.error("--since cannot be combined with --watch or --resplice")
+    deadline = None
+    if args.deadline:
+        try:
+            deadline = parse_deadline(args.deadline)
+        except ValueError:
+            parser.error(f"--deadline: expected a duration, HH:MM or ISO date-time, got {args.deadline!r}")
+    run_start = time.perf_counter()
+    if args.trace:
+        tracer.enable()
+
+    # Discover the repository once; every later stage works from this file list
+    excludes = list(DEFAULT_EXCLUDES) + args.exclude
+    source_files = []
+    if os.path.isdir(args.repo):
+        with tracer.span("discover"):
+            source_files = discover_repo(args.repo, excludes, skip_dirs=[args.out],
+                                         use_gitignore=not args.no_gitignore)
 
     # Validate input
-    if not validate_repo_path(args.repo):
+    if not validate_repo_path(args.repo, source_files):
         exit(1)
 
+    since = None
+    if args.since:
+        try:
+            since = changed_lines(args.repo, args.since)
+        except ValueError as e:
+            print(f"Cannot diff against {args.since}: {e}")
+            exit(1)
+        print(f"Changes since {args.since}: {len(since)} Java files")
+
     repo_name = os.path.basename(os.path.abspath(args.repo.rstrip("/")))
     output_repo_path = os.path.join(args.out, f"{repo_name}_commented")
 
     # Ensure output directory exists
     os.makedirs(args.out, exist_ok=True)
 
-    # Copy repo and process files
-    copy_repo(args.repo, output_repo_path)
-    process_java_files_parallel(output_repo_path, max_workers=args.workers)
-
-    # Generate reports using ORIGINAL repo (not commented version)
-    if args.arch_report:
-        generate_architecture_report(args.repo, args.out, repo_name)
-
-    if args.visual:
-        save_visual_architecture(args.repo, args.out, repo_name)
-
-    if args.architecture:
-        print_visual_architecture(args.repo)
\ No newline at end of file
+    cache = None
+    if not args.no_cache:
+        cache_dir = args.cache_dir or os.path.join(args.out, DEFAULT_CACHE_DIRNAME)
+        cache = CommentCache(cache_dir, max_entries=args.cache_max_entries)
+
+    # Sync repo into the output tree and process only added or changed files
+    settings = {
+        "model": MODEL,
+        "temperature": TEMPERATURE,
+        "method_prompt": PACKED_PROMPT_VERSION if args.packed else METHOD_PROMPT_VERSION,
+        "class_prompt": CLASS_PROMPT_VERSION,
+        "output_mode": args.output_mode,
+    }
+    manifest = load_manifest(output_repo_path, settings)
+    if args.full_rebuild:
+        manifest["files"] = {}
+
+    # Replay the previous run's journal before syncing: its comments are reused by every
+    # run, and with --resume its completed files count as done
+    reuse_journal = args.resume or args.resplice
+    journal_state = replay_journal(output_repo_path)
+    if args.resume:
+        restored = apply_journal_to_manifest(journal_state, manifest)
+        print(f"Resuming: {restored} files completed, {len(journal_state['failures'])} failed, "
+              f"{len(journal_state['comments'])} comments journaled")
+
+    with tracer.span("sync"):
+        plan = sync_repo(args.repo, output_repo_path, manifest, clean=not reuse_journal,
+                         output_mode=args.output_mode, link_mode=args.link_mode, source_files=source_files)
+    print(f"Repo synced to: {output_repo_path} ({len(plan['added'])} added, {len(plan['changed'])} changed, "
+          f"{len(plan['unchanged'])} skipped, {len(plan['removed'])} removed)")
+
+    journal = Journal(output_repo_path)
+    journal.keep_comments(journal_state["comments"])
+    comment_store = JournaledCache(journal, journal_state["comments"], cache)
+    if args.resplice:
+        plan["to_process"] = sorted(rel_path for rel_path in manifest["files"] if rel_path.endswith(".java"))
+
+    # Parse changed files into the symbol index; the commenter and the reports
+    # read their models from it instead of re-parsing the repo
+    symbol_index = SymbolIndex(args.index_path or default_index_path(args.out, repo_name))
+    with tracer.span("index"):
+        index_stats = symbol_index.update(args.repo, source_files, args.parse_workers)
+    print(f"Symbol index: {index_stats['indexed']} parsed, {index_stats['unchanged']} unchanged, "
+          f"{index_stats['removed']} removed")
+
+    comment_files(args, plan["to_process"], repo_name, output_repo_path, symbol_index, comment_store,
+                  manifest, journal, deadline, since)
+    save_manifest(output_repo_path, manifest)
+    if not journal.failures:
+        journal.reset()
+
+    if cache:
+        stats = cache.stats()
+        print(f"Comment cache: {stats['hits']} hits, {stats['misses']} misses "
+              f"({stats['hit_rate']:.0%} hit rate, {stats['entries']} entries, {stats['evictions']} evicted)")
+
+    # Generate reports from the ORIGINAL repo's models (not commented version)
+    with tracer.span("reports"):
+        generate_reports(args, repo_name, symbol_index)
+
+    wall_seconds = time.perf_counter() - run_start
+    print(f"Run finished in {wall_seconds:.1f}s")
+    print(tracer.breakdown(wall_seconds))
+    if args.trace:
+        tracer.save(args.trace)
+        print(f"Trace saved to: {args.trace} (open in https://ui.perfetto.dev)")
+
+    if args.watch:
+        # Keep the index, cache and journal open; each change re-runs only the files it touched
+        watch_repo(args, repo_name, output_repo_path, source_files, excludes, manifest, symbol_index,
+                   comment_store, journal, deadline)
+    journal.close()
+    if cache:
+        cache.close()
+    symbol_index.close()
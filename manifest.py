@@ -0,0 +1,218 @@
+# manifest.py
+import os
+import json
+import shutil
+import hashlib
+
+from repo_discovery import discover_repo, DEFAULT_EXCLUDES
+
+MANIFEST_NAME = ".codecomprehender_manifest.json"
+MANIFEST_VERSION = 1
+
+# Output modes: "full" mirrors the whole repo, "lean" writes only commented Java files
+OUTPUT_MODES = ("full", "lean")
+
+# How a full mirror places unchanged files
+LINK_MODES = ("copy", "hardlink", "reflink")
+
+# Linux FICLONE ioctl (copy-on-write clone on btrfs, XFS and similar)
+_FICLONE = 0x40049409
+
+
+def file_digest(path: str) -> str:
+    """Return the SHA-256 hex digest of a file's contents."""
+    digest = hashlib.sha256()
+    with open(path, "rb") as f:
+        for chunk in iter(lambda: f.read(1 << 20), b""):
+            digest.update(chunk)
+    return digest.hexdigest()
+
+
+def commented_output_path(path: str) -> str:
+    """Return the `_commented.java` path produced for a Java source file."""
+    base, ext = os.path.splitext(path)
+    return f"{base}_commented{ext}"
+
+
+def load_manifest(dest_root: str, settings: dict = None) -> dict:
+    """
+    Load the manifest written by the previous run.
+
+    Args:
+        dest_root: Output repository directory
+        settings: Run settings that affect generated output; a mismatch discards the manifest
+
+    Returns:
+        Manifest dictionary, empty if missing, unreadable or produced with other settings
+    """
+    path = os.path.join(dest_root, MANIFEST_NAME)
+    empty = {"version": MANIFEST_VERSION, "settings": settings or {}, "files": {}}
+    if not os.path.exists(path):
+        return empty
+    try:
+        with open(path, "r", encoding="utf-8") as f:
+            manifest = json.load(f)
+    except (OSError, ValueError) as e:
+        print(f"⚠️ Ignoring unreadable manifest {path}: {e}")
+        return empty
+    if manifest.get("version") != MANIFEST_VERSION or manifest.get("settings") != (settings or {}):
+        return empty
+    return manifest
+
+
+def save_manifest(dest_root: str, manifest: dict):
+    """Atomically write the manifest into the output repository."""
+    path = os.path.join(dest_root, MANIFEST_NAME)
+    tmp_path = path + ".tmp"
+    with open(tmp_path, "w", encoding="utf-8") as f:
+        json.dump(manifest, f, indent=1, sort_keys=True)
+    os.replace(tmp_path, path)
+
+
+def place_file(src_path: str, dest_path: str, link_mode: str = "copy"):
+    """
+    Put a source file into the mirror as a copy, hardlink or reflink.
+
+    The destination is unlinked first so a later write can never go through a
+    hardlink into the source tree. Links fall back to copying when the
+    filesystem does not support them.
+    """
+    if os.path.lexists(dest_path):
+        os.remove(dest_path)
+    try:
+        if link_mode == "hardlink":
+            os.link(src_path, dest_path)
+            return
+        if link_mode == "reflink":
+            import fcntl
+            with open(src_path, "rb") as src, open(dest_path, "wb") as dest:
+                fcntl.ioctl(dest.fileno(), _FICLONE, src.fileno())
+            shutil.copystat(src_path, dest_path)
+            return
+    except (OSError, ImportError):
+        if os.path.lexists(dest_path):
+            os.remove(dest_path)
+    shutil.copy2(src_path, dest_path)
+
+
+def _output_intact(dest_root: str, rel_path: str, entry: dict) -> bool:
+    """
+    Check that the commented output recorded for a Java file still exists unchanged.
+
+    Like sources, outputs with the recorded size and mtime are trusted without
+    reading them; only a differing stat costs a hash, and a matching hash
+    refreshes the recorded mtime.
+    """
+    if not rel_path.endswith(".java"):
+        return True
+    output_hash = entry.get("output_sha256")
+    if not output_hash:
+        return False
+    output_path = os.path.join(dest_root, commented_output_path(rel_path))
+    try:
+        stat = os.stat(output_path)
+    except FileNotFoundError:
+        return False
+    if entry.get("output_size") == stat.st_size and entry.get("output_mtime_ns") == stat.st_mtime_ns:
+        return True
+    if file_digest(output_path) != output_hash:
+        return False
+    entry["output_size"] = stat.st_size
+    entry["output_mtime_ns"] = stat.st_mtime_ns
+    return True
+
+
+def sync_repo(src_root: str, dest_root: str, manifest: dict, clean: bool = True, output_mode: str = "full",
+              link_mode: str = "copy", excludes=DEFAULT_EXCLUDES, source_files: list = None) -> dict:
+    """
+    Bring the output repository in line with the source using the manifest.
+
+    Unchanged files (same size and mtime, or same content hash) are left alone,
+    added and changed files are placed in the mirror, and outputs of removed
+    files are deleted. In lean mode only Java files are tracked and nothing is
+    mirrored; the pipeline reads sources in place and writes just the
+    `_commented.java` outputs.
+
+    Args:
+        src_root: Source repository path
+        dest_root: Output repository path
+        manifest: Manifest from the previous run, updated in place
+        clean: Wipe the output tree when there is no usable manifest
+        output_mode: "full" or "lean"
+        link_mode: "copy", "hardlink" or "reflink" for mirrored files
+        excludes: Glob patterns of files and directories to leave out
+        source_files: SourceFile list from discover_repo; discovered here if omitted
+
+    Returns:
+        Dictionary with 'added', 'changed', 'unchanged', 'removed' relative paths
+        and 'to_process', the Java files that need commenting
+    """
+    files = manifest["files"]
+    if clean and not files and os.path.exists(dest_root):
+        # No usable manifest: start from a clean output tree
+        shutil.rmtree(dest_root)
+    os.makedirs(dest_root, exist_ok=True)
+
+    plan = {"added": [], "changed": [], "unchanged": [], "removed": [], "to_process": []}
+    seen = set()
+
+    if source_files is None:
+        source_files = discover_repo(src_root, excludes, skip_dirs=[dest_root])
+
+    mirrored = output_mode == "full"
+    for rel_path, size, mtime_ns in source_files:
+        if not mirrored and not rel_path.endswith(".java"):
+            continue
+        seen.add(rel_path)
+        entry = files.get(rel_path)
+        src_path = os.path.join(src_root, rel_path)
+        dest_path = os.path.join(dest_root, rel_path)
+
+        if entry and entry["size"] == size and entry["mtime_ns"] == mtime_ns:
+            unchanged = True
+        else:
+            content_hash = file_digest(src_path)
+            unchanged = bool(entry) and entry["sha256"] == content_hash
+            if unchanged:
+                entry["mtime_ns"] = mtime_ns
+            else:
+                entry = {"size": size, "mtime_ns": mtime_ns, "sha256": content_hash}
+
+        if unchanged and (not mirrored or os.path.exists(dest_path)):
+            plan["unchanged"].append(rel_path)
+            if not _output_intact(dest_root, rel_path, entry):
+                plan["to_process"].append(rel_path)
+            continue
+
+        plan["changed" if rel_path in files else "added"].append(rel_path)
+        os.makedirs(os.path.dirname(dest_path), exist_ok=True)
+        if mirrored:
+            place_file(src_path, dest_path, link_mode)
+        for key in ("output_sha256", "output_size", "output_mtime_ns"):
+            entry.pop(key, None)
+        files[rel_path] = entry
+        if rel_path.endswith(".java"):
+            plan["to_process"].append(rel_path)
+
+    for rel_path in sorted(set(files) - seen):
+        plan["removed"].append(rel_path)
+        del files[rel_path]
+        dest_path = os.path.join(dest_root, rel_path)
+        stale = [dest_path]
+        if rel_path.endswith(".java"):
+            stale.append(commented_output_path(dest_path))
+        for path in stale:
+            if os.path.exists(path):
+                os.remove(path)
+
+    return plan
+
+
+def record_output(dest_root: str, manifest: dict, rel_path: str):
+    """Record the hash, size and mtime of the commented output produced for a Java file."""
+    output_path = os.path.join(dest_root, commented_output_path(rel_path))
+    entry = manifest["files"][rel_path]
+    stat = os.stat(output_path)
+    entry["output_sha256"] = file_digest(output_path)
+    entry["output_size"] = stat.st_size
+    entry["output_mtime_ns"] = stat.st_mtime_ns
@@ -0,0 +1,252 @@
+# method_dedup.py
+import re
+import random
+import asyncio
+import hashlib
+
+import javalang
+
+# Token kinds that can precede a declared variable name (its type)
+_TYPE_TOKENS = (javalang.tokenizer.Identifier, javalang.tokenizer.BasicType)
+# Tokens that can follow a declared variable name
+_DECLARATION_ENDS = {"=", ",", ")", ";", ":"}
+# Tokens allowed inside a type argument list such as <K, List<? extends V>>
+_TYPE_ARGUMENT_TOKENS = {".", ",", "?", "&", "extends", "super", "[", "]"}
+
+# MinHash/LSH settings for --dedup-near: 32 permutations in 8 bands of 4 rows,
+# 3-token shingles, and the estimated Jaccard similarity needed to reuse a comment
+MINHASH_PERMUTATIONS = 32
+LSH_BANDS = 8
+SHINGLE_SIZE = 3
+NEAR_DUPLICATE_THRESHOLD = 0.9
+
+_MERSENNE_PRIME = (1 << 61) - 1
+
+
+def _closes_type_arguments(tokens: list, index: int) -> bool:
+    """Whether the '>' (or '>>', '>>>') at index ends a generic type rather than a comparison."""
+    depth = 0
+    for i in range(index, 0, -1):
+        token = tokens[i]
+        if set(token.value) == {">"}:
+            depth += len(token.value)
+        elif token.value == "<":
+            depth -= 1
+            if depth == 0:
+                return isinstance(tokens[i - 1], javalang.tokenizer.Identifier)
+        elif not isinstance(token, _TYPE_TOKENS) and token.value not in _TYPE_ARGUMENT_TOKENS:
+            return False
+    return False
+
+
+def _is_type_end(tokens: list, index: int) -> bool:
+    """Whether the token at index ends a type, so an identifier after it is a declared name."""
+    token = tokens[index]
+    if isinstance(token, _TYPE_TOKENS):
+        return True
+    if token.value == "]":
+        return index > 0 and tokens[index - 1].value == "["
+    if set(token.value) == {">"}:
+        return _closes_type_arguments(tokens, index)
+    return False
+
+
+def canonicalize(code: str) -> tuple:
+    """
+    Reduce a method to its structure.
+
+    Whitespace and comments are dropped by the tokenizer, and parameter and
+    local variable names are replaced by positional placeholders. Method,
+    field, type and called-method names are kept, since generated comments
+    describe them in prose.
+
+    Returns:
+        Tuple of (canonical token values, declared variable names in placeholder order),
+        or (None, ()) if the code cannot be tokenized
+    """
+    try:
+        tokens = list(javalang.tokenizer.tokenize(code))
+    except Exception:
+        return None, ()
+
+    # A declared name follows its type (a type name, '[]' or the '>' closing type
+    # arguments, but not a comparison) and precedes =  ,  )  ;  :
+    declared = {}
+    for i in range(1, len(tokens) - 1):
+        token = tokens[i]
+        if not isinstance(token, javalang.tokenizer.Identifier) or token.value in declared:
+            continue
+        if _is_type_end(tokens, i - 1) and tokens[i + 1].value in _DECLARATION_ENDS:
+            declared[token.value] = f"$v{len(declared)}"
+
+    canonical = [declared.get(token.value, token.value) if isinstance(token, javalang.tokenizer.Identifier)
+                 else token.value for token in tokens]
+    return canonical, tuple(declared)
+
+
+def method_signature(code: str) -> tuple:
+    """
+    Hash a method's canonical form.
+
+    Returns:
+        Tuple of (hex digest, declared variable names, canonical tokens or None)
+    """
+    canonical, variables = canonicalize(code)
+    if canonical is None:
+        # Untokenizable code only deduplicates with byte-identical copies
+        return hashlib.sha256(code.encode("utf-8")).hexdigest(), (), None
+    digest = hashlib.sha256("\0".join(canonical).encode("utf-8")).hexdigest()
+    return digest, variables, canonical
+
+
+def parameter_names(code: str) -> tuple:
+    """Declared names of a method's parameter list, in order."""
+    _, names = canonicalize(code.split("{", 1)[0])
+    return names
+
+
+def adapt_comment(comment: str, source_variables: tuple, target_variables: tuple) -> str:
+    """Rename the variables of the method a comment was written for to another method's names."""
+    mapping = {source: target for source, target in zip(source_variables, target_variables) if source != target}
+    if not mapping:
+        return comment
+    pattern = re.compile(r"\b(" + "|".join(re.escape(name) for name in mapping) + r")\b")
+    return pattern.sub(lambda match: mapping[match.group(1)], comment)
+
+
+class MinHashLSH:
+    """Banded MinHash index answering "is there an earlier method this similar?" in constant time per band."""
+
+    def __init__(self, permutations: int = MINHASH_PERMUTATIONS, bands: int = LSH_BANDS,
+                 threshold: float = NEAR_DUPLICATE_THRESHOLD, seed: int = 1):
+        rng = random.Random(seed)
+        self.rows = permutations // bands
+        self.threshold = threshold
+        self._params = [(rng.randrange(1, _MERSENNE_PRIME), rng.randrange(0, _MERSENNE_PRIME))
+                        for _ in range(permutations)]
+        self._buckets = [{} for _ in range(bands)]
+        self._signatures = {}
+
+    def signature(self, tokens: list) -> tuple:
+        shingles = {
+            int.from_bytes(hashlib.blake2b("\0".join(tokens[i:i + SHINGLE_SIZE]).encode("utf-8"),
+                                           digest_size=8).digest(), "big")
+            for i in range(max(1, len(tokens) - SHINGLE_SIZE + 1))
+        }
+        return tuple(min((a * shingle + b) % _MERSENNE_PRIME for shingle in shingles) for a, b in self._params)
+
+    def match_or_add(self, key: str, tokens: list):
+        """Return the key of an earlier similar method, or index this one and return None."""
+        signature = self.signature(tokens)
+        bands = [signature[i * self.rows:(i + 1) * self.rows] for i in range(len(self._buckets))]
+        for band, bucket in zip(bands, self._buckets):
+            candidate = bucket.get(band)
+            if candidate is None:
+                continue
+            other = self._signatures[candidate]
+            similarity = sum(x == y for x, y in zip(signature, other)) / len(signature)
+            if similarity >= self.threshold:
+                return candidate
+        self._signatures[key] = signature
+        for band, bucket in zip(bands, self._buckets):
+            bucket.setdefault(band, key)
+        return None
+
+
+class DedupClaim:
+    """One method's place in a duplicate group: the leader sends the request, followers reuse it."""
+
+    def __init__(self, digest: str, variables: tuple, future, leader: bool, near: bool = False,
+                 parameters: tuple = (), leader_parameters: tuple = ()):
+        self.digest = digest
+        self.variables = variables
+        self.parameters = parameters
+        self.leader_parameters = leader_parameters
+        self.future = future
+        self.leader = leader
+        self.near = near
+
+
+class MethodDeduplicator:
+    """
+    In-memory, single-pass grouping of uncached methods across a whole run.
+
+    The first method of each canonical form becomes the group leader and is
+    sent to the API; later methods with the same form await the leader's
+    comment and adapt it by renaming variables. Near duplicates (near=True)
+    reuse a comment only when their parameter count matches the leader's, and
+    only parameter names are rewritten since their other declarations need not
+    line up. Each method is canonicalized once and looked up in a dict (plus a
+    constant number of LSH buckets with near=True), so the pass is linear in
+    the method set.
+    """
+
+    def __init__(self, near: bool = False):
+        self.lsh = MinHashLSH() if near else None
+        self._groups = {}
+        self._parameters = {}
+        self.methods = 0
+        self.exact = 0
+        self.near = 0
+
+    def claim(self, code: str) -> DedupClaim:
+        """Join or start the duplicate group of an uncached method."""
+        self.methods += 1
+        digest, variables, tokens = method_signature(code)
+        group = self._groups.get(digest)
+        if group is not None:
+            self.exact += 1
+            return DedupClaim(digest, variables, group, leader=False)
+        parameters = parameter_names(code)
+        if self.lsh is not None and tokens is not None:
+            similar = self.lsh.match_or_add(digest, tokens)
+            leader_parameters = self._parameters.get(similar)
+            if similar in self._groups and leader_parameters is not None \
+                    and len(leader_parameters) == len(parameters):
+                self.near += 1
+                return DedupClaim(digest, variables, self._groups[similar], leader=False, near=True,
+                                  parameters=parameters, leader_parameters=leader_parameters)
+        future = asyncio.get_running_loop().create_future()
+        self._groups[digest] = future
+        self._parameters[digest] = parameters
+        return DedupClaim(digest, variables, future, leader=True, parameters=parameters)
+
+    def record(self, code: str, comment: str):
+        """Make a cached comment available to later duplicates."""
+        digest, variables, _ = method_signature(code)
+        if digest not in self._groups:
+            future = asyncio.get_running_loop().create_future()
+            future.set_result((comment, variables, None))
+            self._groups[digest] = future
+            self._parameters[digest] = parameter_names(code)
+
+    def resolve(self, claim: DedupClaim, result):
+        """Publish a leader's outcome; failed groups are dropped so later duplicates retry."""
+        if claim.future.done():
+            return
+        if result and not isinstance(result, Exception):
+            claim.future.set_result((result, claim.variables, None))
+        else:
+            claim.future.set_result((None, claim.variables, result if isinstance(result, Exception) else None))
+            if self._groups.get(claim.digest) is claim.future:
+                del self._groups[claim.digest]
+
+    async def follow(self, claim: DedupClaim):
+        """Await the leader's comment and adapt it to this method's variable names."""
+        comment, leader_variables, error = await claim.future
+        if comment is None:
+            # Followers share the leader's outcome, e.g. a scheduler deferral
+            return error or Exception("Duplicate group's request failed")
+        if claim.near:
+            return adapt_comment(comment, claim.leader_parameters, claim.parameters)
+        return adapt_comment(comment, leader_variables, claim.variables)
+
+    def stats(self) -> dict:
+        duplicates = self.exact + self.near
+        return {
+            "methods": self.methods,
+            "requests": self.methods - duplicates,
+            "exact": self.exact,
+            "near": self.near,
+            "ratio": duplicates / self.methods if self.methods else 0.0,
+        }
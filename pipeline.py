@@ -0,0 +1,381 @@
+# pipeline.py
+import os
+import time
+import shutil
+import asyncio
+from concurrent.futures import ProcessPoolExecutor
+
+from java_parser import parse_files, method_blocks, DEFAULT_PARSE_CHUNK_SIZE
+from comment_generator import (
+    batch_generate_comments, generate_class_summary, init_llm_session, close_llm_session, get_telemetry,
+    build_method_prompt, build_class_prompt, estimate_tokens, MODEL, DEFAULT_MAX_INFLIGHT,
+    DEFAULT_PACK_TOKEN_BUDGET, METHOD_MAX_TOKENS, CLASS_MAX_TOKENS
+)
+from class_outline import build_class_outline, DEFAULT_CLASS_TOKEN_BUDGET
+from comment_splicer import build_edits, type_comments_for, write_spliced
+from method_classifier import classify_methods, class_is_documented, merge_comments, fallback_comment
+from method_dedup import MethodDeduplicator
+from git_changes import carry_over
+from scheduler import RequestScheduler, Deferred, DEFAULT_ORDER
+from telemetry import current_source, MODEL_PRICING
+from tracing import tracer, current_track
+
+# Bound on items waiting between two stages; keeps memory flat on huge repos
+DEFAULT_QUEUE_SIZE = 64
+
+# Marks the end of a stage's input
+_DONE = object()
+
+# Rough source tokens per method line, for estimating work before files are read
+ESTIMATED_TOKENS_PER_LINE = 10
+
+
+class FileJob:
+    """State of one Java file as it moves through the pipeline."""
+
+    def __init__(self, path: str, output_path: str):
+        self.path = path
+        self.output_path = output_path
+        self.model = None
+        self.lines = None
+        self.methods = []
+        self.class_comment = None
+        self.method_comments = []
+        self.edits = None
+        self.fast_path = None
+        self.commented = False
+        self.error = None
+
+
+def commented_path_for(filepath: str) -> str:
+    """Return the `_commented.java` output path for a Java file."""
+    base_name = os.path.splitext(os.path.basename(filepath))[0]
+    return os.path.join(os.path.dirname(filepath), f"{base_name}_commented.java")
+
+
+def _read_source(job: FileJob):
+    with open(job.path, 'r', encoding='utf-8') as f:
+        job.lines = f.readlines()
+    job.methods = method_blocks(job.model, job.lines)
+
+
+def _carry_over(job: FileJob, changed: set, indices: list) -> tuple:
+    with open(job.output_path, 'r', encoding='utf-8') as f:
+        previous_lines = f.readlines()
+    return carry_over(job.model, job.lines, previous_lines, changed, indices)
+
+
+def _write_output(job: FileJob):
+    os.makedirs(os.path.dirname(job.output_path) or ".", exist_ok=True)
+    if not job.edits:
+        # Nothing to insert or generation failed: keep the original content
+        shutil.copy2(job.path, job.output_path)
+        return
+    write_spliced(job.output_path, job.lines, job.edits)
+
+
+async def _run_stage(name: str, worker_count: int, inbox: asyncio.Queue, outbox, handle):
+    """Run worker_count consumers of inbox, forwarding handled jobs to outbox."""
+
+    async def worker(index):
+        # Each worker is its own trace track; time blocked on the queues is traced as idle
+        current_track.set(f"{name}-{index}")
+        while True:
+            with tracer.span(f"{name} idle"):
+                job = await inbox.get()
+            if job is _DONE:
+                return
+            await handle(job)
+            if outbox is not None:
+                with tracer.span(f"{name} idle"):
+                    await outbox.put(job)
+
+    await asyncio.gather(*(worker(index) for index in range(worker_count)))
+    if outbox is not None:
+        await outbox.put(_DONE)
+
+
+async def _fan_out_done(source: asyncio.Queue, target: asyncio.Queue, worker_count: int):
+    """Translate a single end marker into one per downstream worker."""
+    while True:
+        job = await source.get()
+        if job is _DONE:
+            break
+        await target.put(job)
+    for _ in range(worker_count):
+        await target.put(_DONE)
+
+
+def estimate_work(model, class_token_budget: int = DEFAULT_CLASS_TOKEN_BUDGET) -> dict:
+    """
+    Estimate the requests and tokens a file will need from its parsed model alone.
+
+    Method size comes from the parser's line extents, so the whole run can be
+    estimated and ordered before any file is read. Cache hits and duplicates
+    are not known yet, so this is an upper bound.
+
+    Returns:
+        Dictionary with 'methods', 'classes', 'tokens' and the 'completion' share of them
+    """
+    if not model or not model["methods"]:
+        return {"methods": 0, "classes": 0, "tokens": 0, "completion": 0}
+    _, api_indices, _ = classify_methods(model["methods"])
+    method_overhead = estimate_tokens(build_method_prompt("")) + METHOD_MAX_TOKENS
+    tokens = sum(
+        (model["methods"][i]["end"] - model["methods"][i]["start"] + 1) * ESTIMATED_TOKENS_PER_LINE + method_overhead
+        for i in api_indices
+    )
+    classes = 0 if class_is_documented(model) else 1
+    tokens += classes * (estimate_tokens(build_class_prompt("")) + class_token_budget + CLASS_MAX_TOKENS)
+    completion = len(api_indices) * METHOD_MAX_TOKENS + classes * CLASS_MAX_TOKENS
+    return {"methods": len(api_indices), "classes": classes, "tokens": tokens, "completion": completion}
+
+
+async def run_pipeline(java_files, max_workers: int = 4, max_inflight: int = DEFAULT_MAX_INFLIGHT,
+                       cache=None, on_file_done=None, queue_size: int = DEFAULT_QUEUE_SIZE, models=None,
+                       packed: bool = False, pack_token_budget: int = DEFAULT_PACK_TOKEN_BUDGET,
+                       requests_per_minute: float = None, tokens_per_minute: float = None,
+                       parse_workers: int = None, parse_chunk_size: int = DEFAULT_PARSE_CHUNK_SIZE,
+                       offline: bool = False, dedup: bool = True, near_duplicates: bool = False,
+                       class_token_budget: int = DEFAULT_CLASS_TOKEN_BUDGET, telemetry=None,
+                       order: str = DEFAULT_ORDER, budget_tokens: int = None, budget_usd: float = None,
+                       deadline: float = None, changed_lines: dict = None):
+    """
+    Comment Java files in one event loop: discover -> read/parse -> LLM -> splice -> write.
+
+    Stages are joined by bounded queues, and every API request shares one
+    connection pool and one global in-flight limit. Requests from all files in
+    flight wait in one priority queue (see scheduler.RequestScheduler); with a
+    budget or deadline, methods whose requests are deferred get template
+    comments and their files are retried on the next run.
+
+    Args:
+        java_files: Iterable of Java file paths, or (source path, output path) pairs, to process
+        max_workers: Number of files in the LLM stage at once
+        max_inflight: Maximum concurrent API requests across all files
+        cache: Optional CommentCache
+        on_file_done: Optional callback(job) called for every file once it is finished;
+            job.commented is False when any comment failed, job.error is set on errors
+        queue_size: Capacity of each inter-stage queue
+        models: Optional mapping of file path to an already-parsed model
+        packed: Pack several methods into each request
+        pack_token_budget: Approximate method-source tokens per packed request
+        requests_per_minute: Optional RPM cap shared by all requests
+        tokens_per_minute: Optional TPM cap shared by all requests
+        parse_workers: Parser processes (default: CPU count; 1 parses in a thread)
+        parse_chunk_size: Files per parse task sent to a worker process
+        offline: Use only cached or journaled comments, never the API
+        dedup: Send one request per canonical method form across the run
+        near_duplicates: Also reuse comments across MinHash/LSH near-duplicates
+        class_token_budget: Approximate tokens of class outline per class comment request
+        telemetry: Optional Telemetry recording every request of the run (see get_telemetry)
+        order: Request order: "fifo", "largest-first" or "public-first"; the latter two
+            also feed files largest-first when models are given
+        budget_tokens: Stop sending requests once this many tokens are spent or reserved
+        budget_usd: Stop sending requests once this much estimated spend is reached
+        deadline: Epoch time after which no new request is sent
+        changed_lines: Mapping of file path to the line numbers changed since --since
+            (None for new files, missing for unchanged ones); untouched methods keep
+            their comments from the previous output instead of being regenerated
+
+    Returns:
+        Tuple of (processed_count, error_count)
+    """
+    scheduler = RequestScheduler(max_inflight, order, budget_tokens, budget_usd, deadline, MODEL_PRICING.get(MODEL))
+    init_llm_session(max_inflight, requests_per_minute, tokens_per_minute, telemetry, scheduler)
+    telemetry = get_telemetry()
+
+    if models and not offline:
+        # Estimate the whole run up front; costly files go first unless the order is fifo
+        java_files = list(java_files)
+        estimates = {}
+        for item in java_files:
+            path = item[0] if isinstance(item, tuple) else item
+            estimates[path] = estimate_work(models.get(path), class_token_budget)
+        total = sum(estimate["tokens"] for estimate in estimates.values())
+        completion = sum(estimate["completion"] for estimate in estimates.values())
+        pricing = MODEL_PRICING.get(MODEL)
+        cost = f" (~${scheduler.cost(total - completion, completion):.2f})" if pricing else ""
+        print(f"Work estimate: {sum(e['methods'] for e in estimates.values())} methods and "
+              f"{sum(e['classes'] for e in estimates.values())} classes for the model, "
+              f"~{total:,} tokens{cost} before cache hits")
+        if budget_tokens and total > budget_tokens:
+            print(f"Token budget covers about {budget_tokens / total:.0%} of the estimate; "
+                  f"the rest gets template comments")
+        if order != "fifo":
+            java_files.sort(key=lambda item: -estimates[item[0] if isinstance(item, tuple) else item]["tokens"])
+    parse_workers = parse_workers or os.cpu_count() or 1
+    parse_pool = ProcessPoolExecutor(max_workers=parse_workers) if parse_workers > 1 else None
+    io_workers = 4
+
+    discovered = asyncio.Queue(queue_size)
+    parsed = asyncio.Queue(queue_size)
+    llm_q = asyncio.Queue(queue_size)
+    generated = asyncio.Queue(queue_size)
+    write_q = asyncio.Queue(queue_size)
+
+    counts = {"processed": 0, "errors": 0}
+    start_time = time.time()
+    deduplicator = MethodDeduplicator(near_duplicates) if dedup else None
+
+    async def discover():
+        for item in java_files:
+            if isinstance(item, tuple):
+                await discovered.put(FileJob(*item))
+            else:
+                await discovered.put(FileJob(item, commented_path_for(item)))
+        await discovered.put(_DONE)
+
+    async def parse():
+        # Files are parsed in chunks on the process pool; at most two chunks per
+        # worker are in flight so the pool stays busy without reading ahead unboundedly
+        loop = asyncio.get_running_loop()
+        slots = asyncio.Semaphore(parse_workers * 2)
+        free_tracks = list(range(parse_workers * 2))
+        tasks = []
+
+        async def parse_chunk(jobs):
+            paths = [job.path for job in jobs]
+            track = free_tracks.pop()
+            current_track.set(f"parse-{track}")
+            try:
+                with tracer.span("parse", f"{len(paths)} files", first=paths[0]):
+                    if parse_pool:
+                        chunk_models = await loop.run_in_executor(parse_pool, parse_files, paths)
+                    else:
+                        chunk_models = await asyncio.to_thread(parse_files, paths)
+            except Exception as e:
+                chunk_models = [None] * len(jobs)
+                for job in jobs:
+                    job.error = e
+            finally:
+                free_tracks.append(track)
+                slots.release()
+            for job, model in zip(jobs, chunk_models):
+                job.model = model
+                await parsed.put(job)
+
+        async def submit(jobs):
+            await slots.acquire()
+            tasks.append(asyncio.create_task(parse_chunk(jobs)))
+
+        chunk = []
+        while True:
+            job = await discovered.get()
+            if job is _DONE:
+                break
+            if models and job.path in models:
+                job.model = models[job.path]
+                await parsed.put(job)
+                continue
+            chunk.append(job)
+            if len(chunk) >= parse_chunk_size:
+                await submit(chunk)
+                chunk = []
+        if chunk:
+            await submit(chunk)
+        await asyncio.gather(*tasks)
+        await parsed.put(_DONE)
+
+    async def generate(job):
+        if job.error or not job.model or not job.model["methods"]:
+            return
+        try:
+            with tracer.span("read", job.path):
+                await asyncio.to_thread(_read_source, job)
+        except Exception as e:
+            job.error = e
+            return
+        # Documented and trivial members never reach the API
+        local_comments, api_indices, job.fast_path = classify_methods(job.model["methods"])
+        carried_class = None
+        changed = changed_lines.get(job.path, set()) if changed_lines is not None else None
+        if changed is not None and os.path.exists(job.output_path):
+            try:
+                with tracer.span("carry", job.path):
+                    carried, carried_class = await asyncio.to_thread(_carry_over, job, changed, api_indices)
+            except Exception as e:
+                print(f"Could not reuse previous comments for {job.path}: {e}")
+                carried = {}
+            for i, comment in carried.items():
+                local_comments[i] = comment
+            api_indices = [i for i in api_indices if i not in carried]
+            job.fast_path["generated"] -= len(carried)
+            job.fast_path["carried"] = len(carried)
+        method_codes = [job.methods[i][2] for i in api_indices]
+        # Requests started below inherit the file for their telemetry
+        current_source.set(job.path)
+        try:
+            with tracer.span("llm", job.path, methods=len(method_codes)):
+                _, api_comments = await batch_generate_comments(
+                    method_codes, None, cache, packed=packed, pack_token_budget=pack_token_budget,
+                    offline=offline, dedup=deduplicator
+                )
+                job.method_comments = merge_comments(local_comments, api_indices, api_comments)
+                # Files with failed or deferred methods are written but not marked done, so they are retried
+                commented = not any(isinstance(c, Exception) for c in job.method_comments)
+                job.method_comments = [
+                    fallback_comment(method) if isinstance(comment, Deferred) else comment
+                    for method, comment in zip(job.model["methods"], job.method_comments)
+                ]
+                # The class comment is written last, from an outline carrying the method summaries
+                if not class_is_documented(job.model):
+                    job.class_comment = carried_class
+                    if not job.class_comment:
+                        outline = build_class_outline(job.model, job.lines, job.method_comments, class_token_budget)
+                        job.class_comment = await generate_class_summary(outline, cache, offline)
+                # A failed or deferred class comment is left out of the output and the file retried
+                commented = commented and not isinstance(job.class_comment, Exception)
+            with tracer.span("splice", job.path):
+                job.edits = build_edits(job.lines, job.model, type_comments_for(job.model, job.class_comment),
+                                        job.method_comments)
+            job.commented = commented
+        except Exception as e:
+            print(f"Batch processing error for {job.path}: {e}")
+
+    async def write(job):
+        try:
+            with tracer.span("write", job.path):
+                await asyncio.to_thread(_write_output, job)
+        except Exception as e:
+            job.error = job.error or e
+        if job.error:
+            print(f"Error processing {job.path}: {job.error}")
+            counts["errors"] += 1
+            if on_file_done:
+                on_file_done(job)
+            return
+        if not job.methods:
+            job.commented = True
+        counts["processed"] += 1
+        if on_file_done:
+            on_file_done(job)
+        if counts["processed"] % 5 == 0:  # Progress update every 5 files
+            elapsed = time.time() - start_time
+            rate = counts["processed"] / elapsed
+            print(f"Progress: {counts['processed']} files ({rate:.1f} files/sec) | {telemetry.summary_line()}")
+
+    try:
+        await asyncio.gather(
+            discover(),
+            parse(),
+            _fan_out_done(parsed, llm_q, max_workers),
+            _run_stage("llm", max_workers, llm_q, generated, generate),
+            _fan_out_done(generated, write_q, io_workers),
+            _run_stage("write", io_workers, write_q, None, write),
+        )
+    finally:
+        await close_llm_session()
+        if parse_pool:
+            parse_pool.shutdown()
+
+    if deduplicator and deduplicator.methods:
+        stats = deduplicator.stats()
+        print(f"Dedup: {stats['methods']} uncached methods, {stats['requests']} requested, "
+              f"{stats['exact']} exact and {stats['near']} near duplicates reused ({stats['ratio']:.0%} saved)")
+    if scheduler.deferred["budget"] or scheduler.deferred["deadline"]:
+        print(f"Scheduler: {scheduler.deferred['budget']} requests over budget and "
+              f"{scheduler.deferred['deadline']} past the deadline got template comments "
+              f"({scheduler.spent_tokens:,} tokens, ${scheduler.spent_usd:.2f} spent); rerun to fill them in")
+
+    return counts["processed"], counts["errors"]
@@ -0,0 +1,207 @@
+# rate_limiter.py
+import re
+import time
+import random
+import asyncio
+from collections import deque
+
+# Backoff settings for retried requests
+BACKOFF_BASE = 1.0
+BACKOFF_CAP = 60.0
+
+_DURATION_PART = re.compile(r"(\d+(?:\.\d+)?)(ms|s|m|h)")
+_DURATION_UNITS = {"ms": 0.001, "s": 1.0, "m": 60.0, "h": 3600.0}
+
+
+def parse_duration(value) -> float:
+    """
+    Parse a rate-limit reset value such as "1s", "6m0s", "20ms" or "1.5".
+
+    Returns:
+        Seconds, or None if the value cannot be parsed
+    """
+    if value is None:
+        return None
+    value = str(value).strip()
+    try:
+        return float(value)
+    except ValueError:
+        pass
+    parts = _DURATION_PART.findall(value)
+    if not parts:
+        return None
+    return sum(float(amount) * _DURATION_UNITS[unit] for amount, unit in parts)
+
+
+def backoff_delay(attempt: int) -> float:
+    """Exponential backoff with full jitter for the given retry attempt (0-based)."""
+    return random.uniform(0, min(BACKOFF_CAP, BACKOFF_BASE * (2 ** attempt)))
+
+
+class RateLimiter:
+    """
+    Token buckets for requests per minute and tokens per minute.
+
+    Buckets refill continuously. Limits left as None are not enforced locally,
+    but the limiter still pauses when API headers report an exhausted quota.
+    """
+
+    def __init__(self, requests_per_minute: float = None, tokens_per_minute: float = None):
+        self.requests_per_minute = requests_per_minute
+        self.tokens_per_minute = tokens_per_minute
+        self._request_level = float(requests_per_minute or 0)
+        self._token_level = float(tokens_per_minute or 0)
+        self._updated = time.monotonic()
+        self._paused_until = 0.0
+        self._lock = asyncio.Lock()
+
+    def _refill(self, now: float):
+        elapsed = now - self._updated
+        self._updated = now
+        if self.requests_per_minute:
+            self._request_level = min(
+                self.requests_per_minute, self._request_level + elapsed * self.requests_per_minute / 60
+            )
+        if self.tokens_per_minute:
+            self._token_level = min(
+                self.tokens_per_minute, self._token_level + elapsed * self.tokens_per_minute / 60
+            )
+
+    async def acquire(self, tokens: int = 0):
+        """Wait until one request and the estimated tokens fit in the buckets, then take them."""
+        # Waiters queue on the lock so capacity is handed out in arrival order
+        async with self._lock:
+            while True:
+                now = time.monotonic()
+                self._refill(now)
+                wait = self._paused_until - now
+                if self.requests_per_minute and self._request_level < 1:
+                    wait = max(wait, (1 - self._request_level) * 60 / self.requests_per_minute)
+                if self.tokens_per_minute:
+                    needed = min(tokens, self.tokens_per_minute)
+                    if self._token_level < needed:
+                        wait = max(wait, (needed - self._token_level) * 60 / self.tokens_per_minute)
+                if wait <= 0:
+                    if self.requests_per_minute:
+                        self._request_level -= 1
+                    if self.tokens_per_minute:
+                        self._token_level -= min(tokens, self.tokens_per_minute)
+                    return
+                await asyncio.sleep(wait)
+
+    def refund(self, tokens: int):
+        """Return over-estimated tokens once the real usage is known."""
+        if self.tokens_per_minute and tokens > 0:
+            self._token_level = min(self.tokens_per_minute, self._token_level + tokens)
+
+    def pause(self, seconds: float):
+        """Hold every new request for the given number of seconds."""
+        self._paused_until = max(self._paused_until, time.monotonic() + seconds)
+
+    def update_from_headers(self, headers):
+        """Align the buckets with the x-ratelimit-* headers of a response."""
+        if not headers:
+            return
+        remaining_requests = headers.get("x-ratelimit-remaining-requests")
+        remaining_tokens = headers.get("x-ratelimit-remaining-tokens")
+        try:
+            if remaining_requests is not None:
+                remaining_requests = float(remaining_requests)
+                if self.requests_per_minute:
+                    self._request_level = min(self._request_level, remaining_requests)
+                if remaining_requests < 1:
+                    self.pause(parse_duration(headers.get("x-ratelimit-reset-requests")) or 1.0)
+            if remaining_tokens is not None:
+                remaining_tokens = float(remaining_tokens)
+                if self.tokens_per_minute:
+                    self._token_level = min(self._token_level, remaining_tokens)
+                if remaining_tokens < 1:
+                    self.pause(parse_duration(headers.get("x-ratelimit-reset-tokens")) or 1.0)
+        except ValueError:
+            pass
+
+
+class CircuitBreaker:
+    """
+    Pauses all requests when the recent rate of transient errors passes a threshold.
+
+    While open, callers wait in wait_if_open instead of failing, so the queue
+    is held rather than drained into errors. After the cooldown the breaker is
+    half-open: one caller goes through as a probe while the rest keep waiting.
+    A successful probe closes the breaker with a fresh window; a failed one
+    opens it for another cooldown.
+    """
+
+    def __init__(self, failure_threshold: float = 0.5, window: int = 20, min_calls: int = 10,
+                 cooldown: float = 30.0):
+        self.failure_threshold = failure_threshold
+        self.min_calls = min_calls
+        self.cooldown = cooldown
+        self.trips = 0
+        self._results = deque(maxlen=window)
+        self._open_until = 0.0
+        self._half_open = False
+        self._probing = False
+        self._probe_settled = asyncio.Event()
+
+    @property
+    def is_open(self) -> bool:
+        return time.monotonic() < self._open_until
+
+    def _trip(self, reason: str):
+        self.trips += 1
+        self._open_until = time.monotonic() + self.cooldown
+        self._half_open = True
+        self._results.clear()
+        print(f"⚠️ {reason}, pausing requests for {self.cooldown:.0f}s")
+
+    def record(self, success: bool, probe: bool = False):
+        """
+        Record the outcome of one API attempt.
+
+        Only transient errors (timeouts, 429, 5xx) should be recorded as
+        failures. Once the breaker has tripped, only the probe's outcome
+        counts; requests sent before it opened are ignored.
+        """
+        if self._half_open:
+            if not probe:
+                return
+            self._probing = False
+            self._probe_settled.set()
+            if success:
+                self._half_open = False
+            else:
+                self._trip("API probe request failed")
+            return
+        self._results.append(success)
+        if success or len(self._results) < self.min_calls:
+            return
+        failures = self._results.count(False)
+        calls = len(self._results)
+        if failures / calls >= self.failure_threshold:
+            self._trip(f"API error rate {failures}/{calls} over threshold")
+
+    def abandon_probe(self):
+        """Give up the probe without an outcome (deferred or cancelled) so another waiter can take it."""
+        self._probing = False
+        self._probe_settled.set()
+
+    async def wait_if_open(self) -> bool:
+        """
+        Block while the breaker is open or its probe is in flight.
+
+        Returns:
+            True if the caller is the half-open probe and must report through record or abandon_probe
+        """
+        while True:
+            remaining = self._open_until - time.monotonic()
+            if remaining > 0:
+                await asyncio.sleep(remaining)
+            elif not self._half_open:
+                return False
+            elif not self._probing:
+                self._probing = True
+                self._probe_settled.clear()
+                return True
+            else:
+                await self._probe_settled.wait()
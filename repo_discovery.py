@@ -0,0 +1,219 @@
+# repo_discovery.py
+import os
+import re
+import fnmatch
+from typing import NamedTuple
+from concurrent.futures import ThreadPoolExecutor
+
+# Never scanned: VCS metadata, dependency trees and earlier CodeComprehender outputs
+DEFAULT_EXCLUDES = (".git", "node_modules", "*_commented")
+
+# Build output directories, skipped only when they sit next to a build file so
+# source packages that happen to be named "build" or "target" are still scanned
+BUILD_OUTPUT_DIRS = {"target", "build", "out", ".gradle"}
+BUILD_FILES = {"pom.xml", "build.gradle", "build.gradle.kts", "settings.gradle", "build.xml"}
+
+# Threads scanning top-level directories; scandir releases the GIL during syscalls
+DEFAULT_DISCOVERY_WORKERS = 8
+
+
+class SourceFile(NamedTuple):
+    """One discovered file, relative to the repository root."""
+    rel_path: str
+    size: int
+    mtime_ns: int
+
+
+def is_excluded(rel_path: str, excludes) -> bool:
+    """Check a repo-relative path against exclude globs (matched on the name or the whole path)."""
+    rel_path = rel_path.replace(os.sep, "/")
+    name = rel_path.rsplit("/", 1)[-1]
+    return any(fnmatch.fnmatch(name, pattern) or fnmatch.fnmatch(rel_path, pattern) for pattern in excludes)
+
+
+def _glob_to_regex(pattern: str) -> str:
+    """Translate a gitignore glob to a regex where '*' stops at '/' and '**' does not."""
+    regex = []
+    i = 0
+    while i < len(pattern):
+        if pattern.startswith("**/", i):
+            regex.append("(?:.*/)?")
+            i += 3
+        elif pattern.startswith("**", i):
+            regex.append(".*")
+            i += 2
+        elif pattern[i] == "*":
+            regex.append("[^/]*")
+            i += 1
+        elif pattern[i] == "?":
+            regex.append("[^/]")
+            i += 1
+        elif pattern[i] == "[":
+            end = pattern.find("]", i + 1)
+            if end == -1:
+                regex.append(re.escape(pattern[i]))
+                i += 1
+            else:
+                regex.append("[" + pattern[i + 1:end].replace("!", "^", 1) + "]")
+                i = end + 1
+        else:
+            regex.append(re.escape(pattern[i]))
+            i += 1
+    return "".join(regex)
+
+
+def parse_gitignore(path: str) -> list:
+    """
+    Parse a .gitignore file.
+
+    Returns:
+        List of (compiled regex, negated, directory_only, anchored) rules in file order
+    """
+    rules = []
+    try:
+        with open(path, "r", encoding="utf-8", errors="replace") as f:
+            lines = f.read().splitlines()
+    except OSError:
+        return rules
+
+    for line in lines:
+        line = line.rstrip()
+        if not line or line.startswith("#"):
+            continue
+        negated = line.startswith("!")
+        if negated:
+            line = line[1:]
+        if line.startswith("\\"):
+            line = line[1:]
+        directory_only = line.endswith("/")
+        line = line.rstrip("/")
+        anchored = "/" in line
+        line = line.lstrip("/")
+        if not line:
+            continue
+        rules.append((re.compile(_glob_to_regex(line) + r"\Z"), negated, directory_only, anchored))
+    return rules
+
+
+def _gitignored(rel_path: str, is_dir: bool, rule_sets: list) -> bool:
+    """Apply nested .gitignore rule sets (outermost first); the last matching rule wins."""
+    ignored = False
+    for base, rules in rule_sets:
+        local = rel_path[len(base) + 1:] if base else rel_path
+        name = local.rsplit("/", 1)[-1]
+        for regex, negated, directory_only, anchored in rules:
+            if directory_only and not is_dir:
+                continue
+            if regex.match(local if anchored else name):
+                ignored = not negated
+    return ignored
+
+
+class RepoScanner:
+    """Discovery rules (excludes, nested .gitignore files, build output, skipped directories) for one repository."""
+
+    def __init__(self, root: str, excludes, skip_dirs, use_gitignore: bool):
+        self.root = root
+        self.excludes = tuple(excludes)
+        self.skip_dirs = skip_dirs
+        self.use_gitignore = use_gitignore
+
+    def rules_for(self, abs_dir: str, rel_dir: str, rule_sets: list) -> list:
+        if not self.use_gitignore:
+            return rule_sets
+        gitignore = os.path.join(abs_dir, ".gitignore")
+        if os.path.isfile(gitignore):
+            return rule_sets + [(rel_dir, parse_gitignore(gitignore))]
+        return rule_sets
+
+    def keeps(self, rel_path: str, abs_path: str, is_dir: bool, rule_sets: list, has_build_file: bool = False) -> bool:
+        """Whether discovery keeps an entry, given the rule sets of its directory."""
+        if is_excluded(rel_path, self.excludes) or _gitignored(rel_path, is_dir, rule_sets):
+            return False
+        name = rel_path.rsplit("/", 1)[-1]
+        if is_dir:
+            if has_build_file and name in BUILD_OUTPUT_DIRS:
+                return False
+            return os.path.abspath(abs_path) not in self.skip_dirs
+        return not name.endswith("_commented.java")
+
+    def scan_dir(self, abs_dir: str, rel_dir: str, rule_sets: list, files: list, subdirs: list):
+        """List one directory, appending kept files and (abs, rel) subdirectories to descend into."""
+        try:
+            with os.scandir(abs_dir) as it:
+                entries = list(it)
+        except OSError as e:
+            print(f"⚠️ Cannot scan {abs_dir}: {e}")
+            return
+        names = {entry.name for entry in entries}
+        has_build_file = not BUILD_FILES.isdisjoint(names)
+
+        for entry in entries:
+            rel_path = f"{rel_dir}/{entry.name}" if rel_dir else entry.name
+            try:
+                is_dir = entry.is_dir(follow_symlinks=False)
+            except OSError:
+                continue
+            if not self.keeps(rel_path, entry.path, is_dir, rule_sets, has_build_file):
+                continue
+            if is_dir:
+                subdirs.append((entry.path, rel_path))
+            elif entry.is_file():
+                st = entry.stat()
+                files.append(SourceFile(rel_path, st.st_size, st.st_mtime_ns))
+
+    def scan_tree(self, abs_dir: str, rel_dir: str, rule_sets: list) -> list:
+        """Iteratively scan a directory tree."""
+        files = []
+        stack = [(abs_dir, rel_dir, rule_sets)]
+        while stack:
+            current_abs, current_rel, current_rules = stack.pop()
+            current_rules = self.rules_for(current_abs, current_rel, current_rules)
+            subdirs = []
+            self.scan_dir(current_abs, current_rel, current_rules, files, subdirs)
+            stack.extend((sub_abs, sub_rel, current_rules) for sub_abs, sub_rel in subdirs)
+        return files
+
+
+def discover_repo(repo_path: str, excludes=DEFAULT_EXCLUDES, skip_dirs=(), use_gitignore: bool = True,
+                  workers: int = DEFAULT_DISCOVERY_WORKERS) -> list:
+    """
+    Walk the repository once with os.scandir and return every file the tool should see.
+
+    Honors nested .gitignore files, exclude globs and build-output directories.
+    Top-level directories are scanned in parallel threads, which matters most on
+    network filesystems where each directory listing is a round trip.
+
+    Args:
+        repo_path: Repository root
+        excludes: Glob patterns of files and directories to skip
+        skip_dirs: Absolute or relative directories never to enter (e.g. the output folder)
+        use_gitignore: Apply .gitignore rules
+        workers: Threads for scanning top-level directories
+
+    Returns:
+        List of SourceFile sorted by relative path (always '/'-separated)
+    """
+    root = os.path.abspath(repo_path)
+    scanner = RepoScanner(root, excludes, {os.path.abspath(d) for d in skip_dirs}, use_gitignore)
+    root_rules = scanner.rules_for(root, "", [])
+
+    files = []
+    top_dirs = []
+    scanner.scan_dir(root, "", root_rules, files, top_dirs)
+
+    if workers > 1 and len(top_dirs) > 1:
+        with ThreadPoolExecutor(max_workers=min(workers, len(top_dirs))) as pool:
+            for subtree in pool.map(lambda d: scanner.scan_tree(d[0], d[1], root_rules), top_dirs):
+                files.extend(subtree)
+    else:
+        for abs_dir, rel_dir in top_dirs:
+            files.extend(scanner.scan_tree(abs_dir, rel_dir, root_rules))
+
+    files.sort()
+    return files
+
+
+def java_sources(files: list) -> list:
+    """Filter discovered files down to Java sources."""
+    return [f for f in files if f.rel_path.endswith(".java")]
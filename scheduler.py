@@ -0,0 +1,201 @@
+# scheduler.py
+import re
+import time
+import heapq
+import asyncio
+import datetime
+import itertools
+
+from rate_limiter import parse_duration
+
+SCHEDULING_ORDERS = ("fifo", "largest-first", "public-first")
+DEFAULT_ORDER = "fifo"
+
+# Annotations (possibly with arguments) ahead of a declaration
+_ANNOTATION = re.compile(r"@[\w.]+(\s*\([^)]*\))?")
+_PUBLIC = re.compile(r"\bpublic\b")
+
+
+class Deferred(Exception):
+    """A request the scheduler did not send because the budget or the deadline ran out."""
+
+    def __init__(self, reason: str):
+        super().__init__(f"Deferred: {reason}")
+        self.reason = reason
+
+
+def is_public(source: str) -> bool:
+    """Whether a method or class source declares itself public (annotations ignored)."""
+    head = _ANNOTATION.sub("", source or "")
+    cut = min((i for i in (head.find("("), head.find("{")) if i != -1), default=len(head))
+    return bool(_PUBLIC.search(head[:cut]))
+
+
+def parse_deadline(value: str, now: float = None) -> float:
+    """
+    Parse --deadline into an epoch timestamp.
+
+    Accepts a duration from now ("90m", "2h30m", "3600"), a clock time
+    ("06:00", the next occurrence) or an ISO date-time ("2026-10-19T06:00").
+
+    Raises:
+        ValueError: If the value matches none of these forms
+    """
+    now = time.time() if now is None else now
+    seconds = parse_duration(value)
+    if seconds is not None:
+        return now + seconds
+    current = datetime.datetime.fromtimestamp(now)
+    try:
+        clock = datetime.datetime.strptime(value, "%H:%M").time()
+    except ValueError:
+        return datetime.datetime.fromisoformat(value).timestamp()
+    moment = datetime.datetime.combine(current.date(), clock)
+    if moment <= current:
+        moment += datetime.timedelta(days=1)
+    return moment.timestamp()
+
+
+class _Slot:
+    __slots__ = ("tokens", "usd")
+
+    def __init__(self, tokens: int, usd: float):
+        self.tokens = tokens
+        self.usd = usd
+
+
+class RequestScheduler:
+    """
+    Global priority queue in front of the in-flight request limit.
+
+    Every completion request of the run waits here instead of on a FIFO
+    semaphore, so when a slot frees up the next request is chosen across all
+    files in flight: in arrival order, largest estimated cost first, or public
+    API first (then largest). Only files in the LLM stage (the pipeline's
+    max_workers at a time) have requests waiting, so priority applies within
+    that window; files not yet reached are ordered by the pipeline's feed.
+    Each request reserves its estimated tokens (and cost) when admitted and
+    settles the actual usage when it finishes; a request that would push
+    spending past --budget-tokens or --budget-usd, or that is still waiting at
+    the deadline, fails with Deferred so its method gets a template comment
+    instead.
+    """
+
+    def __init__(self, max_inflight: int, order: str = DEFAULT_ORDER, budget_tokens: int = None,
+                 budget_usd: float = None, deadline: float = None, pricing: tuple = None):
+        self.free = max_inflight
+        self.order = order
+        self.budget_tokens = budget_tokens
+        self.budget_usd = budget_usd
+        self.deadline = deadline
+        self.pricing = pricing
+        self.reserved_tokens = 0
+        self.reserved_usd = 0.0
+        self.spent_tokens = 0
+        self.spent_usd = 0.0
+        self.deferred = {"budget": 0, "deadline": 0}
+        self._waiting = []
+        self._sequence = itertools.count()
+
+    def cost(self, prompt_tokens: int, completion_tokens: int) -> float:
+        """Estimated USD for the given tokens at the model's pricing (0 when unknown)."""
+        if not self.pricing:
+            return 0.0
+        return (prompt_tokens * self.pricing[0] + completion_tokens * self.pricing[1]) / 1_000_000
+
+    def _priority(self, tokens: int, source: str, sequence: int) -> tuple:
+        if self.order == "largest-first":
+            return (-tokens, sequence)
+        if self.order == "public-first":
+            return (0 if is_public(source) else 1, -tokens, sequence)
+        return (sequence,)
+
+    def _refusal(self, slot: _Slot):
+        """Reason a request may not start now, or None."""
+        if self.deadline is not None and time.time() >= self.deadline:
+            return "deadline"
+        if self.budget_tokens is not None and \
+                self.spent_tokens + self.reserved_tokens + slot.tokens > self.budget_tokens:
+            return "budget"
+        if self.budget_usd is not None and self.spent_usd + self.reserved_usd + slot.usd > self.budget_usd:
+            return "budget"
+        return None
+
+    def _defer(self, reason: str) -> Deferred:
+        self.deferred[reason] += 1
+        return Deferred(reason)
+
+    def _admit(self, slot: _Slot):
+        self.free -= 1
+        self.reserved_tokens += slot.tokens
+        self.reserved_usd += slot.usd
+
+    def _dispatch(self):
+        """Hand free slots to the highest-priority waiters; refuse those that no longer fit."""
+        while self.free > 0 and self._waiting:
+            _, future, slot = heapq.heappop(self._waiting)
+            if future.done():
+                continue
+            reason = self._refusal(slot)
+            if reason:
+                future.set_exception(self._defer(reason))
+                continue
+            self._admit(slot)
+            future.set_result(slot)
+
+    async def acquire(self, prompt_tokens: int, max_tokens: int, source: str = None) -> _Slot:
+        """
+        Wait for an in-flight slot.
+
+        Raises:
+            Deferred: If the budget cannot cover the request or the deadline passes first
+        """
+        slot = _Slot(prompt_tokens + max_tokens, self.cost(prompt_tokens, max_tokens))
+        reason = self._refusal(slot)
+        if reason:
+            raise self._defer(reason)
+        # Waiters that were cancelled or timed out stay in the heap until popped
+        while self._waiting and self._waiting[0][1].done():
+            heapq.heappop(self._waiting)
+        if self.free > 0 and not self._waiting:
+            self._admit(slot)
+            return slot
+
+        future = asyncio.get_running_loop().create_future()
+        heapq.heappush(self._waiting, (self._priority(slot.tokens, source, next(self._sequence)), future, slot))
+        # A stale entry deeper in the heap must not keep a free slot from this request
+        self._dispatch()
+        timeout = max(0.0, self.deadline - time.time()) if self.deadline is not None else None
+        try:
+            await asyncio.wait({future}, timeout=timeout)
+        except asyncio.CancelledError:
+            if future.done() and not future.cancelled() and future.exception() is None:
+                self.release(future.result())
+            future.cancel()
+            raise
+        if not future.done():
+            future.cancel()
+            raise self._defer("deadline")
+        return future.result()
+
+    def check_deadline(self):
+        """
+        Refuse an admitted request that reached the deadline before being sent.
+
+        Raises:
+            Deferred: If the deadline has passed
+        """
+        if self.deadline is not None and time.time() >= self.deadline:
+            raise self._defer("deadline")
+
+    def release(self, slot: _Slot, usage=None):
+        """Free a slot and settle the request's actual usage (nothing is charged for failures)."""
+        self.free += 1
+        self.reserved_tokens -= slot.tokens
+        self.reserved_usd -= slot.usd
+        if usage is not None:
+            prompt = getattr(usage, "prompt_tokens", None) or 0
+            completion = getattr(usage, "completion_tokens", None) or 0
+            self.spent_tokens += prompt + completion
+            self.spent_usd += self.cost(prompt, completion)
+        self._dispatch()
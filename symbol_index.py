@@ -0,0 +1,496 @@
+# symbol_index.py
+import os
+import json
+import sqlite3
+
+from manifest import file_digest
+from java_parser import parse_files_parallel
+from repo_discovery import discover_repo, java_sources
+from architecture_generator import DependencyIndex, class_key
+
+DEFAULT_INDEX_SUFFIX = "_symbols.sqlite3"
+
+# Bump when the schema or the parsed model changes; older indexes are rebuilt
+SCHEMA_VERSION = 4
+
+_SCHEMA = (
+    "CREATE TABLE files ("
+    " path TEXT PRIMARY KEY,"
+    " sha256 TEXT NOT NULL,"
+    " size INTEGER NOT NULL,"
+    " mtime_ns INTEGER NOT NULL,"
+    " parsed INTEGER NOT NULL,"
+    " package TEXT,"
+    " class_name TEXT,"
+    " fqn TEXT,"
+    " extends TEXT)",
+    "CREATE TABLE types ("
+    " file_path TEXT NOT NULL,"
+    " ordinal INTEGER NOT NULL,"
+    " name TEXT NOT NULL,"
+    " kind TEXT NOT NULL,"
+    " line INTEGER,"
+    " start_line INTEGER,"
+    " documented INTEGER NOT NULL,"
+    " extends TEXT)",
+    "CREATE TABLE inheritance ("
+    " file_path TEXT NOT NULL,"
+    " type_ordinal INTEGER NOT NULL,"
+    " type_name TEXT NOT NULL,"
+    " super_name TEXT NOT NULL,"
+    " kind TEXT NOT NULL)",
+    "CREATE TABLE methods ("
+    " file_path TEXT NOT NULL,"
+    " ordinal INTEGER NOT NULL,"
+    " name TEXT NOT NULL,"
+    " start_line INTEGER NOT NULL,"
+    " end_line INTEGER NOT NULL,"
+    " kind TEXT NOT NULL,"
+    " documented INTEGER NOT NULL,"
+    " params TEXT NOT NULL,"
+    " returns TEXT,"
+    " shape TEXT)",
+    "CREATE TABLE fields ("
+    " file_path TEXT NOT NULL,"
+    " ordinal INTEGER NOT NULL,"
+    " declaration TEXT NOT NULL,"
+    " line INTEGER)",
+    "CREATE TABLE imports ("
+    " file_path TEXT NOT NULL,"
+    " ordinal INTEGER NOT NULL,"
+    " path TEXT NOT NULL,"
+    " wildcard INTEGER NOT NULL)",
+    "CREATE TABLE refs ("
+    " file_path TEXT NOT NULL,"
+    " name TEXT NOT NULL)",
+    "CREATE TABLE edges ("
+    " source TEXT NOT NULL,"
+    " target TEXT NOT NULL,"
+    " kind TEXT NOT NULL,"
+    " resolved INTEGER NOT NULL)",
+    "CREATE INDEX idx_files_fqn ON files(fqn)",
+    "CREATE INDEX idx_files_class_name ON files(class_name)",
+    "CREATE INDEX idx_types_file ON types(file_path)",
+    "CREATE INDEX idx_types_name ON types(name)",
+    "CREATE INDEX idx_inheritance_file ON inheritance(file_path)",
+    "CREATE INDEX idx_inheritance_super ON inheritance(super_name)",
+    "CREATE INDEX idx_methods_file ON methods(file_path)",
+    "CREATE INDEX idx_methods_name ON methods(name)",
+    "CREATE INDEX idx_fields_file ON fields(file_path)",
+    "CREATE INDEX idx_imports_file ON imports(file_path)",
+    "CREATE INDEX idx_refs_file ON refs(file_path)",
+    "CREATE INDEX idx_edges_source ON edges(source, kind)",
+    "CREATE INDEX idx_edges_target ON edges(target, kind)",
+)
+
+_PER_FILE_TABLES = ("types", "inheritance", "methods", "fields", "imports", "refs")
+
+# Values bound per IN (...) list, below SQLite's historical 999-parameter limit
+# even when a query binds two lists
+QUERY_CHUNK = 400
+
+
+def _chunks(values: list):
+    for i in range(0, len(values), QUERY_CHUNK):
+        yield values[i:i + QUERY_CHUNK]
+
+
+def _placeholders(values: list) -> str:
+    return ", ".join("?" * len(values))
+
+
+def _type_head(name: str) -> str:
+    """First segment of a type name as written, which is what DependencyIndex.resolve looks up."""
+    return name.split(".", 1)[0]
+
+
+def _import_parent(path: str) -> str:
+    """Enclosing class of a static member import (or package of a type import)."""
+    return path.rsplit(".", 1)[0]
+
+
+def default_index_path(output_base: str, repo_name: str) -> str:
+    """Index location next to the repo's outputs, outside the commented mirror so rebuilds keep it."""
+    return os.path.join(output_base, f".{repo_name}{DEFAULT_INDEX_SUFFIX}")
+
+
+class SymbolIndex:
+    """
+    On-disk SQLite index of the repository's Java symbols.
+
+    Stores files (keyed by content hash), types, methods with line ranges, fields,
+    imports, references, inheritance and resolved dependency edges. update()
+    re-parses only files whose content changed, so reports on an unchanged
+    repo are served straight from the database.
+    """
+
+    def __init__(self, path: str):
+        os.makedirs(os.path.dirname(os.path.abspath(path)), exist_ok=True)
+        self.path = path
+        self._conn = sqlite3.connect(path)
+        self._conn.execute("PRAGMA journal_mode=WAL")
+        self._conn.execute("PRAGMA synchronous=NORMAL")
+        self._conn.create_function("type_head", 1, _type_head, deterministic=True)
+        self._conn.create_function("import_parent", 1, _import_parent, deterministic=True)
+        if self._conn.execute("PRAGMA user_version").fetchone()[0] != SCHEMA_VERSION:
+            self._create_schema()
+
+    def _create_schema(self):
+        tables = [row[0] for row in self._conn.execute("SELECT name FROM sqlite_master WHERE type = 'table'")]
+        for table in tables:
+            self._conn.execute(f"DROP TABLE IF EXISTS {table}")
+        for statement in _SCHEMA:
+            self._conn.execute(statement)
+        self._conn.execute(f"PRAGMA user_version = {SCHEMA_VERSION}")
+        self._conn.commit()
+
+    def update(self, repo_path: str, source_files: list = None, parse_workers: int = None) -> dict:
+        """
+        Bring the index in line with the repository.
+
+        Files with the same size and mtime, or the same content hash, keep their
+        rows; changed and added files are parsed in a process pool and removed
+        files are dropped. Dependency edges are re-resolved only for changed
+        files and the files whose names may resolve to a changed class.
+
+        Args:
+            repo_path: Repository root
+            source_files: SourceFile list from discover_repo; discovered here if omitted
+            parse_workers: Parser processes to use (default: CPU count)
+
+        Returns:
+            Dictionary with 'indexed', 'unchanged' and 'removed' file counts
+        """
+        if source_files is None:
+            source_files = discover_repo(repo_path)
+        known = {
+            path: (sha256, size, mtime_ns, fqn)
+            for path, sha256, size, mtime_ns, fqn in self._conn.execute(
+                "SELECT path, sha256, size, mtime_ns, fqn FROM files")
+        }
+
+        stats = {"indexed": 0, "unchanged": 0, "removed": 0}
+        to_parse = {}
+        seen = set()
+        for rel_path, size, mtime_ns in java_sources(source_files):
+            seen.add(rel_path)
+            entry = known.get(rel_path)
+            if entry and entry[1] == size and entry[2] == mtime_ns:
+                stats["unchanged"] += 1
+                continue
+            content_hash = file_digest(os.path.join(repo_path, rel_path))
+            if entry and entry[0] == content_hash:
+                self._conn.execute("UPDATE files SET size = ?, mtime_ns = ? WHERE path = ?",
+                                   (size, mtime_ns, rel_path))
+                stats["unchanged"] += 1
+                continue
+            to_parse[os.path.join(repo_path, rel_path)] = (rel_path, content_hash, size, mtime_ns)
+
+        for rel_path in set(known) - seen:
+            self._delete_file(rel_path)
+            stats["removed"] += 1
+
+        for path, model in parse_files_parallel(list(to_parse), root=repo_path, workers=parse_workers):
+            rel_path, content_hash, size, mtime_ns = to_parse[path]
+            self._delete_file(rel_path)
+            self._insert_file(rel_path, content_hash, size, mtime_ns, model)
+            stats["indexed"] += 1
+
+        changed = set(known) - seen | {rel_path for rel_path, _, _, _ in to_parse.values()}
+        if changed:
+            # A fresh index has no edges to keep
+            previous_fqns = {known[path][3] for path in changed if path in known and known[path][3]}
+            self._rebuild_edges(changed if known else None, previous_fqns)
+        self._conn.commit()
+        return stats
+
+    def _delete_file(self, rel_path: str):
+        self._conn.execute("DELETE FROM files WHERE path = ?", (rel_path,))
+        for table in _PER_FILE_TABLES:
+            self._conn.execute(f"DELETE FROM {table} WHERE file_path = ?", (rel_path,))
+
+    def _insert_file(self, rel_path: str, content_hash: str, size: int, mtime_ns: int, model: dict):
+        if not model:
+            # Unparseable files keep their hash so they are not re-parsed until they change
+            self._conn.execute(
+                "INSERT INTO files (path, sha256, size, mtime_ns, parsed) VALUES (?, ?, ?, ?, 0)",
+                (rel_path, content_hash, size, mtime_ns),
+            )
+            return
+
+        package = model.get("package")
+        class_name = model.get("class_name")
+        fqn = None
+        if class_name:
+            fqn = f"{package}.{class_name}" if package else class_name
+        self._conn.execute(
+            "INSERT INTO files (path, sha256, size, mtime_ns, parsed, package, class_name, fqn, extends)"
+            " VALUES (?, ?, ?, ?, 1, ?, ?, ?, ?)",
+            (rel_path, content_hash, size, mtime_ns, package, class_name, fqn, model.get("extends")),
+        )
+        for ordinal, type_info in enumerate(model.get("types", [])):
+            self._conn.execute(
+                "INSERT INTO types (file_path, ordinal, name, kind, line, start_line, documented, extends)"
+                " VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+                (rel_path, ordinal, type_info["name"], type_info["kind"], type_info.get("line"),
+                 type_info.get("start"), bool(type_info.get("documented")), type_info.get("extends")),
+            )
+            supertypes = [(type_info["extends"], "extends")] if type_info.get("extends") else []
+            supertypes.extend((name, "implements") for name in type_info.get("implements", []))
+            self._conn.executemany(
+                "INSERT INTO inheritance (file_path, type_ordinal, type_name, super_name, kind) VALUES (?, ?, ?, ?, ?)",
+                [(rel_path, ordinal, type_info["name"], name, kind) for name, kind in supertypes],
+            )
+        self._conn.executemany(
+            "INSERT INTO methods (file_path, ordinal, name, start_line, end_line, kind, documented, params, returns,"
+            " shape) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+            [(rel_path, ordinal, m["name"], m["start"], m["end"], m.get("kind", "method"), bool(m.get("documented")),
+              json.dumps(m.get("params", [])), m.get("returns"), json.dumps(m["shape"]) if m.get("shape") else None)
+             for ordinal, m in enumerate(model["methods"])],
+        )
+        self._conn.executemany(
+            "INSERT INTO fields (file_path, ordinal, declaration, line) VALUES (?, ?, ?, ?)",
+            [(rel_path, ordinal, f["declaration"], f.get("line")) for ordinal, f in enumerate(model.get("fields", []))],
+        )
+        wildcards = set(model.get("wildcard_imports", []))
+        self._conn.executemany(
+            "INSERT INTO imports (file_path, ordinal, path, wildcard) VALUES (?, ?, ?, ?)",
+            [(rel_path, ordinal, imp, imp in wildcards) for ordinal, imp in enumerate(model["imports"])],
+        )
+        self._conn.executemany(
+            "INSERT INTO refs (file_path, name) VALUES (?, ?)",
+            [(rel_path, name) for name in model.get("references", [])],
+        )
+
+    def _rebuild_edges(self, changed: set = None, previous_fqns: set = frozenset()):
+        """
+        Re-resolve inheritance and dependency edges.
+
+        A class's edges depend only on its own imports and references and on
+        which classes exist, so besides the changed files only the files naming
+        a class that appeared, disappeared or moved need new edges.
+
+        Args:
+            changed: Repo-relative paths that were re-parsed or removed; None rebuilds every edge
+            previous_fqns: FQNs the changed files declared before the update
+        """
+        classes = [
+            {"class_name": class_name, "package": package, "fqn": fqn, "file_path": path}
+            for path, package, class_name, fqn in self._conn.execute(
+                "SELECT path, package, class_name, fqn FROM files WHERE parsed = 1 AND class_name IS NOT NULL")
+        ]
+        index = DependencyIndex(classes)
+        if changed is None:
+            paths = None
+        else:
+            current = {cls["fqn"] for cls in classes if cls["file_path"] in changed}
+            sources = current | set(previous_fqns)
+            sources |= self._names_resolving_to(current ^ set(previous_fqns))
+            paths = [cls["file_path"] for cls in classes if cls["fqn"] in sources]
+
+        rows = []
+        for cls in self.architecture(paths):
+            source = class_key(cls)
+            supertypes = [(cls["extends"], "extends")] if cls.get("extends") else []
+            supertypes.extend((name, "implements") for name in cls.get("implements") or [])
+            for name, kind in supertypes:
+                target = index.resolve(cls, name)
+                rows.append((source, target or name, kind, target is not None))
+            rows.extend((source, dependency, "depends", True) for dependency in index.dependencies(cls))
+        if paths is None:
+            self._conn.execute("DELETE FROM edges")
+        else:
+            for chunk in _chunks(sorted(sources)):
+                self._conn.execute(f"DELETE FROM edges WHERE source IN ({_placeholders(chunk)})", chunk)
+        self._conn.executemany("INSERT INTO edges (source, target, kind, resolved) VALUES (?, ?, ?, ?)", rows)
+
+    def _names_resolving_to(self, fqns: set) -> set:
+        """FQNs of classes whose edges, imports, references or supertypes may resolve to one of fqns."""
+        sources = set()
+        for chunk in _chunks(sorted(fqns)):
+            marks = _placeholders(chunk)
+            heads = [fqn.rsplit(".", 1)[-1] for fqn in chunk]
+            sources.update(row[0] for row in self._conn.execute(
+                f"SELECT DISTINCT source FROM edges WHERE target IN ({marks})", chunk))
+            for query in (
+                    "SELECT DISTINCT files.fqn FROM refs JOIN files ON files.path = refs.file_path"
+                    f" WHERE type_head(refs.name) IN ({marks}) OR refs.name IN ({marks})",
+                    "SELECT DISTINCT files.fqn FROM inheritance JOIN files ON files.path = inheritance.file_path"
+                    f" WHERE type_head(super_name) IN ({marks}) OR super_name IN ({marks})"):
+                sources.update(row[0] for row in self._conn.execute(query, heads + chunk))
+            sources.update(row[0] for row in self._conn.execute(
+                "SELECT DISTINCT files.fqn FROM imports JOIN files ON files.path = imports.file_path"
+                f" WHERE imports.path IN ({marks}) OR import_parent(imports.path) IN ({marks})", chunk + chunk))
+        sources.discard(None)
+        return sources
+
+    def _select(self, query: str, column: str, paths: list, order: str):
+        """Run query for every file, or only for paths with a chunked IN filter on column."""
+        if paths is None:
+            yield from self._conn.execute(f"{query} ORDER BY {order}")
+            return
+        joiner = "AND" if " WHERE " in query else "WHERE"
+        for chunk in _chunks(paths):
+            yield from self._conn.execute(
+                f"{query} {joiner} {column} IN ({_placeholders(chunk)}) ORDER BY {order}", chunk)
+
+    def models(self, paths=None) -> dict:
+        """
+        Rebuild per-file models (the parse_java_file shape) from the index.
+
+        Args:
+            paths: Repo-relative paths to load; all parsed files if omitted
+
+        Returns:
+            Dictionary mapping repo-relative paths to models
+        """
+        if paths is not None:
+            paths = list(dict.fromkeys(paths))
+        models = {}
+        for path, package, class_name, extends in self._select(
+                "SELECT path, package, class_name, extends FROM files WHERE parsed = 1", "path", paths, "path"):
+            models[path] = {
+                "file_path": path,
+                "package": package,
+                "imports": [],
+                "wildcard_imports": [],
+                "types": [],
+                "methods": [],
+                "fields": [],
+                "references": [],
+                "class_name": class_name,
+                "extends": extends,
+                "implements": [],
+            }
+
+        for file_path, path, wildcard in self._select(
+                "SELECT file_path, path, wildcard FROM imports", "file_path", paths, "file_path, ordinal"):
+            model = models.get(file_path)
+            if model:
+                model["imports"].append(path)
+                if wildcard:
+                    model["wildcard_imports"].append(path)
+        for file_path, name, kind, line, start, documented, extends in self._select(
+                "SELECT file_path, name, kind, line, start_line, documented, extends FROM types",
+                "file_path", paths, "file_path, ordinal"):
+            model = models.get(file_path)
+            if model:
+                model["types"].append({"name": name, "kind": kind, "line": line, "start": start,
+                                       "documented": bool(documented), "extends": extends, "implements": []})
+        for file_path, ordinal, super_name in self._select(
+                "SELECT file_path, type_ordinal, super_name FROM inheritance WHERE kind = 'implements'",
+                "file_path", paths, "rowid"):
+            model = models.get(file_path)
+            if model:
+                model["types"][ordinal]["implements"].append(super_name)
+        for file_path, name, start, end, kind, documented, params, returns, shape in self._select(
+                "SELECT file_path, name, start_line, end_line, kind, documented, params, returns, shape FROM methods",
+                "file_path", paths, "file_path, ordinal"):
+            model = models.get(file_path)
+            if model:
+                model["methods"].append({
+                    "name": name, "start": start, "end": end, "kind": kind, "documented": bool(documented),
+                    "params": json.loads(params), "returns": returns, "shape": json.loads(shape) if shape else None,
+                })
+        for file_path, declaration, line in self._select(
+                "SELECT file_path, declaration, line FROM fields", "file_path", paths, "file_path, ordinal"):
+            model = models.get(file_path)
+            if model:
+                model["fields"].append({"declaration": declaration, "line": line})
+        for file_path, name in self._select("SELECT file_path, name FROM refs", "file_path", paths, "file_path, name"):
+            model = models.get(file_path)
+            if model:
+                model["references"].append(name)
+
+        # The primary class is the first class declaration, as in parse_java_file
+        for model in models.values():
+            primary = next((t for t in model["types"] if t["kind"] == "class"), None)
+            if primary:
+                model["implements"] = list(primary["implements"])
+        return models
+
+    def architecture(self, paths=None) -> list:
+        """
+        Architecture entries (the analyze_repo_architecture shape) read from the class columns.
+
+        Only files, imports, references and the primary class's interfaces are
+        queried; methods, fields and nested types are never loaded.
+
+        Args:
+            paths: Repo-relative paths to load; every indexed class if omitted
+        """
+        if paths is not None:
+            paths = list(dict.fromkeys(paths))
+        classes = {}
+        for path, package, class_name, fqn, extends in self._select(
+                "SELECT path, package, class_name, fqn, extends FROM files"
+                " WHERE parsed = 1 AND class_name IS NOT NULL", "path", paths, "path"):
+            classes[path] = {
+                "class_name": class_name,
+                "package": package,
+                "fqn": fqn,
+                "imports": [],
+                "wildcard_imports": [],
+                "references": [],
+                "extends": extends,
+                "implements": [],
+                "file_path": path,
+            }
+
+        for file_path, path, wildcard in self._select(
+                "SELECT file_path, path, wildcard FROM imports", "file_path", paths, "file_path, ordinal"):
+            cls = classes.get(file_path)
+            if cls:
+                cls["imports"].append(path)
+                if wildcard:
+                    cls["wildcard_imports"].append(path)
+        for file_path, name in self._select("SELECT file_path, name FROM refs", "file_path", paths, "file_path, name"):
+            cls = classes.get(file_path)
+            if cls:
+                cls["references"].append(name)
+        # Interfaces of the primary class, the first class declaration of the file
+        for file_path, super_name in self._select(
+                "SELECT inheritance.file_path, inheritance.super_name FROM inheritance"
+                " JOIN (SELECT file_path, MIN(ordinal) AS ordinal FROM types WHERE kind = 'class'"
+                " GROUP BY file_path) AS first_class"
+                " ON first_class.file_path = inheritance.file_path AND first_class.ordinal = inheritance.type_ordinal"
+                " WHERE inheritance.kind = 'implements'", "inheritance.file_path", paths, "inheritance.rowid"):
+            cls = classes.get(file_path)
+            if cls:
+                cls["implements"].append(super_name)
+        return list(classes.values())
+
+    def edges(self) -> list:
+        """Stored (source fqn, target, kind) edges; unresolved supertypes keep the name as written."""
+        return list(self._conn.execute("SELECT DISTINCT source, target, kind FROM edges ORDER BY source, kind, target"))
+
+    def implementors(self, interface: str) -> list:
+        """Return FQNs of classes implementing an interface, given its FQN or simple name."""
+        return self._sources_of(interface, "implements")
+
+    def subclasses(self, parent: str) -> list:
+        """Return FQNs of classes directly extending a class, given its FQN or simple name."""
+        return self._sources_of(parent, "extends")
+
+    def dependents(self, fqn: str) -> list:
+        """Return FQNs of classes that depend on the given class."""
+        return self._sources_of(fqn, "depends")
+
+    def dependencies(self, fqn: str) -> list:
+        """Return FQNs of repo classes the given class depends on."""
+        rows = self._conn.execute(
+            "SELECT target FROM edges WHERE source = ? AND kind = 'depends' ORDER BY target", (fqn,))
+        return [row[0] for row in rows]
+
+    def _sources_of(self, name: str, kind: str) -> list:
+        # Unresolved supertypes are stored as written, so match the simple name too
+        rows = self._conn.execute(
+            "SELECT DISTINCT source FROM edges WHERE kind = ? AND (target = ? OR target LIKE ? ESCAPE '\\')"
+            " ORDER BY source",
+            (kind, name, "%." + name.replace("_", "\\_").replace("%", "\\%")),
+        )
+        return [row[0] for row in rows]
+
+    def close(self):
+        self._conn.commit()
+        self._conn.close()
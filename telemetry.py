@@ -0,0 +1,272 @@
+# telemetry.py
+import json
+import time
+import contextvars
+
+# Histograms keep 2^7 sub-buckets per power of two, i.e. under 1% relative error
+HISTOGRAM_SUB_BUCKET_BITS = 7
+
+# USD per million (prompt, completion) tokens; unknown models report no cost
+MODEL_PRICING = {
+    "gpt-4o-mini": (0.15, 0.60),
+    "gpt-4o": (2.50, 10.00),
+}
+
+# Upper bounds (seconds) of the Prometheus latency histogram buckets
+PROMETHEUS_SECONDS_BUCKETS = (0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60)
+
+# Number of files listed in the metrics file, slowest first
+SLOWEST_FILES = 20
+
+# Java file whose comments the current task is requesting; set by the pipeline per file
+current_source = contextvars.ContextVar("current_source", default=None)
+
+
+class Histogram:
+    """
+    HDR-style histogram of non-negative integers.
+
+    Values are counted in log-linear buckets: exact below 2^sub_bucket_bits,
+    then 2^sub_bucket_bits buckets per power of two. Memory grows with the
+    number of distinct magnitudes, not with the number of samples, and any
+    percentile is reported within the bucket's relative error.
+    """
+
+    def __init__(self, sub_bucket_bits: int = HISTOGRAM_SUB_BUCKET_BITS):
+        self.sub_bucket_bits = sub_bucket_bits
+        self.buckets = {}
+        self.count = 0
+        self.total = 0
+        self.min = None
+        self.max = None
+
+    def _bucket(self, value: int) -> int:
+        shift = value.bit_length() - self.sub_bucket_bits
+        return value if shift <= 0 else (value >> shift) << shift
+
+    def _midpoint(self, bucket: int) -> int:
+        shift = bucket.bit_length() - self.sub_bucket_bits
+        return bucket if shift <= 0 else bucket + (1 << shift) // 2
+
+    def record(self, value):
+        value = max(0, int(value))
+        bucket = self._bucket(value)
+        self.buckets[bucket] = self.buckets.get(bucket, 0) + 1
+        self.count += 1
+        self.total += value
+        self.min = value if self.min is None else min(self.min, value)
+        self.max = value if self.max is None else max(self.max, value)
+
+    def percentile(self, fraction: float):
+        """Value at the given fraction (0-1) of samples, or None when empty."""
+        if not self.count:
+            return None
+        rank = max(1, int(round(fraction * self.count)))
+        seen = 0
+        for bucket in sorted(self.buckets):
+            seen += self.buckets[bucket]
+            if seen >= rank:
+                return max(self.min, min(self._midpoint(bucket), self.max))
+        return self.max
+
+    def count_at_most(self, value) -> int:
+        """Number of samples in buckets whose lower bound is at most value."""
+        return sum(count for bucket, count in self.buckets.items() if bucket <= value)
+
+    def summary(self, scale: float = 1.0) -> dict:
+        """Count, min, max, mean and p50/p90/p99/p99.9, each multiplied by scale."""
+        if not self.count:
+            return {"count": 0}
+
+        def scaled(value):
+            return round(value * scale, 3) if scale != 1.0 else value
+
+        return {
+            "count": self.count,
+            "min": scaled(self.min),
+            "max": scaled(self.max),
+            "mean": scaled(self.total / self.count),
+            "p50": scaled(self.percentile(0.50)),
+            "p90": scaled(self.percentile(0.90)),
+            "p99": scaled(self.percentile(0.99)),
+            "p999": scaled(self.percentile(0.999)),
+        }
+
+
+def error_class(error) -> str:
+    """Short error label such as `RateLimitError (429)` or `APITimeoutError`."""
+    status = getattr(error, "status_code", None)
+    return f"{type(error).__name__} ({status})" if status else type(error).__name__
+
+
+def _format_duration(ms) -> str:
+    if ms is None:
+        return "-"
+    return f"{ms / 1000:.1f} s" if ms >= 1000 else f"{ms:.0f} ms"
+
+
+def _format_count(value: int) -> str:
+    if value >= 1_000_000:
+        return f"{value / 1_000_000:.1f}M"
+    return f"{value / 1000:.1f}k" if value >= 1000 else str(value)
+
+
+class Telemetry:
+    """
+    Per-run record of every completion request.
+
+    Each call reports its queue wait (circuit breaker, rate limiter and
+    in-flight limit), the latency of the attempt that finished it, token
+    usage, retries and errors. Samples go into histograms and totals, so
+    memory stays constant however many requests a run makes; only a small
+    per-file total is kept to list the slowest files.
+    """
+
+    def __init__(self, model: str):
+        self.model = model
+        self.started = time.time()
+        self.queue_wait_us = Histogram()
+        self.latency_us = Histogram()
+        self.prompt_tokens = Histogram()
+        self.completion_tokens = Histogram()
+        self.requests = 0
+        self.failed = 0
+        self.retries = 0
+        self.by_kind = {}
+        self.errors = {}
+        self.files = {}
+
+    def record(self, kind: str, label: str, queue_wait: float, latency: float, usage=None,
+               retries: int = 0, error=None):
+        """
+        Record one completion call.
+
+        Args:
+            kind: Request kind ("method", "class" or "packed")
+            label: Method name or other description of what was requested
+            queue_wait: Seconds spent waiting for the request guards, over all attempts
+            latency: Seconds of the final attempt's HTTP round trip
+            usage: Response usage with prompt_tokens and completion_tokens, if any
+            retries: Attempts beyond the first
+            error: Exception the call finally failed with, if any
+        """
+        self.requests += 1
+        self.retries += retries
+        self.by_kind[kind] = self.by_kind.get(kind, 0) + 1
+        self.queue_wait_us.record(queue_wait * 1_000_000)
+        self.latency_us.record(latency * 1_000_000)
+        prompt = getattr(usage, "prompt_tokens", None) or 0
+        completion = getattr(usage, "completion_tokens", None) or 0
+        if usage is not None:
+            self.prompt_tokens.record(prompt)
+            self.completion_tokens.record(completion)
+        if error is not None:
+            self.failed += 1
+
+        path = current_source.get()
+        if path:
+            entry = self.files.setdefault(path, {"requests": 0, "latency_ms": 0.0, "tokens": 0, "methods": []})
+            entry["requests"] += 1
+            entry["latency_ms"] += latency * 1000
+            entry["tokens"] += prompt + completion
+            if label and len(entry["methods"]) < 10:
+                entry["methods"].append(label)
+
+    def record_error(self, error):
+        """Count one failed attempt, whether or not it is retried."""
+        label = error_class(error)
+        self.errors[label] = self.errors.get(label, 0) + 1
+
+    def cost_usd(self):
+        pricing = MODEL_PRICING.get(self.model)
+        if pricing is None:
+            return None
+        return (self.prompt_tokens.total * pricing[0] + self.completion_tokens.total * pricing[1]) / 1_000_000
+
+    def summary_line(self) -> str:
+        """One-line running summary for progress output."""
+        summary = self.latency_us.summary(0.001)
+        cost = self.cost_usd()
+        tokens = self.prompt_tokens.total + self.completion_tokens.total
+        return (f"{self.requests} req, p50 {_format_duration(summary.get('p50'))}, "
+                f"p99 {_format_duration(summary.get('p99'))}, {_format_count(tokens)} tokens"
+                + (f", ${cost:.3f}" if cost is not None else "")
+                + f", {self.retries} retries, {self.failed} failed")
+
+    def to_dict(self) -> dict:
+        slowest = sorted(self.files.items(), key=lambda item: item[1]["latency_ms"], reverse=True)[:SLOWEST_FILES]
+        cost = self.cost_usd()
+        return {
+            "model": self.model,
+            "started": time.strftime("%Y-%m-%dT%H:%M:%S", time.localtime(self.started)),
+            "elapsed_seconds": round(time.time() - self.started, 3),
+            "requests": {
+                "total": self.requests,
+                "succeeded": self.requests - self.failed,
+                "failed": self.failed,
+                "retries": self.retries,
+                "by_kind": self.by_kind,
+            },
+            "tokens": {
+                "prompt": self.prompt_tokens.total,
+                "completion": self.completion_tokens.total,
+                "total": self.prompt_tokens.total + self.completion_tokens.total,
+            },
+            "cost_usd": round(cost, 6) if cost is not None else None,
+            "errors": self.errors,
+            "queue_wait_ms": self.queue_wait_us.summary(0.001),
+            "latency_ms": self.latency_us.summary(0.001),
+            "prompt_tokens_per_request": self.prompt_tokens.summary(),
+            "completion_tokens_per_request": self.completion_tokens.summary(),
+            "slowest_files": [
+                {"path": path, "requests": entry["requests"], "latency_ms": round(entry["latency_ms"], 1),
+                 "tokens": entry["tokens"], "methods": entry["methods"]}
+                for path, entry in slowest
+            ],
+        }
+
+    def to_prometheus(self) -> str:
+        """Metrics in the Prometheus text exposition format."""
+        model = f'model="{self.model}"'
+        lines = []
+
+        def metric(name, kind, help_text, samples):
+            lines.append(f"# HELP codecomprehender_{name} {help_text}")
+            lines.append(f"# TYPE codecomprehender_{name} {kind}")
+            for labels, value in samples:
+                lines.append(f"codecomprehender_{name}{{{labels}}} {value}")
+
+        metric("llm_requests_total", "counter", "Completion requests made.",
+               [(f'{model},kind="{kind}"', count) for kind, count in sorted(self.by_kind.items())])
+        metric("llm_requests_failed_total", "counter", "Completion requests that failed after retries.",
+               [(model, self.failed)])
+        metric("llm_retries_total", "counter", "Retried completion attempts.", [(model, self.retries)])
+        metric("llm_errors_total", "counter", "Failed attempts by error class.",
+               [(f'{model},class="{label}"', count) for label, count in sorted(self.errors.items())])
+        metric("llm_tokens_total", "counter", "Tokens reported in response usage.",
+               [(f'{model},type="prompt"', self.prompt_tokens.total),
+                (f'{model},type="completion"', self.completion_tokens.total)])
+        cost = self.cost_usd()
+        if cost is not None:
+            metric("llm_cost_usd_total", "counter", "Estimated spend from token usage.", [(model, f"{cost:.6f}")])
+
+        for name, histogram, help_text in (
+                ("llm_request_latency_seconds", self.latency_us, "Latency of the attempt that finished a request."),
+                ("llm_queue_wait_seconds", self.queue_wait_us, "Time a request waited for rate and in-flight limits.")):
+            samples = [(f'{model},le="{bound}"', histogram.count_at_most(bound * 1_000_000))
+                       for bound in PROMETHEUS_SECONDS_BUCKETS]
+            samples.append((f'{model},le="+Inf"', histogram.count))
+            metric(name, "histogram", help_text, [])
+            for labels, value in samples:
+                lines.append(f"codecomprehender_{name}_bucket{{{labels}}} {value}")
+            lines.append(f"codecomprehender_{name}_sum{{{model}}} {histogram.total / 1_000_000:.6f}")
+            lines.append(f"codecomprehender_{name}_count{{{model}}} {histogram.count}")
+        return "\n".join(lines) + "\n"
+
+    def save(self, json_path: str, prometheus_path: str = None):
+        """Write the JSON metrics file and, if requested, the Prometheus text file."""
+        with open(json_path, "w", encoding="utf-8") as f:
+            json.dump(self.to_dict(), f, indent=2)
+        if prometheus_path:
+            with open(prometheus_path, "w", encoding="utf-8") as f:
+                f.write(self.to_prometheus())
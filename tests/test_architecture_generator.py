@@ -0,0 +1,65 @@
+import contextlib
+import io
+import unittest
+
+from architecture_generator import DependencyIndex
+
+
+def cls(file_path, package, class_name, imports=(), references=()):
+    return {
+        "class_name": class_name, "package": package, "fqn": f"{package}.{class_name}",
+        "imports": list(imports), "wildcard_imports": [], "references": list(references),
+        "extends": None, "implements": [], "file_path": file_path,
+    }
+
+
+class DependencyIndexTest(unittest.TestCase):
+    def index(self, architecture):
+        with contextlib.redirect_stdout(io.StringIO()) as out:
+            index = DependencyIndex(architecture)
+        return index, out.getvalue()
+
+    def test_resolves_through_imports_then_own_package(self):
+        index, _ = self.index([
+            cls("src/main/java/a/App.java", "a", "App", imports=["b.Util"], references=["Util", "Helper"]),
+            cls("src/main/java/a/Helper.java", "a", "Helper"),
+            cls("src/main/java/b/Util.java", "b", "Util"),
+        ])
+        self.assertEqual(index.dependencies(index.by_fqn["a.App"]), ["a.Helper", "b.Util"])
+
+    def test_external_single_type_import_shadows_package_and_wildcards(self):
+        app = cls("src/main/java/a/App.java", "a", "App", imports=["java.util.List", "c.Math.max"],
+                  references=["List", "Map.Entry", "Math"])
+        app["imports"].append("b")
+        app["wildcard_imports"] = ["b"]
+        index, _ = self.index([
+            app,
+            cls("src/main/java/a/List.java", "a", "List"),
+            cls("src/main/java/b/Map.java", "b", "Map"),
+            cls("src/main/java/c/Math.java", "c", "Math"),
+        ])
+        self.assertIsNone(index.resolve(app, "List"))
+        self.assertEqual(index.resolve(app, "Map.Entry"), "b.Map")
+        self.assertEqual(index.dependencies(app), ["b.Map", "c.Math"])
+
+    def test_duplicate_fqn_prefers_main_sources_and_warns(self):
+        main = cls("src/main/java/a/Util.java", "a", "Util")
+        test = cls("src/test/java/a/Util.java", "a", "Util")
+        index, output = self.index([test, main])
+        self.assertIs(index.by_fqn["a.Util"], main)
+        self.assertEqual(index.by_fqn_all["a.Util"], [main, test])
+        self.assertEqual(index.node_id("a.Util"), "Util")
+        self.assertIn("a.Util is declared in 2 files", output)
+
+        _, output = self.index([test, main])
+        self.assertEqual(output, "")
+
+    def test_generated_copy_loses_to_plain_layout(self):
+        plain = cls("lib/b/Gen.java", "b", "Gen")
+        generated = cls("build/generated-sources/b/Gen.java", "b", "Gen")
+        index, _ = self.index([generated, plain])
+        self.assertIs(index.by_fqn["b.Gen"], plain)
+
+
+if __name__ == "__main__":
+    unittest.main()
@@ -0,0 +1,172 @@
+import contextlib
+import io
+import json
+import os
+import sys
+import tempfile
+import unittest
+import urllib.request
+import uuid
+from unittest import mock
+
+from batch_runner import BatchBackend, collect_requests, run_batch
+
+sys.path.insert(0, os.path.join(os.path.dirname(os.path.dirname(os.path.abspath(__file__))), "benchmarks"))
+import mock_openai_server  # noqa: E402
+from mock_openai_server import MockOpenAIServer, MockSettings  # noqa: E402
+
+
+class HttpBatchBackend(BatchBackend):
+    """Talks to the mock server's /files and /batches endpoints with the standard library."""
+
+    def __init__(self, base_url):
+        self.base_url = base_url
+        self.uploads = 0
+
+    def _call(self, path, data=None, headers=None):
+        request = urllib.request.Request(self.base_url + path, data=data, headers=headers or {})
+        with urllib.request.urlopen(request, timeout=5) as response:
+            return response.read()
+
+    def upload(self, path):
+        self.uploads += 1
+        boundary = uuid.uuid4().hex
+        with open(path, "rb") as f:
+            content = f.read()
+        body = (f'--{boundary}\r\nContent-Disposition: form-data; name="purpose"\r\n\r\nbatch\r\n'
+                f'--{boundary}\r\nContent-Disposition: form-data; name="file"; filename="{os.path.basename(path)}"\r\n'
+                f'Content-Type: application/jsonl\r\n\r\n').encode() + content + f"\r\n--{boundary}--\r\n".encode()
+        headers = {"Content-Type": f"multipart/form-data; boundary={boundary}"}
+        return json.loads(self._call("/files", body, headers))["id"]
+
+    def submit(self, file_id):
+        body = json.dumps({"input_file_id": file_id, "endpoint": "/v1/chat/completions", "completion_window": "24h"})
+        return json.loads(self._call("/batches", body.encode(), {"Content-Type": "application/json"}))["id"]
+
+    def status(self, batch_id):
+        batch = json.loads(self._call(f"/batches/{batch_id}"))
+        counts = batch["request_counts"]
+        return {"status": batch["status"], "output_file_id": batch["output_file_id"],
+                "error_file_id": batch["error_file_id"], "completed": counts["completed"],
+                "failed": counts["failed"], "total": counts["total"]}
+
+    def download(self, file_id):
+        return self._call(f"/files/{file_id}/content").decode("utf-8")
+
+
+class DictStore:
+    def __init__(self):
+        self.comments = {}
+
+    def get(self, key):
+        return self.comments.get(key)
+
+    def put(self, key, comment):
+        self.comments[key] = comment
+
+
+class BatchRunnerTest(unittest.TestCase):
+    def setUp(self):
+        self.tmp = tempfile.TemporaryDirectory()
+        self.addCleanup(self.tmp.cleanup)
+        self.server = MockOpenAIServer(MockSettings(latency_ms=0, latency_dist="fixed"))
+        self.backend = HttpBatchBackend(self.server.start())
+        self.addCleanup(self.server.stop)
+        self.batch_dir = os.path.join(self.tmp.name, ".repo_batch")
+        self.java_files = []
+        self.models = {}
+        self.store = DictStore()
+
+    def add_file(self, name, *methods):
+        """Write a class whose methods each sit on one line and need a generated comment."""
+        path = os.path.join(self.tmp.name, "src", f"{name}.java")
+        os.makedirs(os.path.dirname(path), exist_ok=True)
+        lines = [f"class {name} {{\n"] + [f"    {method}\n" for method in methods] + ["}\n"]
+        with open(path, "w", encoding="utf-8") as f:
+            f.writelines(lines)
+        self.models[path] = {"methods": [
+            {"name": method.split("(")[0].split()[-1], "start": i, "end": i, "kind": "method",
+             "documented": False, "params": [], "returns": "int", "shape": None}
+            for i, method in enumerate(methods, start=1)
+        ]}
+        self.java_files.append((path, path + ".out"))
+
+    def run_batch(self, backend=None, dedup=True):
+        with contextlib.redirect_stdout(io.StringIO()):
+            return run_batch(self.java_files, self.models, self.batch_dir, backend or self.backend, self.store,
+                             poll_interval=0.01, dedup=dedup)
+
+    def test_results_are_mapped_back_by_custom_id(self):
+        self.add_file("A", "int one() { return 1; }", "int two() { return 2; }")
+        self.add_file("B", "int three() { return 3; }")
+        requests, _ = collect_requests(self.java_files, self.models, self.store)
+
+        result = self.run_batch()
+
+        expected = mock_openai_server.MOCK_COMMENT.strip()
+        self.assertEqual((result["requests"], result["failed"]), (3, 0))
+        self.assertEqual(result["comments"], {key: expected for key in requests})
+        self.assertEqual(self.store.comments, result["comments"])
+        self.assertFalse(os.path.exists(self.batch_dir))
+
+    def test_cached_methods_are_not_submitted(self):
+        self.add_file("A", "int one() { return 1; }", "int two() { return 2; }")
+        requests, _ = collect_requests(self.java_files, self.models, self.store)
+        cached = next(iter(requests))
+        self.store.put(cached, "/** Cached. */")
+
+        result = self.run_batch()
+
+        self.assertEqual(result["requests"], 1)
+        self.assertNotIn(cached, result["comments"])
+        self.assertEqual(self.store.get(cached), "/** Cached. */")
+
+    def test_partial_failures_are_counted_and_not_stored(self):
+        self.server.settings.random.seed(3)
+        self.server.settings.error_rate = 0.5
+        self.add_file("A", *(f"int m{i}() {{ return {i}; }}" for i in range(8)))
+        result = self.run_batch()
+
+        self.assertEqual(result["requests"], 8)
+        self.assertGreater(result["failed"], 0)
+        self.assertGreater(len(result["comments"]), 0)
+        self.assertEqual(len(result["comments"]) + result["failed"], 8)
+        self.assertEqual(self.store.comments, result["comments"])
+
+    def test_duplicate_methods_take_the_adapted_leader_comment(self):
+        self.add_file("A", "int total(int left, int right) { return left + right; }")
+        self.add_file("B", "int total(int a, int b) { return a + b; }")
+        requests, followers = collect_requests(self.java_files, self.models, self.store)
+        (follower_key, (leader_key, _, _)), = followers.items()
+
+        with mock.patch.object(mock_openai_server, "MOCK_COMMENT", "/** Adds left and right. */"):
+            result = self.run_batch()
+
+        self.assertEqual(result["requests"], 1)
+        self.assertEqual(list(requests), [leader_key])
+        self.assertEqual(result["comments"][leader_key], "/** Adds left and right. */")
+        self.assertEqual(result["comments"][follower_key], "/** Adds a and b. */")
+        self.assertEqual(self.store.get(follower_key), "/** Adds a and b. */")
+
+    def test_interrupted_run_resumes_the_submitted_jobs(self):
+        self.add_file("A", "int one() { return 1; }", "int two() { return 2; }")
+
+        class Interrupted(Exception):
+            pass
+
+        with mock.patch.object(self.backend, "status", side_effect=Interrupted):
+            with self.assertRaises(Interrupted):
+                self.run_batch()
+        self.assertEqual(self.backend.uploads, 1)
+        self.assertTrue(os.path.exists(os.path.join(self.batch_dir, "state.json")))
+
+        resumed = HttpBatchBackend(self.backend.base_url)
+        result = self.run_batch(resumed)
+
+        self.assertEqual(resumed.uploads, 0)
+        self.assertEqual((result["requests"], result["failed"], len(result["comments"])), (2, 0, 2))
+        self.assertFalse(os.path.exists(self.batch_dir))
+
+
+if __name__ == "__main__":
+    unittest.main()
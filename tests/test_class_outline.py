@@ -0,0 +1,97 @@
+import unittest
+
+from class_outline import build_class_outline, class_signature, comment_summary, declaration_line, existing_javadoc
+
+SOURCE = """\
+package app;
+
+@Service
+public class UserService
+        extends Base implements Closeable {
+    private final Repo repo;
+
+    /**
+     * Finds a user. Returns null when missing.
+     */
+    @Override
+    public User find(long id) {
+        return repo.find(id);
+    }
+
+    public void delete(long id) { repo.delete(id); }
+
+    public void close() {}
+}
+"""
+
+
+def model():
+    return {
+        "class_name": "UserService",
+        "types": [{"name": "UserService", "kind": "class", "line": 3, "start": 2}],
+        "fields": [{"declaration": "private final Repo repo;", "line": 5}],
+        "methods": [
+            {"name": "find", "start": 10, "end": 13},
+            {"name": "delete", "start": 15, "end": 15},
+            {"name": "close", "start": 17, "end": 17},
+        ],
+    }
+
+
+class SummaryTest(unittest.TestCase):
+    def test_first_sentence_of_the_comment(self):
+        self.assertEqual(comment_summary("/**\n * Deletes a user by ID. Fails when locked.\n */"),
+                         "Deletes a user by ID.")
+        self.assertEqual(comment_summary("/** Closes the service */"), "Closes the service")
+
+    def test_tags_only_errors_and_none_have_no_summary(self):
+        self.assertIsNone(comment_summary("/**\n * @param id User ID\n */"))
+        self.assertIsNone(comment_summary(ValueError("failed")))
+        self.assertIsNone(comment_summary(None))
+
+    def test_existing_javadoc_directly_above_the_declaration(self):
+        lines = SOURCE.splitlines(keepends=True)
+        self.assertEqual(existing_javadoc(lines, 10), "".join(lines[7:10]))
+        self.assertIsNone(existing_javadoc(lines, 15))
+        self.assertIsNone(existing_javadoc(lines, 0))
+
+
+class DeclarationTest(unittest.TestCase):
+    def test_annotations_and_body_are_dropped(self):
+        self.assertEqual(declaration_line("@Override\npublic User find(long id) {\n    return null;\n}"),
+                         "public User find(long id)")
+        self.assertEqual(declaration_line('@Deprecated(since = "2") void stop();'), "void stop()")
+        self.assertEqual(declaration_line('@SuppressWarnings({"a", "b"})\nint size() { return 0; }'), "int size()")
+
+    def test_wrapped_class_signature(self):
+        lines = SOURCE.splitlines(keepends=True)
+        self.assertEqual(class_signature(model(), lines),
+                         "public class UserService extends Base implements Closeable")
+        self.assertEqual(class_signature({"class_name": "Empty", "types": []}, lines), "class Empty")
+
+
+class OutlineTest(unittest.TestCase):
+    def test_outline_lists_fields_and_summarized_methods(self):
+        lines = SOURCE.splitlines(keepends=True)
+        outline = build_class_outline(model(), lines, [None, "/** Deletes a user. */", RuntimeError("failed")])
+        self.assertEqual(outline, """\
+public class UserService extends Base implements Closeable {
+    private final Repo repo;
+
+    // Finds a user.
+    public User find(long id);
+    // Deletes a user.
+    public void delete(long id);
+    public void close();
+}""")
+
+    def test_members_over_the_budget_are_counted(self):
+        lines = SOURCE.splitlines(keepends=True)
+        outline = build_class_outline(model(), lines, [None, None, None], token_budget=30)
+        self.assertTrue(outline.startswith("public class UserService extends Base implements Closeable {\n"))
+        self.assertIn("more members omitted", outline)
+        self.assertTrue(outline.endswith("}"))
+
+
+if __name__ == "__main__":
+    unittest.main()
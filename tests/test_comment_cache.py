@@ -0,0 +1,71 @@
+import itertools
+import tempfile
+import unittest
+from unittest import mock
+
+import comment_cache
+from comment_cache import CommentCache, make_cache_key
+
+
+class CacheKeyTest(unittest.TestCase):
+    def test_whitespace_changes_keep_the_key(self):
+        original = "int f(int a) {\n    return a + 1;\n}\n"
+        reformatted = "  int f(int a)   {\n\n\treturn a  + 1;\n}"
+        self.assertEqual(make_cache_key(original, "v1", "m", 0.2), make_cache_key(reformatted, "v1", "m", 0.2))
+
+    def test_prompt_model_temperature_and_tokens_change_the_key(self):
+        key = make_cache_key("int f() { return 1; }", "v1", "m", 0)
+        self.assertEqual(key, make_cache_key("int f() { return 1; }", "v1", "m", 0.0))
+        self.assertEqual(len({
+            key,
+            make_cache_key("int f() { return 1; }", "v2", "m", 0),
+            make_cache_key("int f() { return 1; }", "v1", "other", 0),
+            make_cache_key("int f() { return 1; }", "v1", "m", 0.5),
+            make_cache_key("int f() { return 2; }", "v1", "m", 0),
+            make_cache_key("intf() { return 1; }", "v1", "m", 0),
+        }), 6)
+
+
+class CommentCacheTest(unittest.TestCase):
+    def setUp(self):
+        self.tmp = tempfile.TemporaryDirectory()
+        self.addCleanup(self.tmp.cleanup)
+        # A strictly increasing clock makes last_used order deterministic
+        clock = mock.patch.object(comment_cache.time, "time", side_effect=itertools.count(1).__next__)
+        clock.start()
+        self.addCleanup(clock.stop)
+
+    def open(self, max_entries=100):
+        cache = CommentCache(self.tmp.name, max_entries)
+        self.addCleanup(cache.close)
+        return cache
+
+    def test_hits_and_misses_are_counted(self):
+        cache = self.open()
+        self.assertIsNone(cache.get("a"))
+        cache.put("a", "/** A. */")
+        cache.put("a", "/** A again. */")
+        self.assertEqual(cache.get("a"), "/** A again. */")
+        self.assertEqual(cache.stats(), {"hits": 1, "misses": 1, "hit_rate": 0.5, "entries": 1, "evictions": 0})
+
+    def test_eviction_trims_least_recently_used_to_ninety_percent(self):
+        cache = self.open(max_entries=10)
+        for i in range(10):
+            cache.put(f"k{i}", f"c{i}")
+        cache.get("k0")
+        cache.put("k10", "c10")
+
+        self.assertEqual((cache.stats()["entries"], cache.evictions), (9, 2))
+        self.assertEqual([key for key in (f"k{i}" for i in range(11)) if cache.get(key) is None], ["k1", "k2"])
+
+    def test_entries_survive_reopening(self):
+        cache = CommentCache(self.tmp.name)
+        cache.put("a", "/** A. */")
+        cache.close()
+        reopened = self.open()
+        self.assertEqual(reopened.get("a"), "/** A. */")
+        self.assertEqual(reopened.stats()["entries"], 1)
+
+
+if __name__ == "__main__":
+    unittest.main()
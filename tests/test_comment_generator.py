@@ -0,0 +1,177 @@
+import asyncio
+import json
+import os
+import time
+import unittest
+from types import SimpleNamespace
+from unittest import mock
+
+import comment_generator
+from method_dedup import MethodDeduplicator
+from scheduler import Deferred, RequestScheduler
+
+
+class FakeClient:
+    """Stands in for AsyncOpenAI: records how it was built and which loop used it."""
+
+    instances = []
+
+    def __init__(self, **kwargs):
+        self.kwargs = kwargs
+        self.loops = set()
+        self.calls = 0
+        self.closed = False
+        self.chat = SimpleNamespace(completions=SimpleNamespace(with_raw_response=self))
+        FakeClient.instances.append(self)
+
+    async def create(self, **kwargs):
+        self.loops.add(asyncio.get_running_loop())
+        self.calls += 1
+        message = SimpleNamespace(content="/**\n * Does it.\n */")
+        response = SimpleNamespace(choices=[SimpleNamespace(message=message)], usage=None)
+        return SimpleNamespace(headers={}, parse=lambda: response)
+
+    async def close(self):
+        self.closed = True
+
+
+class SyncWrapperTest(unittest.TestCase):
+    def setUp(self):
+        FakeClient.instances = []
+        patches = [
+            mock.patch.object(comment_generator, "AsyncOpenAI", FakeClient),
+            mock.patch.dict(os.environ, {"OPENAI_API_KEY": "test"}),
+        ]
+        for patch in patches:
+            patch.start()
+            self.addCleanup(patch.stop)
+        self.addCleanup(setattr, comment_generator, "client", None)
+
+    def test_each_call_gets_its_own_closed_client_without_sdk_retries(self):
+        for _ in range(2):
+            self.assertEqual(comment_generator.generate_method_summary("void f() {}"), "/**\n * Does it.\n */")
+        self.assertEqual(len(FakeClient.instances), 2)
+        first, second = FakeClient.instances
+        self.assertTrue(first.closed and second.closed)
+        self.assertNotEqual(first.loops, second.loops)
+        self.assertTrue(all(client.kwargs["max_retries"] == 0 for client in FakeClient.instances))
+        self.assertIsNone(comment_generator.client)
+
+    def test_client_follows_the_running_loop(self):
+        async def client_of_loop():
+            return comment_generator._get_client()
+
+        first = asyncio.run(client_of_loop())
+        second = asyncio.run(client_of_loop())
+        self.assertIsNot(first, second)
+        self.assertEqual(second.kwargs["max_retries"], 0)
+
+
+class DictCache:
+    def __init__(self):
+        self.comments = {}
+
+    def get(self, key):
+        return self.comments.get(key)
+
+    def put(self, key, comment):
+        self.comments[key] = comment
+
+
+class DedupCacheTest(unittest.IsolatedAsyncioTestCase):
+    async def asyncSetUp(self):
+        FakeClient.instances = []
+        for patch in (mock.patch.object(comment_generator, "AsyncOpenAI", FakeClient),
+                      mock.patch.dict(os.environ, {"OPENAI_API_KEY": "test"})):
+            patch.start()
+            self.addCleanup(patch.stop)
+        comment_generator.init_llm_session()
+
+    async def asyncTearDown(self):
+        await comment_generator.close_llm_session()
+
+    async def test_exact_duplicate_is_cached_under_its_own_key(self):
+        leader = "int total(int left, int right) { return left + right; }"
+        follower = "int total(int a, int b) { return a + b; }"
+        cache = DictCache()
+        _, comments = await comment_generator.batch_generate_comments(
+            [leader, follower], cache=cache, dedup=MethodDeduplicator())
+
+        self.assertEqual(FakeClient.instances[-1].calls, 1)
+        self.assertEqual(comments, ["/**\n * Does it.\n */"] * 2)
+        keys = [comment_generator.make_cache_key(code, comment_generator.METHOD_PROMPT_VERSION,
+                                                 comment_generator.MODEL, comment_generator.TEMPERATURE)
+                for code in (leader, follower)]
+        self.assertEqual(sorted(cache.comments), sorted(keys))
+
+        # A later run of the follower alone is served from the cache
+        _, comments = await comment_generator.batch_generate_comments([follower], cache=cache,
+                                                                      dedup=MethodDeduplicator())
+        self.assertEqual(FakeClient.instances[-1].calls, 1)
+        self.assertEqual(comments, ["/**\n * Does it.\n */"])
+
+
+class DeadlineAfterRateLimitTest(unittest.IsolatedAsyncioTestCase):
+    async def test_request_held_by_the_rate_limiter_past_the_deadline_is_deferred(self):
+        FakeClient.instances = []
+        for patch in (mock.patch.object(comment_generator, "AsyncOpenAI", FakeClient),
+                      mock.patch.dict(os.environ, {"OPENAI_API_KEY": "test"})):
+            patch.start()
+            self.addCleanup(patch.stop)
+        scheduler = RequestScheduler(2, deadline=time.time() + 0.05)
+        comment_generator.init_llm_session(2, scheduler=scheduler)
+        guards = comment_generator._get_guards()
+
+        async def slow_acquire(tokens):
+            await asyncio.sleep(0.1)
+
+        with mock.patch.object(guards.rate_limiter, "acquire", side_effect=slow_acquire):
+            with self.assertRaises(Deferred) as raised:
+                await comment_generator._send_completion("prompt", 10, "method", "f", "void f() {}")
+        await comment_generator.close_llm_session()
+
+        self.assertEqual(raised.exception.reason, "deadline")
+        self.assertEqual((scheduler.free, scheduler.reserved_tokens), (2, 0))
+        self.assertEqual(FakeClient.instances[-1].calls, 0)
+
+
+def packed(*entries):
+    return json.dumps({"comments": [{"index": index, "comment": comment} for index, comment in entries]})
+
+
+class PackedResponseTest(unittest.TestCase):
+    def test_entries_are_mapped_by_index_not_position(self):
+        content = packed((2, "/** Two. */"), (0, "/** Zero. */"), (1, "/** One. */"))
+        self.assertEqual(comment_generator.parse_packed_response(content, 3),
+                         {0: "/** Zero. */", 1: "/** One. */", 2: "/** Two. */"})
+
+    def test_missing_indices_are_left_out(self):
+        content = packed((0, "/** Zero. */"), (2, "/** Two. */"))
+        self.assertEqual(comment_generator.parse_packed_response(content, 4), {0: "/** Zero. */", 2: "/** Two. */"})
+
+    def test_out_of_range_duplicate_and_malformed_entries_are_dropped(self):
+        content = json.dumps({"comments": [
+            {"index": 0, "comment": "/** First. */"},
+            {"index": 0, "comment": "/** Second answer for 0. */"},
+            {"index": 3, "comment": "/** Out of range. */"},
+            {"index": -1, "comment": "/** Negative. */"},
+            {"index": "1", "comment": "/** String index. */"},
+            {"index": 1, "comment": "Not a JavaDoc block"},
+            {"comment": "/** No index. */"},
+            "/** Bare string. */",
+        ]})
+        self.assertEqual(comment_generator.parse_packed_response(content, 3), {0: "/** First. */"})
+
+    def test_fenced_and_bare_list_responses(self):
+        fenced = "```json\n" + packed((1, "  /** One. */\n")) + "\n```"
+        self.assertEqual(comment_generator.parse_packed_response(fenced, 2), {1: "/** One. */"})
+        bare = json.dumps([{"index": 0, "comment": "/** Zero. */"}])
+        self.assertEqual(comment_generator.parse_packed_response(bare, 1), {0: "/** Zero. */"})
+
+    def test_unparseable_responses_yield_nothing(self):
+        for content in ("", "### Method 0\n/** Zero. */", '{"comments": {"0": "/** Zero. */"}}', "[1, 2"):
+            self.assertEqual(comment_generator.parse_packed_response(content, 2), {}, content)
+
+
+if __name__ == "__main__":
+    unittest.main()
@@ -0,0 +1,146 @@
+import os
+import tempfile
+import unittest
+
+from comment_splicer import build_edits, iter_spliced, type_comments_for, write_spliced
+
+
+def source(text):
+    return text.lstrip("\n").splitlines(keepends=True)
+
+
+def method(name, start, end):
+    return {"name": name, "start": start, "end": end, "kind": "method", "params": [], "returns": "void"}
+
+
+def type_entry(name, kind, line, start=None):
+    return {"name": name, "kind": kind, "line": line, "start": start}
+
+
+def splice(lines, model, type_comments, method_comments):
+    return "".join(iter_spliced(lines, build_edits(lines, model, type_comments, method_comments)))
+
+
+class BuildEditsTest(unittest.TestCase):
+    def test_several_top_level_types_each_get_their_comment(self):
+        lines = source("""
+class A {
+    void a() {}
+}
+class B {
+    void b() {}
+}
+""")
+        model = {"class_name": "A", "types": [type_entry("A", "class", 0), type_entry("B", "class", 3)],
+                 "methods": [method("a", 1, 1), method("b", 4, 4)]}
+        self.assertEqual(splice(lines, model, ["/** A */", "/** B */"], [None, "/** b */"]), """\
+/** A */
+class A {
+    void a() {}
+}
+/** B */
+class B {
+    /** b */
+    void b() {}
+}
+""")
+
+    def test_nested_types_and_enums_keep_their_indentation(self):
+        lines = source("""
+public class Outer {
+    enum Mode {
+        ON, OFF;
+        boolean on() { return this == ON; }
+    }
+\tstatic class Inner {
+\t\tvoid run() {}
+\t}
+}
+""")
+        model = {"class_name": "Outer",
+                 "types": [type_entry("Outer", "class", 0), type_entry("Mode", "enum", 1),
+                           type_entry("Inner", "class", 5)],
+                 "methods": [method("on", 3, 3), method("run", 6, 6)]}
+        comments = ["/** Outer. */", "/**\n * Mode.\n */", "/** Inner. */"]
+        self.assertEqual(splice(lines, model, comments, ["/** On. */", "/** Run. */"]), """\
+/** Outer. */
+public class Outer {
+    /**
+     * Mode.
+     */
+    enum Mode {
+        ON, OFF;
+        /** On. */
+        boolean on() { return this == ON; }
+    }
+\t/** Inner. */
+\tstatic class Inner {
+\t\t/** Run. */
+\t\tvoid run() {}
+\t}
+}
+""")
+
+    def test_comment_goes_above_annotations(self):
+        lines = source("""
+@Entity
+@Table(name = "t")
+public class Row {
+    @Override
+    @Deprecated(since = "2")
+    public String toString() { return ""; }
+}
+""")
+        model = {"class_name": "Row", "types": [type_entry("Row", "class", 2, start=0)],
+                 "methods": [method("toString", 3, 5)]}
+        spliced = splice(lines, model, type_comments_for(model, "/** Row. */"), ["/** Text. */"])
+        self.assertTrue(spliced.startswith("/** Row. */\n@Entity\n"))
+        self.assertIn("    /** Text. */\n    @Override\n", spliced)
+
+    def test_type_without_start_falls_back_to_its_line(self):
+        lines = source("class A {}\n")
+        model = {"types": [type_entry("A", "class", 0)], "methods": []}
+        self.assertEqual(build_edits(lines, model, ["/** A */"], []), [(0, "/** A */\n")])
+
+    def test_indented_comment_is_dedented_before_reindenting(self):
+        lines = source("""
+class A {
+        void f() {}
+}
+""")
+        model = {"types": [], "methods": [method("f", 1, 1)]}
+        edits = build_edits(lines, model, [], ["\n    /**\n     * F.\n     */\n"])
+        self.assertEqual(edits, [(1, "        /**\n         * F.\n         */\n")])
+
+    def test_type_edit_precedes_method_edit_on_the_same_line(self):
+        lines = source("class A { void f() {} }\n")
+        model = {"class_name": "A", "types": [type_entry("A", "class", 0)], "methods": [method("f", 0, 0)]}
+        edits = build_edits(lines, model, ["/** Type. */"], ["/** Method. */"])
+        self.assertEqual(edits, [(0, "/** Type. */\n"), (0, "/** Method. */\n")])
+
+    def test_unusable_comments_and_lines_past_the_end_are_skipped(self):
+        lines = source("class A {\n}\n")
+        model = {"types": [type_entry("A", "class", 0)], "methods": [method("f", 1, 1), method("g", 5, 6)]}
+        self.assertEqual(build_edits(lines, model, [ValueError("failed")], ["", "/** G. */"]), [])
+
+
+class SpliceOutputTest(unittest.TestCase):
+    def test_edits_at_end_of_file_are_appended(self):
+        lines = source("class A {}\n")
+        self.assertEqual("".join(iter_spliced(lines, [(0, "// a\n"), (1, "// tail\n")])),
+                         "// a\nclass A {}\n// tail\n")
+
+    def test_streaming_to_disk_matches_the_in_memory_splice(self):
+        lines = ["class A {\r\n", "    void f() {}\r\n", "}"]
+        model = {"class_name": "A", "types": [type_entry("A", "class", 0)], "methods": [method("f", 1, 1)]}
+        edits = build_edits(lines, model, ["/** A é. */"], ["/** F. */"])
+        with tempfile.TemporaryDirectory() as tmp:
+            path = os.path.join(tmp, "out", "A.java")
+            write_spliced(path, lines, edits)
+            with open(path, "rb") as f:
+                written = f.read()
+        self.assertEqual(written, "".join(iter_spliced(lines, edits)).encode("utf-8"))
+
+
+if __name__ == "__main__":
+    unittest.main()
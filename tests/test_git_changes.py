@@ -0,0 +1,131 @@
+import os
+import re
+import subprocess
+import tempfile
+import unittest
+from unittest import mock
+
+import git_changes
+from git_changes import carry_over, changed_lines, touched_methods
+
+_METHOD = re.compile(r"^    \S.*\b(\w+)\(.*\{$")
+
+
+def fake_parse(code, path=None):
+    """Enough of parse_java_file for flat test classes: one class, methods closed by '    }'."""
+    lines = code.splitlines()
+    class_line = next(i for i, line in enumerate(lines) if line.startswith("class "))
+    methods = []
+    for i, line in enumerate(lines):
+        match = _METHOD.match(line)
+        if match:
+            end = next(j for j in range(i, len(lines)) if lines[j] == "    }")
+            methods.append({"name": match.group(1), "start": i, "end": end})
+    return {"class_name": "A", "fields": [], "methods": methods,
+            "types": [{"name": "A", "kind": "class", "line": class_line}]}
+
+
+class ChangedLinesTest(unittest.TestCase):
+    def setUp(self):
+        self.tmp = tempfile.TemporaryDirectory()
+        self.repo = self.tmp.name
+        self.git("init", "-q")
+        self.write("A.java", "".join(f"line {i}\n" for i in range(10)))
+        self.write("Gone.java", "class Gone {}\n")
+        self.write("notes.txt", "x\n")
+        self.git("add", "-A")
+        self.git("commit", "-q", "-m", "base")
+
+    def tearDown(self):
+        self.tmp.cleanup()
+
+    def git(self, *args):
+        subprocess.run(["git", "-C", self.repo, "-c", "user.name=t", "-c", "user.email=t@t", *args],
+                       check=True, capture_output=True)
+
+    def write(self, rel_path, text):
+        path = os.path.join(self.repo, rel_path)
+        os.makedirs(os.path.dirname(path), exist_ok=True)
+        with open(path, "w", encoding="utf-8") as f:
+            f.write(text)
+
+    def test_modified_added_and_deleted_files(self):
+        lines = [f"line {i}\n" for i in range(10)]
+        lines[2] = "changed\n"
+        lines.insert(6, "inserted\n")
+        self.write("A.java", "".join(lines))
+        self.write("pkg/New.java", "class New {}\n")
+        self.write("Staged.java", "class Staged {}\n")
+        self.git("add", "Staged.java")
+        self.write("notes.txt", "y\n")
+        os.remove(os.path.join(self.repo, "Gone.java"))
+
+        changes = changed_lines(self.repo, "HEAD")
+        self.assertEqual(changes, {"A.java": {2, 6}, "Staged.java": None, "pkg/New.java": None})
+
+    def test_pure_deletion_marks_both_sides(self):
+        lines = [f"line {i}\n" for i in range(10)]
+        del lines[4:6]
+        self.write("A.java", "".join(lines))
+        self.assertEqual(changed_lines(self.repo, "HEAD"), {"A.java": {3, 4}})
+
+    def test_unknown_revision_raises(self):
+        with self.assertRaises(ValueError):
+            changed_lines(self.repo, "no-such-rev")
+
+
+class CarryOverTest(unittest.TestCase):
+    SOURCE = [
+        "class A {\n",
+        "    void keep() {\n",
+        "        run();\n",
+        "    }\n",
+        "    void edit() {\n",
+        "        run(2);\n",
+        "    }\n",
+        "}\n",
+    ]
+    PREVIOUS = [
+        "/** Class A. */\n",
+        "class A {\n",
+        "    /** Keeps. */\n",
+        "    void keep() {\n",
+        "        run();\n",
+        "    }\n",
+        "    /** Edits. */\n",
+        "    void edit() {\n",
+        "        run(1);\n",
+        "    }\n",
+        "}\n",
+    ]
+
+    def setUp(self):
+        patch = mock.patch.object(git_changes, "parse_java_file", side_effect=fake_parse)
+        patch.start()
+        self.addCleanup(patch.stop)
+        self.model = fake_parse("".join(self.SOURCE))
+
+    def test_touched_methods(self):
+        self.assertEqual(touched_methods(self.model, {5}), {1})
+        self.assertEqual(touched_methods(self.model, {0, 7}), set())
+
+    def test_untouched_methods_and_class_keep_their_comments(self):
+        comments, class_comment = carry_over(self.model, self.SOURCE, self.PREVIOUS, {5}, [0, 1])
+        self.assertEqual(comments, {0: "    /** Keeps. */\n"})
+        self.assertEqual(class_comment, "/** Class A. */\n")
+
+    def test_changed_signature_drops_the_class_comment(self):
+        source = list(self.SOURCE)
+        source[1] = "    void keep(int times) {\n"
+        model = fake_parse("".join(source))
+        comments, class_comment = carry_over(model, source, self.PREVIOUS, {1}, [0, 1])
+        self.assertEqual(comments, {})
+        self.assertIsNone(class_comment)
+
+    def test_only_requested_methods_are_carried(self):
+        comments, _ = carry_over(self.model, self.SOURCE, self.PREVIOUS, set(), [1])
+        self.assertEqual(comments, {})
+
+
+if __name__ == "__main__":
+    unittest.main()
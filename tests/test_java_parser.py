@@ -0,0 +1,147 @@
+import unittest
+
+import javalang
+
+from java_parser import _member_fields, match_braces, method_extent, parse_java_file
+
+
+def extent(code, name):
+    """Token values of the member declaring name, and the value of the token after it."""
+    tokens = list(javalang.tokenizer.tokenize(code))
+    index = next(i for i, token in enumerate(tokens)
+                 if token.value == name and i + 1 < len(tokens) and tokens[i + 1].value == "(")
+    first, last = method_extent(tokens, match_braces(tokens), index)
+    values = [token.value for token in tokens]
+    return values[first:last + 1], values[last + 1] if last + 1 < len(values) else None
+
+
+class MatchBracesTest(unittest.TestCase):
+    def test_braces_in_strings_chars_and_comments_do_not_count(self):
+        code = """
+class A {
+    void f() {
+        String open = "{";
+        char close = '}';
+        // }
+        /* { */
+        if (open.isEmpty()) { return; }
+    }
+    void g() {}
+}
+"""
+        tokens = list(javalang.tokenizer.tokenize(code))
+        pairs = match_braces(tokens)
+        braces = [i for i, token in enumerate(tokens) if token.value in ("{", "}")]
+        self.assertEqual(len(braces), 8)
+        self.assertEqual(pairs[braces[0]], braces[-1])
+        self.assertEqual(pairs[braces[1]], braces[4])
+
+    def test_unbalanced_closing_brace_is_ignored(self):
+        tokens = list(javalang.tokenizer.tokenize("} class A { }"))
+        self.assertEqual(match_braces(tokens), {3: 4})
+
+
+class MethodExtentTest(unittest.TestCase):
+    def test_body_ends_at_its_own_closing_brace(self):
+        values, following = extent("""
+class A {
+    void f() {
+        String open = "{";
+        char close = '}';
+        // }
+    }
+    void g() {}
+}
+""", "f")
+        self.assertEqual(values[0], "void")
+        self.assertEqual(values[-1], "}")
+        self.assertEqual(following, "void")
+
+    def test_abstract_and_interface_methods_end_at_the_semicolon(self):
+        values, following = extent("abstract class A { int x; protected abstract int size(); void g() {} }", "size")
+        self.assertEqual(values, ["protected", "abstract", "int", "size", "(", ")", ";"])
+        self.assertEqual(following, "void")
+
+        values, _ = extent("interface B { void run(int times); }", "run")
+        self.assertEqual(values, ["void", "run", "(", "int", "times", ")", ";"])
+
+    def test_annotation_arrays_do_not_end_the_declaration(self):
+        values, _ = extent("""
+class A {
+    int x;
+    @SuppressWarnings({"a", "b"})
+    @Deprecated
+    public void f() { }
+}
+""", "f")
+        self.assertEqual(values[:3], ["@", "SuppressWarnings", "("])
+        self.assertEqual(values[-2:], ["{", "}"])
+
+    def test_generic_method_includes_its_type_parameters(self):
+        values, following = extent("""
+class A {
+    public static <T extends Comparable<T>> T max(java.util.List<T> items) { return items.get(0); }
+    void g() {}
+}
+""", "max")
+        self.assertEqual(values[:3], ["public", "static", "<"])
+        self.assertEqual(values[-1], "}")
+        self.assertEqual(following, "void")
+
+    def test_anonymous_and_local_classes_stay_inside_the_method(self):
+        code = """
+class A {
+    void f() {
+        Runnable r = new Runnable() {
+            @Override
+            public void run() { }
+        };
+        class Local { int g() { return 1; } }
+    }
+    void h() {}
+}
+"""
+        values, following = extent(code, "f")
+        self.assertEqual(values[0], "void")
+        self.assertEqual(following, "void")
+        self.assertIn("Local", values)
+
+        values, following = extent(code, "run")
+        self.assertEqual(values[:2], ["@", "Override"])
+        self.assertEqual(following, "}")
+
+        values, following = extent(code, "g")
+        self.assertEqual(values, ["int", "g", "(", ")", "{", "return", "1", ";", "}"])
+        self.assertEqual(following, "}")
+
+
+class MemberFieldsTest(unittest.TestCase):
+    def test_fields_inside_any_method_range_are_dropped(self):
+        methods = [{"start": 10, "end": 30}, {"start": 12, "end": 14}, {"start": 2, "end": 4}, {"start": 40, "end": 40}]
+        fields = [{"line": line} for line in (None, 0, 3, 5, 11, 13, 20, 30, 31, 40, 41)]
+        self.assertEqual([field["line"] for field in _member_fields(fields, methods)], [None, 0, 5, 31, 41])
+
+    def test_no_methods_keeps_every_field(self):
+        fields = [{"line": 1}, {"line": None}]
+        self.assertEqual(_member_fields(fields, []), fields)
+
+
+@unittest.skipUnless(hasattr(javalang, "parser"), "javalang parser not available")
+class ParseJavaFileTest(unittest.TestCase):
+    def test_method_lines_span_annotations_to_closing_brace(self):
+        model = parse_java_file("""class A {
+    @Override
+    public String toString() {
+        return "}";
+    }
+
+    interface Shape { double area(); }
+}
+""")
+        methods = {method["name"]: method for method in model["methods"]}
+        self.assertEqual((methods["toString"]["start"], methods["toString"]["end"]), (1, 4))
+        self.assertEqual((methods["area"]["start"], methods["area"]["end"]), (6, 6))
+
+
+if __name__ == "__main__":
+    unittest.main()
@@ -0,0 +1,87 @@
+import os
+import shutil
+import tempfile
+import unittest
+
+from journal import JOURNAL_NAME, Journal, JournaledCache, apply_journal_to_manifest, replay_journal
+
+
+class ReplayJournalTest(unittest.TestCase):
+    def setUp(self):
+        self.tmp = tempfile.TemporaryDirectory()
+        self.root = self.tmp.name
+
+    def tearDown(self):
+        self.tmp.cleanup()
+
+    def test_missing_journal_replays_nothing(self):
+        self.assertEqual(replay_journal(self.root), {"comments": {}, "files": {}, "failures": {}})
+
+    def test_last_record_per_file_wins_and_torn_lines_are_skipped(self):
+        journal = Journal(self.root)
+        journal.record_comment("k1", "/** One. */")
+        journal.record_failure("A.java", "boom")
+        journal.record_file("A.java", {"sha256": "a"})
+        journal.record_file("B.java", {"sha256": "b"})
+        journal.record_failure("B.java", "boom")
+        journal.close()
+        with open(os.path.join(self.root, JOURNAL_NAME), "a", encoding="utf-8") as f:
+            f.write('{"type": "comment", "key": "k2", "comm')
+
+        state = replay_journal(self.root)
+        self.assertEqual(state["comments"], {"k1": "/** One. */"})
+        self.assertEqual(state["files"], {"A.java": {"sha256": "a"}})
+        self.assertEqual(state["failures"], {"B.java": "boom"})
+
+        manifest = {"files": {}}
+        self.assertEqual(apply_journal_to_manifest(state, manifest), 1)
+        self.assertEqual(manifest["files"], {"A.java": {"sha256": "a"}})
+
+    def test_reopening_keeps_the_previous_runs_comments(self):
+        first = Journal(self.root)
+        JournaledCache(first).put("k1", "/** One. */")
+        first.close()
+
+        second = Journal(self.root)
+        second.record_comment("k2", "/** Two. */")
+        second.close()
+        self.assertEqual(set(replay_journal(self.root)["comments"]), {"k1", "k2"})
+
+    def test_comments_survive_a_wiped_output_tree(self):
+        journal = Journal(self.root)
+        journal.record_comment("k1", "/** One. */")
+        journal.close()
+        state = replay_journal(self.root)
+        shutil.rmtree(self.root)
+        os.makedirs(self.root)
+
+        journal = Journal(self.root)
+        journal.keep_comments(state["comments"])
+        journal.close()
+        self.assertEqual(replay_journal(self.root)["comments"], {"k1": "/** One. */"})
+
+    def test_keep_comments_does_not_duplicate_an_intact_journal(self):
+        journal = Journal(self.root)
+        journal.record_comment("k1", "/** One. */")
+        journal.close()
+
+        journal = Journal(self.root)
+        journal.keep_comments(replay_journal(self.root)["comments"])
+        journal.close()
+        with open(os.path.join(self.root, JOURNAL_NAME), encoding="utf-8") as f:
+            self.assertEqual(len(f.readlines()), 1)
+
+    def test_reset_clears_records_and_failures(self):
+        journal = Journal(self.root)
+        journal.record_failure("A.java", "boom")
+        self.assertEqual(journal.failures, 1)
+        journal.reset()
+        journal.record_comment("k2", "/** Two. */")
+        journal.close()
+        self.assertEqual(journal.failures, 0)
+        self.assertEqual(replay_journal(self.root),
+                         {"comments": {"k2": "/** Two. */"}, "files": {}, "failures": {}})
+
+
+if __name__ == "__main__":
+    unittest.main()
@@ -0,0 +1,64 @@
+import os
+import tempfile
+import unittest
+from unittest import mock
+
+import manifest
+from manifest import _output_intact, commented_output_path, record_output, sync_repo
+
+
+class OutputIntactTest(unittest.TestCase):
+    def setUp(self):
+        self.tmp = tempfile.TemporaryDirectory()
+        self.root = self.tmp.name
+        self.output = os.path.join(self.root, commented_output_path("A.java"))
+        with open(self.output, "w", encoding="utf-8") as f:
+            f.write("/** A. */\nclass A {}\n")
+        self.manifest = {"files": {"A.java": {"size": 1, "mtime_ns": 1, "sha256": "x"}}}
+        record_output(self.root, self.manifest, "A.java")
+        self.entry = self.manifest["files"]["A.java"]
+
+    def tearDown(self):
+        self.tmp.cleanup()
+
+    def test_unchanged_output_is_not_hashed(self):
+        with mock.patch.object(manifest, "file_digest", side_effect=AssertionError("hashed")):
+            self.assertTrue(_output_intact(self.root, "A.java", self.entry))
+
+    def test_touched_output_with_same_content_refreshes_mtime(self):
+        os.utime(self.output, ns=(0, self.entry["output_mtime_ns"] + 10_000_000))
+        self.assertTrue(_output_intact(self.root, "A.java", self.entry))
+        self.assertEqual(self.entry["output_mtime_ns"], os.stat(self.output).st_mtime_ns)
+
+    def test_edited_output_is_not_intact(self):
+        with open(self.output, "a", encoding="utf-8") as f:
+            f.write("// edited\n")
+        self.assertFalse(_output_intact(self.root, "A.java", self.entry))
+
+    def test_missing_output_is_not_intact(self):
+        os.remove(self.output)
+        self.assertFalse(_output_intact(self.root, "A.java", self.entry))
+
+    def test_non_java_files_have_no_output(self):
+        self.assertTrue(_output_intact(self.root, "README.md", {}))
+
+
+class SyncRepoTest(unittest.TestCase):
+    def test_second_sync_skips_files_with_intact_outputs(self):
+        with tempfile.TemporaryDirectory() as src, tempfile.TemporaryDirectory() as dest:
+            with open(os.path.join(src, "A.java"), "w", encoding="utf-8") as f:
+                f.write("class A {}\n")
+            files = {"version": 1, "settings": {}, "files": {}}
+            plan = sync_repo(src, dest, files)
+            self.assertEqual(plan["to_process"], ["A.java"])
+            with open(os.path.join(dest, "A_commented.java"), "w", encoding="utf-8") as f:
+                f.write("/** A. */\nclass A {}\n")
+            record_output(dest, files, "A.java")
+
+            plan = sync_repo(src, dest, files)
+            self.assertEqual(plan["to_process"], [])
+            self.assertEqual(plan["unchanged"], ["A.java"])
+
+
+if __name__ == "__main__":
+    unittest.main()
@@ -0,0 +1,32 @@
+import unittest
+
+from method_classifier import humanize, template_comment
+
+
+class HumanizeTest(unittest.TestCase):
+    def test_camel_and_snake_case(self):
+        self.assertEqual(humanize("firstName"), "first name")
+        self.assertEqual(humanize("MAX_SIZE"), "max size")
+        self.assertEqual(humanize("user_id"), "user id")
+
+    def test_acronyms_are_split_from_following_words(self):
+        self.assertEqual(humanize("HTTPServerConfig"), "HTTP server config")
+        self.assertEqual(humanize("parseURLPath"), "parse URL path")
+        self.assertEqual(humanize("getID"), "get ID")
+        self.assertEqual(humanize("IOException"), "IO exception")
+
+    def test_digits_stay_with_their_word(self):
+        self.assertEqual(humanize("utf8String"), "utf8 string")
+        self.assertEqual(humanize("HTTP2Client"), "HTTP2 client")
+
+
+class TemplateCommentTest(unittest.TestCase):
+    def test_getter_uses_humanized_field(self):
+        comment = template_comment({"name": "getBaseURL", "returns": "String",
+                                    "shape": {"kind": "getter", "field": "baseURLValue"}})
+        self.assertIn("Returns base URL value.", comment)
+        self.assertIn("@return Base URL value", comment)
+
+
+if __name__ == "__main__":
+    unittest.main()
@@ -0,0 +1,88 @@
+import asyncio
+import unittest
+
+from method_dedup import MethodDeduplicator, adapt_comment, canonicalize, parameter_names
+
+
+class CanonicalizeTest(unittest.TestCase):
+    def test_parameters_and_locals_become_placeholders(self):
+        canonical, names = canonicalize("int sum(int a, int b) { int total = a + b; return total; }")
+        self.assertEqual(names, ("a", "b", "total"))
+        self.assertIn("$v2", canonical)
+        self.assertIn("sum", canonical)
+
+    def test_renamed_copies_share_a_canonical_form(self):
+        first, _ = canonicalize("int sum(int a, int b) { return a + b; }")
+        second, _ = canonicalize("int sum(int x, int y) { return x + y; }")
+        self.assertEqual(first, second)
+
+    def test_generic_types_end_a_declaration(self):
+        _, names = canonicalize("void f(Map<String, List<Integer>> byName) { List<String> keys = g(byName); }")
+        self.assertEqual(names, ("byName", "keys"))
+
+    def test_comparisons_and_call_arguments_are_not_declarations(self):
+        _, names = canonicalize("boolean full() { check(count > limit); return size < max; }")
+        self.assertEqual(names, ())
+
+    def test_array_types_end_a_declaration(self):
+        _, names = canonicalize("void f(int[] values) { values[0] = 1; }")
+        self.assertEqual(names, ("values",))
+
+    def test_parameter_names_ignore_locals(self):
+        self.assertEqual(parameter_names("void f(int a, String b) { int c = a; }"), ("a", "b"))
+
+
+class AdaptCommentTest(unittest.TestCase):
+    def test_renames_whole_words_only(self):
+        comment = "/**\n * Adds a to ab.\n * @param a First\n */"
+        self.assertEqual(adapt_comment(comment, ("a",), ("x",)), "/**\n * Adds x to ab.\n * @param x First\n */")
+
+
+class MethodDeduplicatorTest(unittest.TestCase):
+    def run_claims(self, near, leader_code, follower_code, comment):
+        async def scenario():
+            dedup = MethodDeduplicator(near)
+            leader = dedup.claim(leader_code)
+            follower = dedup.claim(follower_code)
+            dedup.resolve(leader, comment)
+            result = await dedup.follow(follower) if not follower.leader else None
+            return leader, follower, result
+        return asyncio.run(scenario())
+
+    def test_exact_duplicate_follows_with_its_own_names(self):
+        leader, follower, result = self.run_claims(
+            False, "int sum(int a, int b) { return a + b; }", "int sum(int x, int y) { return x + y; }",
+            "/** Sums a and b.\n * @param a First\n * @param b Second */")
+        self.assertTrue(leader.leader)
+        self.assertFalse(follower.leader)
+        self.assertEqual(result, "/** Sums x and y.\n * @param x First\n * @param y Second */")
+
+    def test_failed_leader_passes_its_error_on(self):
+        async def scenario():
+            dedup = MethodDeduplicator()
+            leader = dedup.claim("int f(int a) { return a; }")
+            follower = dedup.claim("int f(int b) { return b; }")
+            error = Exception("boom")
+            dedup.resolve(leader, error)
+            return error, await dedup.follow(follower)
+        error, result = asyncio.run(scenario())
+        self.assertIs(result, error)
+
+    def test_near_duplicate_rewrites_only_parameter_names(self):
+        body = " ".join(f"log(\"step {i}\");" for i in range(40))
+        leader_code = f"void run(String job) {{ int tries = 0; {body} submit(job); }}"
+        follower_code = f"void run(String task) {{ int attempts = 1; {body} submit(task); }}"
+        _, follower, result = self.run_claims(True, leader_code, follower_code,
+                                              "/** Runs job.\n * @param job Job to run */")
+        self.assertTrue(follower.near)
+        self.assertEqual(result, "/** Runs task.\n * @param task Job to run */")
+
+    def test_near_duplicate_with_other_parameter_count_is_requested(self):
+        body = " ".join(f"log(\"step {i}\");" for i in range(40))
+        _, follower, _ = self.run_claims(True, f"void run(String job) {{ {body} }}",
+                                         f"void run(String job, int retries) {{ {body} }}", "/** Runs job. */")
+        self.assertTrue(follower.leader)
+
+
+if __name__ == "__main__":
+    unittest.main()
@@ -0,0 +1,76 @@
+import asyncio
+import contextlib
+import io
+import unittest
+
+from rate_limiter import CircuitBreaker, parse_duration
+
+
+def trip(breaker, failures):
+    with contextlib.redirect_stdout(io.StringIO()) as out:
+        for _ in range(failures):
+            breaker.record(False)
+    return out.getvalue()
+
+
+class CircuitBreakerTest(unittest.IsolatedAsyncioTestCase):
+    async def test_trips_with_the_observed_error_rate(self):
+        breaker = CircuitBreaker(window=20, min_calls=4, cooldown=30)
+        breaker.record(True)
+        message = trip(breaker, 3)
+        self.assertTrue(breaker.is_open)
+        self.assertEqual(breaker.trips, 1)
+        self.assertIn("3/4", message)
+
+    async def test_successes_below_the_threshold_keep_it_closed(self):
+        breaker = CircuitBreaker(min_calls=4)
+        for success in (True, True, True, False):
+            breaker.record(success)
+        self.assertFalse(breaker.is_open)
+        self.assertFalse(await breaker.wait_if_open())
+
+    async def test_half_open_lets_one_probe_through_and_closes_on_success(self):
+        breaker = CircuitBreaker(min_calls=1, cooldown=0.01)
+        trip(breaker, 1)
+        probe = await breaker.wait_if_open()
+        self.assertTrue(probe)
+        waiter = asyncio.ensure_future(breaker.wait_if_open())
+        await asyncio.sleep(0.02)
+        self.assertFalse(waiter.done())
+
+        breaker.record(False)  # sent before the breaker opened
+        self.assertFalse(waiter.done())
+        breaker.record(True, probe=True)
+        self.assertFalse(await asyncio.wait_for(waiter, timeout=1))
+        self.assertFalse(breaker.is_open)
+
+    async def test_failed_probe_reopens(self):
+        breaker = CircuitBreaker(min_calls=1, cooldown=0.01)
+        trip(breaker, 1)
+        self.assertTrue(await breaker.wait_if_open())
+        with contextlib.redirect_stdout(io.StringIO()):
+            breaker.record(False, probe=True)
+        self.assertTrue(breaker.is_open)
+        self.assertEqual(breaker.trips, 2)
+        self.assertTrue(await asyncio.wait_for(breaker.wait_if_open(), timeout=1))
+
+    async def test_abandoned_probe_passes_to_the_next_waiter(self):
+        breaker = CircuitBreaker(min_calls=1, cooldown=0.01)
+        trip(breaker, 1)
+        self.assertTrue(await breaker.wait_if_open())
+        waiter = asyncio.ensure_future(breaker.wait_if_open())
+        await asyncio.sleep(0)
+        breaker.abandon_probe()
+        self.assertTrue(await asyncio.wait_for(waiter, timeout=1))
+
+
+class ParseDurationTest(unittest.TestCase):
+    def test_forms(self):
+        self.assertEqual(parse_duration("1.5"), 1.5)
+        self.assertEqual(parse_duration("6m0s"), 360.0)
+        self.assertEqual(parse_duration("20ms"), 0.02)
+        self.assertIsNone(parse_duration(None))
+
+
+if __name__ == "__main__":
+    unittest.main()
@@ -0,0 +1,116 @@
+import asyncio
+import heapq
+import time
+import unittest
+from types import SimpleNamespace
+
+from scheduler import Deferred, RequestScheduler, is_public, parse_deadline
+
+
+class AdmissionTest(unittest.IsolatedAsyncioTestCase):
+    async def test_free_slots_admit_immediately_and_reserve_tokens(self):
+        scheduler = RequestScheduler(2)
+        await scheduler.acquire(10, 5)
+        await scheduler.acquire(20, 5)
+        self.assertEqual(scheduler.free, 0)
+        self.assertEqual(scheduler.reserved_tokens, 40)
+
+    async def test_released_slot_goes_to_largest_waiter(self):
+        scheduler = RequestScheduler(1, order="largest-first")
+        held = await scheduler.acquire(1, 1)
+        small = asyncio.ensure_future(scheduler.acquire(10, 0))
+        large = asyncio.ensure_future(scheduler.acquire(100, 0))
+        await asyncio.sleep(0)
+        scheduler.release(held)
+        slot = await asyncio.wait_for(large, timeout=1)
+        self.assertFalse(small.done())
+        scheduler.release(slot)
+        self.assertEqual((await small).tokens, 10)
+
+    async def test_release_settles_actual_usage(self):
+        scheduler = RequestScheduler(1, pricing=(1.0, 2.0))
+        slot = await scheduler.acquire(100, 50)
+        scheduler.release(slot, SimpleNamespace(prompt_tokens=100, completion_tokens=10))
+        self.assertEqual((scheduler.free, scheduler.reserved_tokens, scheduler.spent_tokens), (1, 0, 110))
+        self.assertAlmostEqual(scheduler.spent_usd, 120 / 1_000_000)
+
+    async def test_request_over_budget_is_deferred(self):
+        scheduler = RequestScheduler(4, budget_tokens=100)
+        await scheduler.acquire(50, 30)
+        with self.assertRaises(Deferred) as raised:
+            await scheduler.acquire(10, 20)
+        self.assertEqual(raised.exception.reason, "budget")
+        self.assertEqual(scheduler.deferred["budget"], 1)
+
+    async def test_waiter_no_longer_fitting_the_budget_is_deferred_on_dispatch(self):
+        scheduler = RequestScheduler(1, budget_tokens=100)
+        held = await scheduler.acquire(40, 0)
+        waiter = asyncio.ensure_future(scheduler.acquire(50, 0))
+        await asyncio.sleep(0)
+        scheduler.release(held, SimpleNamespace(prompt_tokens=60, completion_tokens=0))
+        with self.assertRaises(Deferred):
+            await waiter
+
+    async def test_stale_waiters_do_not_block_a_free_slot(self):
+        scheduler = RequestScheduler(1)
+        for sequence in range(2):
+            stale = asyncio.get_running_loop().create_future()
+            stale.cancel()
+            heapq.heappush(scheduler._waiting, ((sequence,), stale, None))
+        slot = await asyncio.wait_for(scheduler.acquire(1, 1), timeout=1)
+        self.assertEqual(slot.tokens, 2)
+        self.assertEqual(scheduler.free, 0)
+
+    async def test_cancelled_waiter_leaves_the_slot_to_the_next(self):
+        scheduler = RequestScheduler(1)
+        held = await scheduler.acquire(1, 1)
+        cancelled = asyncio.ensure_future(scheduler.acquire(1, 1))
+        waiter = asyncio.ensure_future(scheduler.acquire(2, 2))
+        await asyncio.sleep(0)
+        cancelled.cancel()
+        await asyncio.sleep(0)
+        scheduler.release(held)
+        self.assertEqual((await asyncio.wait_for(waiter, timeout=1)).tokens, 4)
+
+
+class DeadlineTest(unittest.IsolatedAsyncioTestCase):
+    async def test_passed_deadline_defers_without_waiting(self):
+        scheduler = RequestScheduler(1, deadline=time.time() - 1)
+        with self.assertRaises(Deferred) as raised:
+            await scheduler.acquire(1, 1)
+        self.assertEqual(raised.exception.reason, "deadline")
+
+    async def test_waiter_still_queued_at_the_deadline_is_deferred(self):
+        scheduler = RequestScheduler(1, deadline=time.time() + 0.05)
+        held = await scheduler.acquire(1, 1)
+        with self.assertRaises(Deferred) as raised:
+            await scheduler.acquire(1, 1)
+        self.assertEqual(raised.exception.reason, "deadline")
+        self.assertEqual(scheduler.deferred["deadline"], 1)
+        scheduler.release(held)
+        self.assertEqual(scheduler.free, 1)
+
+    def test_admitted_request_is_refused_after_the_deadline(self):
+        scheduler = RequestScheduler(1, deadline=time.time() + 60)
+        scheduler.check_deadline()
+        scheduler.deadline = time.time() - 1
+        with self.assertRaises(Deferred) as raised:
+            scheduler.check_deadline()
+        self.assertEqual(raised.exception.reason, "deadline")
+        self.assertEqual(scheduler.deferred["deadline"], 1)
+
+    def test_parse_deadline_forms(self):
+        now = time.mktime((2026, 10, 18, 12, 0, 0, 0, 0, -1))
+        self.assertEqual(parse_deadline("90m", now), now + 5400)
+        self.assertEqual(parse_deadline("13:00", now), now + 3600)
+        self.assertEqual(parse_deadline("11:00", now), now + 23 * 3600)
+        with self.assertRaises(ValueError):
+            parse_deadline("soon", now)
+
+    def test_is_public_ignores_annotations(self):
+        self.assertTrue(is_public('@Deprecated(since = "1") public void f() {}'))
+        self.assertFalse(is_public("void f(String publicKey) {}"))
+
+
+if __name__ == "__main__":
+    unittest.main()
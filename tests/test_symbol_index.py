@@ -0,0 +1,138 @@
+import os
+import tempfile
+import unittest
+from unittest import mock
+
+import symbol_index
+from architecture_generator import architecture_from_models
+from symbol_index import SymbolIndex
+
+
+def model(rel_path, package, class_name, imports=(), wildcards=(), references=(), extends=None):
+    return {
+        "file_path": rel_path, "package": package, "class_name": class_name,
+        "imports": list(imports) + list(wildcards), "wildcard_imports": list(wildcards),
+        "references": list(references), "extends": extends, "implements": [], "fields": [],
+        "types": [{"name": class_name, "kind": "class", "line": 0, "start": 0, "extends": extends,
+                   "implements": []}],
+        "methods": [{"name": "run", "start": 1, "end": 2, "kind": "method", "params": [], "returns": "void"}],
+    }
+
+
+class SymbolIndexTest(unittest.TestCase):
+    def setUp(self):
+        self.tmp = tempfile.TemporaryDirectory()
+        self.repo = os.path.join(self.tmp.name, "repo")
+        self.index = SymbolIndex(os.path.join(self.tmp.name, "index.sqlite3"))
+        self.models = {}
+        parse = mock.patch.object(symbol_index, "parse_files_parallel", side_effect=self._parse)
+        parse.start()
+        self.addCleanup(parse.stop)
+
+    def tearDown(self):
+        self.index.close()
+        self.tmp.cleanup()
+
+    def _parse(self, paths, root=None, workers=None):
+        return [(path, self.models[os.path.relpath(path, root).replace(os.sep, "/")]) for path in paths]
+
+    def put(self, file_model):
+        rel_path = file_model["file_path"]
+        self.models[rel_path] = file_model
+        path = os.path.join(self.repo, rel_path)
+        os.makedirs(os.path.dirname(path), exist_ok=True)
+        with open(path, "w", encoding="utf-8") as f:
+            f.write(repr(file_model))
+
+    def remove(self, rel_path):
+        del self.models[rel_path]
+        os.remove(os.path.join(self.repo, rel_path))
+
+    def edges(self):
+        return sorted(self.index._conn.execute("SELECT source, target, kind, resolved FROM edges"))
+
+    def assert_edges_match_full_rebuild(self):
+        incremental = self.edges()
+        self.index._rebuild_edges()
+        self.assertEqual(incremental, self.edges())
+
+    def test_new_class_in_own_package_takes_over_wildcard_resolution(self):
+        self.put(model("a/App.java", "a", "App", wildcards=["b"], references=["Util"]))
+        self.put(model("b/Util.java", "b", "Util"))
+        self.put(model("c/Other.java", "c", "Other"))
+        self.index.update(self.repo)
+        self.assertEqual(self.index.dependencies("a.App"), ["b.Util"])
+
+        self.put(model("a/Util.java", "a", "Util"))
+        self.index.update(self.repo)
+        self.assertEqual(self.index.dependencies("a.App"), ["a.Util"])
+        self.assert_edges_match_full_rebuild()
+
+    def test_removed_class_drops_dependent_and_supertype_edges(self):
+        self.put(model("a/App.java", "a", "App", imports=["b.Base"], extends="Base"))
+        self.put(model("b/Base.java", "b", "Base"))
+        self.index.update(self.repo)
+        self.assertEqual(self.index.subclasses("b.Base"), ["a.App"])
+
+        self.remove("b/Base.java")
+        self.index.update(self.repo)
+        self.assertEqual(self.index.dependencies("a.App"), [])
+        self.assertEqual(self.index.subclasses("Base"), ["a.App"])
+        self.assert_edges_match_full_rebuild()
+
+    def test_unrelated_files_are_not_reloaded(self):
+        self.put(model("a/App.java", "a", "App", references=["Util"]))
+        self.put(model("a/Util.java", "a", "Util"))
+        self.put(model("c/Other.java", "c", "Other"))
+        self.index.update(self.repo)
+
+        self.put(model("a/Util.java", "a", "Util", references=["App"]))
+        with mock.patch.object(self.index, "architecture", wraps=self.index.architecture) as architecture:
+            self.index.update(self.repo)
+        self.assertEqual(architecture.call_args.args[0], ["a/Util.java"])
+        self.assert_edges_match_full_rebuild()
+
+    def test_architecture_reads_only_class_columns(self):
+        self.put(model("a/App.java", "a", "App", imports=["b.Base"], extends="Base", references=["Base"]))
+        self.put(model("b/Base.java", "b", "Base"))
+        self.models["a/App.java"]["types"][0]["implements"] = ["Runnable"]
+        self.models["a/App.java"]["types"].insert(0, {"name": "Mode", "kind": "enum", "line": 0, "start": 0,
+                                                      "extends": None, "implements": ["Nested"]})
+        self.index.update(self.repo)
+
+        statements = []
+        self.index._conn.set_trace_callback(statements.append)
+        architecture = self.index.architecture()
+        self.index._conn.set_trace_callback(None)
+
+        self.assertEqual(architecture, architecture_from_models(self.index.models()))
+        self.assertEqual(architecture[0]["implements"], ["Runnable"])
+        self.assertFalse([s for s in statements if "FROM methods" in s or "FROM fields" in s])
+
+    def test_edges_are_served_from_the_index(self):
+        self.put(model("a/App.java", "a", "App", imports=["b.Base"], extends="Base", references=["Base"]))
+        self.put(model("b/Base.java", "b", "Base", extends="java.io.Serializable"))
+        self.index.update(self.repo)
+        self.assertEqual(self.index.edges(), [("a.App", "b.Base", "depends"), ("a.App", "b.Base", "extends"),
+                                              ("b.Base", "java.io.Serializable", "extends")])
+
+    def test_models_filters_every_query_by_path(self):
+        for name in ("A", "B", "C"):
+            self.put(model(f"p/{name}.java", "p", name, imports=["q.Q"], references=["Q"]))
+        self.index.update(self.repo)
+        everything = self.index.models()
+
+        statements = []
+        self.index._conn.set_trace_callback(statements.append)
+        with mock.patch.object(symbol_index, "QUERY_CHUNK", 1):
+            subset = self.index.models(["p/C.java", "p/A.java", "p/C.java", "missing.java"])
+        self.index._conn.set_trace_callback(None)
+
+        self.assertEqual(subset, {path: everything[path] for path in ("p/C.java", "p/A.java")})
+        selects = [s for s in statements if s.startswith("SELECT")]
+        self.assertTrue(selects)
+        self.assertTrue(all(" IN (" in s for s in selects))
+
+
+if __name__ == "__main__":
+    unittest.main()
@@ -0,0 +1,99 @@
+import unittest
+from types import SimpleNamespace
+
+from telemetry import Histogram, Telemetry, current_source
+
+
+class HistogramTest(unittest.TestCase):
+    def test_small_values_are_exact(self):
+        histogram = Histogram()
+        for value in range(1, 101):
+            histogram.record(value)
+        self.assertEqual([histogram.percentile(f) for f in (0.01, 0.5, 0.9, 0.99, 1.0)], [1, 50, 90, 99, 100])
+        self.assertEqual(histogram.summary()["mean"], 50.5)
+
+    def test_large_values_stay_within_one_percent(self):
+        histogram = Histogram()
+        values = [1_000 * i + 7 for i in range(1, 1001)]
+        for value in values:
+            histogram.record(value)
+        for fraction in (0.5, 0.9, 0.99, 0.999):
+            exact = values[int(round(fraction * len(values))) - 1]
+            self.assertLess(abs(histogram.percentile(fraction) - exact) / exact, 0.01)
+        self.assertEqual((histogram.min, histogram.max), (values[0], values[-1]))
+
+    def test_percentiles_are_clamped_to_recorded_range(self):
+        histogram = Histogram()
+        histogram.record(1_000_001)
+        self.assertEqual(histogram.percentile(0.5), 1_000_001)
+
+    def test_empty_and_negative(self):
+        histogram = Histogram()
+        self.assertIsNone(histogram.percentile(0.5))
+        self.assertEqual(histogram.summary(), {"count": 0})
+        histogram.record(-5)
+        self.assertEqual(histogram.summary()["min"], 0)
+
+    def test_summary_scales_values(self):
+        histogram = Histogram()
+        histogram.record(1500)
+        self.assertEqual(histogram.summary(0.001)["p50"], 1.5)
+
+
+class PrometheusTest(unittest.TestCase):
+    def setUp(self):
+        self.telemetry = Telemetry("gpt-4o-mini")
+        usage = SimpleNamespace(prompt_tokens=1000, completion_tokens=100)
+        token = current_source.set("src/A.java")
+        self.addCleanup(current_source.reset, token)
+        self.telemetry.record("method", "run", 0.01, 0.08, usage)
+        self.telemetry.record("method", "stop", 0.2, 3.0, usage, retries=2)
+        self.telemetry.record("class", "A", 0.0, 0.3, None, error=RuntimeError("boom"))
+        self.telemetry.record_error(SimpleNamespace(status_code=429))
+        self.lines = self.telemetry.to_prometheus().splitlines()
+
+    def value(self, sample):
+        line = next(line for line in self.lines if line.startswith(sample + " "))
+        return line.rsplit(" ", 1)[1]
+
+    def test_counters(self):
+        model = 'model="gpt-4o-mini"'
+        self.assertEqual(self.value(f'codecomprehender_llm_requests_total{{{model},kind="class"}}'), "1")
+        self.assertEqual(self.value(f'codecomprehender_llm_requests_total{{{model},kind="method"}}'), "2")
+        self.assertEqual(self.value(f"codecomprehender_llm_requests_failed_total{{{model}}}"), "1")
+        self.assertEqual(self.value(f"codecomprehender_llm_retries_total{{{model}}}"), "2")
+        self.assertEqual(self.value(f'codecomprehender_llm_errors_total{{{model},class="SimpleNamespace (429)"}}'),
+                         "1")
+        self.assertEqual(self.value(f'codecomprehender_llm_tokens_total{{{model},type="prompt"}}'), "2000")
+        self.assertEqual(self.value(f"codecomprehender_llm_cost_usd_total{{{model}}}"), "0.000420")
+
+    def test_latency_histogram_is_cumulative(self):
+        prefix = 'codecomprehender_llm_request_latency_seconds_bucket{model="gpt-4o-mini",le='
+        buckets = [int(self.value(f'{prefix}"{bound}"}}')) for bound in ("0.05", "0.1", "0.5", "2.5", "5", "+Inf")]
+        self.assertEqual(buckets, [0, 1, 2, 2, 3, 3])
+        self.assertEqual(self.value('codecomprehender_llm_request_latency_seconds_count{model="gpt-4o-mini"}'), "3")
+        self.assertEqual(self.value('codecomprehender_llm_request_latency_seconds_sum{model="gpt-4o-mini"}'),
+                         "3.380000")
+
+    def test_every_metric_has_help_and_type(self):
+        names = {line.split()[2] for line in self.lines if line.startswith("# TYPE")}
+        helped = {line.split()[2] for line in self.lines if line.startswith("# HELP")}
+        self.assertEqual(names, helped)
+        for line in self.lines:
+            if not line.startswith("#"):
+                self.assertTrue(any(line.startswith(name) for name in names), line)
+
+    def test_unknown_model_reports_no_cost(self):
+        telemetry = Telemetry("local-model")
+        telemetry.record("method", "run", 0, 0.1, SimpleNamespace(prompt_tokens=10, completion_tokens=1))
+        self.assertNotIn("cost_usd", telemetry.to_prometheus())
+        self.assertIsNone(telemetry.to_dict()["cost_usd"])
+
+    def test_slowest_files_are_tracked_per_source(self):
+        slowest = self.telemetry.to_dict()["slowest_files"]
+        self.assertEqual([(entry["path"], entry["requests"], entry["methods"]) for entry in slowest],
+                         [("src/A.java", 3, ["run", "stop", "A"])])
+
+
+if __name__ == "__main__":
+    unittest.main()
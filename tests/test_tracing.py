@@ -0,0 +1,71 @@
+import json
+import os
+import tempfile
+import time
+import unittest
+
+from tracing import Tracer, current_track
+
+
+class TracerTest(unittest.TestCase):
+    def test_disabled_tracer_only_sums_stage_totals(self):
+        tracer = Tracer()
+        for _ in range(2):
+            with tracer.span("parse", "A.java"):
+                pass
+        with tracer.async_span("request", "m"):
+            pass
+        self.assertEqual(tracer.stage_totals["parse"][1], 2)
+        self.assertEqual(tracer.events, [])
+
+    def test_span_becomes_a_complete_event_on_the_worker_track(self):
+        tracer = Tracer()
+        tracer.enable()
+        token = current_track.set("worker-1")
+        try:
+            with tracer.span("write", "A.java", size=3):
+                pass
+        finally:
+            current_track.reset(token)
+        metadata, event = tracer.events
+        self.assertEqual((metadata["ph"], metadata["args"]["name"]), ("M", "worker-1"))
+        self.assertEqual((event["ph"], event["name"], event["cat"], event["tid"]), ("X", "A.java", "write", 1))
+        self.assertEqual(event["args"], {"size": 3})
+        self.assertGreaterEqual(event["dur"], 0)
+
+    def test_async_spans_pair_begin_and_end_by_id(self):
+        tracer = Tracer()
+        tracer.enable()
+        with tracer.async_span("request", "first"):
+            with tracer.async_span("request", "second"):
+                pass
+        phases = [(e["ph"], e["name"], e["id"]) for e in tracer.events if e["ph"] in "be"]
+        self.assertEqual(phases, [("b", "first", 1), ("b", "second", 2), ("e", "second", 2), ("e", "first", 1)])
+
+    def test_save_writes_chrome_trace_json(self):
+        tracer = Tracer()
+        tracer.enable()
+        with tracer.span("sync"):
+            pass
+        with tempfile.TemporaryDirectory() as tmp:
+            path = os.path.join(tmp, "nested", "trace.json")
+            tracer.save(path)
+            with open(path, encoding="utf-8") as f:
+                trace = json.load(f)
+        self.assertEqual(trace["displayTimeUnit"], "ms")
+        self.assertEqual([e["name"] for e in trace["traceEvents"] if e["ph"] == "X"], ["sync"])
+
+    def test_breakdown_lists_largest_stage_first(self):
+        tracer = Tracer()
+        with tracer.span("fast"):
+            pass
+        with tracer.span("slow"):
+            time.sleep(0.01)
+        lines = tracer.breakdown(wall_seconds=1.0).splitlines()
+        self.assertTrue(lines[1].strip().startswith("slow"))
+        self.assertIn("of wall", lines[1])
+        self.assertTrue(lines[2].strip().startswith("fast"))
+
+
+if __name__ == "__main__":
+    unittest.main()
@@ -0,0 +1,112 @@
+import contextlib
+import io
+import os
+import re
+import tempfile
+import unittest
+
+from visual_architecture import generate_mermaid_diagram, save_sharded_architecture, _unique_ids
+
+# Mermaid class ids: letters, digits and underscores
+_MERMAID_ID = re.compile(r"^\w+$")
+
+
+def cls(package, class_name, extends=None, implements=(), imports=()):
+    return {
+        "class_name": class_name, "package": package, "fqn": f"{package}.{class_name}",
+        "imports": list(imports), "wildcard_imports": [], "references": [],
+        "extends": extends, "implements": list(implements), "file_path": f"{package}/{class_name}.java",
+    }
+
+
+def read(path):
+    with open(path, encoding="utf-8") as f:
+        return f.read()
+
+
+def mermaid_ids(text):
+    ids = set()
+    for line in text.splitlines():
+        line = line.strip()
+        if line.startswith("class "):
+            ids.add(line.split()[1])
+        elif re.search(r" (-->|<\|--|<\|\.\.) ", line):
+            parts = line.split()
+            ids.update((parts[0], parts[2]))
+    return ids
+
+
+class UniqueIdsTest(unittest.TestCase):
+    def test_colliding_names_get_distinct_ids(self):
+        ids = _unique_ids(["a.b_c", "a_b.c", "plain", "Foo", "foo"])
+        self.assertEqual(ids["plain"], "plain")
+        self.assertEqual(len(set(ids.values())), 5)
+        self.assertTrue(ids["a.b_c"].startswith("a_b_c_"))
+
+
+class MermaidTest(unittest.TestCase):
+    def test_external_supertypes_are_sanitized(self):
+        diagram = generate_mermaid_diagram([cls("p", "A", extends="java.util.AbstractList",
+                                                implements=["java.io.Serializable"])])
+        self.assertIn("java_util_AbstractList <|-- A", diagram)
+        self.assertTrue(all(_MERMAID_ID.match(i) for i in mermaid_ids(diagram)))
+
+    def test_given_edges_are_drawn_without_resolving_again(self):
+        architecture = [cls("p", "A", imports=["q.B"]), cls("q", "B")]
+        resolved = generate_mermaid_diagram(architecture)
+        self.assertIn("A --> B", resolved)
+
+        stored = [("q.B", "p.A", "depends"), ("q.B", "java.io.Closeable", "implements")]
+        diagram = generate_mermaid_diagram(architecture, stored)
+        self.assertNotIn("A --> B", diagram)
+        self.assertIn("B --> A", diagram)
+        self.assertIn("java_io_Closeable <|.. B", diagram)
+
+
+class ShardedArchitectureTest(unittest.TestCase):
+    def setUp(self):
+        self.tmp = tempfile.TemporaryDirectory()
+
+    def tearDown(self):
+        self.tmp.cleanup()
+
+    def save(self, architecture, node_cap=200):
+        with contextlib.redirect_stdout(io.StringIO()):
+            return save_sharded_architecture(architecture, self.tmp.name, "repo", node_cap)
+
+    def test_colliding_package_names_write_separate_shards(self):
+        shard_dir = self.save([cls("a.b_c", "X"), cls("a_b.c", "Y")])
+        shards = [name for name in os.listdir(shard_dir)
+                  if name.endswith("_mermaid.md") and name != "packages_mermaid.md"]
+        self.assertEqual(len(shards), 2)
+        contents = "".join(read(os.path.join(shard_dir, name)) for name in shards)
+        self.assertIn("class X", contents)
+        self.assertIn("class Y", contents)
+
+    def test_removed_package_shards_are_deleted(self):
+        shard_dir = self.save([cls("a", "X"), cls("b", "Y", imports=["a.X"])])
+        self.assertTrue(os.path.exists(os.path.join(shard_dir, "b_mermaid.md")))
+        with open(os.path.join(shard_dir, "notes.txt"), "w", encoding="utf-8") as f:
+            f.write("kept")
+
+        self.save([cls("a", "X")])
+        self.assertEqual(sorted(os.listdir(shard_dir)),
+                         ["a.dot", "a_mermaid.md", "notes.txt", "packages.dot", "packages_mermaid.md"])
+        self.assertNotIn('b["b', read(os.path.join(shard_dir, "packages_mermaid.md")))
+
+    def test_package_diagram_ids_and_omitted_note(self):
+        architecture = [cls("p", "A", extends="q.Missing", implements=["java.io.Closeable"])]
+        architecture += [cls("p", f"C{i}") for i in range(3)]
+        shard_dir = self.save(architecture, node_cap=2)
+        text = read(os.path.join(shard_dir, "p_mermaid.md"))
+        self.assertIn("> 4 of 6 nodes omitted (node cap of 2 reached)", text)
+        self.assertTrue(all(_MERMAID_ID.match(i) for i in mermaid_ids(text)))
+
+        shard_dir = self.save(architecture[:1])
+        text = read(os.path.join(shard_dir, "p_mermaid.md"))
+        self.assertIn("q_Missing <|-- A", text)
+        self.assertIn("java_io_Closeable <|.. A", text)
+
+
+if __name__ == "__main__":
+    unittest.main()
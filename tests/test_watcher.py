@@ -0,0 +1,86 @@
+import contextlib
+import errno
+import io
+import os
+import sys
+import tempfile
+import unittest
+from unittest import mock
+
+from watcher import InotifyWatcher, PollingWatcher
+
+
+def write(root, rel_path, text="class A {}\n"):
+    path = os.path.join(root, rel_path)
+    os.makedirs(os.path.dirname(path), exist_ok=True)
+    with open(path, "w", encoding="utf-8") as f:
+        f.write(text)
+
+
+class WatcherTestCase(unittest.TestCase):
+    def setUp(self):
+        self.tmp = tempfile.TemporaryDirectory()
+        self.root = self.tmp.name
+        write(self.root, ".gitignore", "gen/\n")
+        write(self.root, "src/A.java")
+        os.makedirs(os.path.join(self.root, "gen"))
+
+    def tearDown(self):
+        self.tmp.cleanup()
+
+
+class PollingWatcherTest(WatcherTestCase):
+    def test_reports_changes_outside_ignored_directories(self):
+        watcher = PollingWatcher(self.root, interval=0.01)
+        write(self.root, "src/B.java")
+        write(self.root, "gen/Generated.java")
+        paths, rescan = watcher._wait(0.01)
+        self.assertEqual(paths, {"src/B.java"})
+        self.assertFalse(rescan)
+
+
+@unittest.skipUnless(sys.platform.startswith("linux"), "inotify is Linux-only")
+class InotifyWatcherTest(WatcherTestCase):
+    def setUp(self):
+        super().setUp()
+        self.watcher = InotifyWatcher(self.root)
+
+    def tearDown(self):
+        self.watcher.close()
+        super().tearDown()
+
+    def test_gitignored_directories_are_not_watched(self):
+        watched = {rel_dir for rel_dir, _ in self.watcher._dirs.values()}
+        self.assertEqual(watched, {"", "src"})
+
+    def test_reports_written_and_new_directory_files_like_discovery(self):
+        write(self.root, "src/A.java", "class A { void f() {} }\n")
+        write(self.root, "src/pkg/B.java")
+        write(self.root, "gen/Generated.java")
+        paths, rescan = self.watcher._wait(1.0)
+        more, _ = self.watcher._wait(0.1)
+        self.assertEqual(paths | more, {"src/A.java", "src/pkg/B.java"})
+        self.assertFalse(rescan)
+
+    def test_vanished_directory_is_skipped(self):
+        self.watcher._add_tree(os.path.join(self.root, "missing"), "missing", [])
+        self.assertNotIn("missing", {rel_dir for rel_dir, _ in self.watcher._dirs.values()})
+
+    def test_running_out_of_watches_falls_back_to_polling(self):
+        failure = OSError(errno.ENOSPC, "inotify_add_watch failed")
+        with mock.patch.object(InotifyWatcher, "_add_tree", side_effect=failure), \
+                contextlib.redirect_stdout(io.StringIO()):
+            os.makedirs(os.path.join(self.root, "src", "new"))
+            _, rescan = self.watcher._wait(1.0)
+        self.assertTrue(rescan)
+        self.assertEqual(self.watcher.kind, "polling")
+
+    def test_changed_gitignore_requests_a_rescan(self):
+        write(self.root, ".gitignore", "")
+        _, rescan = self.watcher._wait(1.0)
+        self.assertTrue(rescan)
+        self.assertIn("gen", {rel_dir for rel_dir, _ in self.watcher._dirs.values()})
+
+
+if __name__ == "__main__":
+    unittest.main()
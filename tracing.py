@@ -0,0 +1,158 @@
+# tracing.py
+import os
+import json
+import time
+import itertools
+import threading
+import contextvars
+
+# Track (Perfetto thread row) of the running asyncio worker; threads fall back to their own name
+current_track = contextvars.ContextVar("current_track", default=None)
+
+
+class _Span:
+    """Timed region; always adds to the stage totals, emits a trace event only when tracing is on."""
+
+    __slots__ = ("tracer", "stage", "name", "args", "start")
+
+    def __init__(self, tracer, stage: str, name: str, args: dict):
+        self.tracer = tracer
+        self.stage = stage
+        self.name = name
+        self.args = args
+        self.start = 0.0
+
+    def __enter__(self):
+        self.start = time.perf_counter()
+        return self
+
+    def __exit__(self, *exc_info):
+        end = time.perf_counter()
+        tracer = self.tracer
+        totals = tracer.stage_totals.get(self.stage)
+        if totals is None:
+            totals = tracer.stage_totals[self.stage] = [0.0, 0]
+        totals[0] += end - self.start
+        totals[1] += 1
+        if tracer.enabled:
+            tracer._complete(self.stage, self.name, self.start, end, self.args)
+        return False
+
+
+class _AsyncSpan:
+    """Region that may overlap others on the same track (e.g. concurrent API requests)."""
+
+    __slots__ = ("tracer", "category", "name", "args", "id")
+
+    def __init__(self, tracer, category: str, name: str, args: dict):
+        self.tracer = tracer
+        self.category = category
+        self.name = name
+        self.args = args
+        self.id = 0
+
+    def __enter__(self):
+        self.id = next(self.tracer._async_ids)
+        self.tracer._async("b", self.category, self.name, self.id, self.args)
+        return self
+
+    def __exit__(self, *exc_info):
+        self.tracer._async("e", self.category, self.name, self.id, None)
+        return False
+
+
+class _NoSpan:
+    __slots__ = ()
+
+    def __enter__(self):
+        return self
+
+    def __exit__(self, *exc_info):
+        return False
+
+
+_NO_SPAN = _NoSpan()
+
+
+class Tracer:
+    """
+    Stage timing for the commenting run, with optional Chrome trace-event output.
+
+    span() always adds its duration to a per-stage total (two perf_counter
+    calls), which is what the end-of-run breakdown prints. With tracing
+    enabled, every span also becomes a complete ("X") event on the track of
+    the asyncio worker or thread that ran it, and async_span() records
+    overlapping regions such as concurrent API requests as async events.
+    The resulting JSON opens in Perfetto or chrome://tracing.
+    """
+
+    def __init__(self):
+        self.enabled = False
+        self.events = []
+        self.stage_totals = {}
+        self._tracks = {}
+        self._origin = time.perf_counter()
+        self._pid = os.getpid()
+        self._async_ids = itertools.count(1)
+
+    def enable(self):
+        self.enabled = True
+
+    def span(self, stage: str, name: str = None, **args) -> _Span:
+        """Time a region under stage; name and args label its trace event (e.g. the file path)."""
+        return _Span(self, stage, name, args)
+
+    def async_span(self, category: str, name: str, **args):
+        """Trace a region that overlaps others; a no-op unless tracing is enabled."""
+        if not self.enabled:
+            return _NO_SPAN
+        return _AsyncSpan(self, category, name, args)
+
+    def _track_id(self) -> int:
+        track = current_track.get() or threading.current_thread().name
+        tid = self._tracks.get(track)
+        if tid is None:
+            tid = self._tracks[track] = len(self._tracks) + 1
+            self.events.append({"name": "thread_name", "ph": "M", "pid": self._pid, "tid": tid,
+                                "args": {"name": track}})
+        return tid
+
+    def _timestamp(self, moment: float) -> float:
+        return round((moment - self._origin) * 1_000_000, 1)
+
+    def _complete(self, stage: str, name: str, start: float, end: float, args: dict):
+        event = {"name": name or stage, "cat": stage, "ph": "X", "pid": self._pid, "tid": self._track_id(),
+                 "ts": self._timestamp(start), "dur": round((end - start) * 1_000_000, 1)}
+        if args:
+            event["args"] = args
+        self.events.append(event)
+
+    def _async(self, phase: str, category: str, name: str, span_id: int, args):
+        event = {"name": name, "cat": category, "ph": phase, "id": span_id, "pid": self._pid,
+                 "tid": self._track_id(), "ts": self._timestamp(time.perf_counter())}
+        if args:
+            event["args"] = args
+        self.events.append(event)
+
+    def save(self, path: str):
+        """Write the recorded events as Chrome trace-event JSON."""
+        os.makedirs(os.path.dirname(os.path.abspath(path)), exist_ok=True)
+        with open(path, "w", encoding="utf-8") as f:
+            json.dump({"traceEvents": self.events, "displayTimeUnit": "ms"}, f)
+
+    def breakdown(self, wall_seconds: float = None) -> str:
+        """
+        Per-stage summary, largest first.
+
+        Stage time is summed over all workers, so stages that run concurrently
+        (parse, generate, write) can each exceed the wall-clock time.
+        """
+        lines = ["Stage breakdown (busy time summed over workers):"]
+        for stage, (seconds, count) in sorted(self.stage_totals.items(), key=lambda item: -item[1][0]):
+            share = f" ({seconds / wall_seconds:.0%} of wall)" if wall_seconds else ""
+            lines.append(f"  {stage:<16} {seconds:9.2f}s  {count:>7} spans{share}")
+        return "\n".join(lines)
+
+
+# Tracer shared by the run; main enables it for --trace
+tracer = Tracer()
@@ -1,14 +1,42 @@
 # visual_architecture.py
 import os
-from architecture_generator import analyze_repo_architecture
+import hashlib
+from architecture_generator import analyze_repo_architecture, DependencyIndex, class_key
 
+# Sharded output: node limit per package diagram and the name used for the unnamed package
+DEFAULT_NODE_CAP = 200
+DEFAULT_PACKAGE = "(default)"
 
-def generate_mermaid_diagram(architecture: list) -> str:
+
+def class_edges(architecture: list, index: DependencyIndex) -> list:
+    """
+    Resolve the typed edges of every class.
+
+    Returns:
+        List of (source fqn, target, kind) edges, kind being extends, implements or
+        depends; targets of unresolved supertypes are kept as written
+    """
+    edges = []
+    for cls in architecture:
+        source = class_key(cls)
+        typed_targets = []
+        if cls.get("extends"):
+            typed_targets.append((cls["extends"], "extends"))
+        typed_targets.extend((interface, "implements") for interface in cls.get("implements") or [])
+        for name, kind in typed_targets:
+            edges.append((source, index.resolve(cls, name) or name, kind))
+        edges.extend((source, dependency, "depends") for dependency in index.dependencies(cls))
+    # Classes declared in several files share their FQN and their edges
+    return list(dict.fromkeys(edges))
+
+
+def generate_mermaid_diagram(architecture: list, edges: list = None) -> str:
     """
     Generate a Mermaid class diagram from architecture data.
     
     Args:
         architecture: List of class information dictionaries
+        edges: (source fqn, target, kind) edges, e.g. from the symbol index; resolved here if omitted
         
     Returns:
         Mermaid diagram as string
@@ -17,10 +45,16 @@ def generate_mermaid_diagram(architecture: list) -> str:
         return "```mermaid\nclassDiagram\n    note \"No Java classes found\"\n```"
     
     lines = ["```mermaid", "classDiagram"]
+    index = DependencyIndex(architecture)
+    if edges is None:
+        edges = class_edges(architecture, index)
+    # Unresolved supertypes such as java.io.Serializable are not valid Mermaid ids as written
+    ids = _unique_ids([index.node_id(cls) for cls in architecture] +
+                      [index.node_id(target) for _, target, kind in edges if kind != "depends"])
     
     # Define classes
     for cls in architecture:
-        class_name = cls['class_name']
+        class_name = ids[index.node_id(cls)]
         lines.append(f"    class {class_name} {{") 
         
         # Add some basic info as class attributes
@@ -31,39 +65,29 @@ def generate_mermaid_diagram(architecture: list) -> str:
     lines.append("")
     
     # Add inheritance relationships
-    for cls in architecture:
-        class_name = cls['class_name']
-        
-        if cls.get('extends'):
-            parent = cls['extends']
-            lines.append(f"    {parent} <|-- {class_name}")
-        
-        if cls.get('implements'):
-            for interface in cls['implements']:
-                lines.append(f"    {interface} <|.. {class_name}")
+    arrows = {"extends": "<|--", "implements": "<|.."}
+    for source, target, kind in edges:
+        if kind in arrows:
+            lines.append(f"    {ids[index.node_id(target)]} {arrows[kind]} {ids[index.node_id(source)]}")
     
     lines.append("")
     
-    # Add dependency relationships (based on imports)
-    for cls in architecture:
-        class_name = cls['class_name']
-        if cls.get('imports'):
-            for imp in cls['imports']:
-                # Check if this import refers to another class in our architecture
-                imported_class = imp.split('.')[-1]  # Get last part of import
-                if any(c['class_name'] == imported_class for c in architecture):
-                    lines.append(f"    {class_name} --> {imported_class}")
+    # Add dependency relationships (imports, same-package and wildcard references)
+    for source, target, kind in edges:
+        if kind == "depends":
+            lines.append(f"    {ids[index.node_id(source)]} --> {ids[index.node_id(target)]}")
     
     lines.append("```")
     return "\n".join(lines)
 
 
-def generate_graphviz_dot(architecture: list) -> str:
+def generate_graphviz_dot(architecture: list, edges: list = None) -> str:
     """
     Generate Graphviz DOT format diagram.
     
     Args:
         architecture: List of class information dictionaries
+        edges: (source fqn, target, kind) edges, e.g. from the symbol index; resolved here if omitted
         
     Returns:
         DOT format string
@@ -74,41 +98,34 @@ def generate_graphviz_dot(architecture: list) -> str:
         "    node [shape=box, style=filled, fillcolor=lightblue];",
         ""
     ]
+    index = DependencyIndex(architecture)
+    if edges is None:
+        edges = class_edges(architecture, index)
     
     # Define nodes
     for cls in architecture:
-        class_name = cls['class_name']
+        node = index.node_id(cls)
         file_name = os.path.basename(cls['file_path'])
-        lines.append(f'    "{class_name}" [label="{class_name}\\n({file_name})"];')
+        lines.append(f'    "{node}" [label="{cls["class_name"]}\\n({file_name})"];')
     
     lines.append("")
     
-    # Add relationships
-    for cls in architecture:
-        class_name = cls['class_name']
-        
-        # Inheritance
-        if cls.get('extends'):
-            parent = cls['extends']
-            lines.append(f'    "{parent}" -> "{class_name}" [arrowhead=empty, color=blue];')
-        
-        # Interfaces
-        if cls.get('implements'):
-            for interface in cls['implements']:
-                lines.append(f'    "{interface}" -> "{class_name}" [arrowhead=empty, style=dashed, color=green];')
-        
-        # Dependencies
-        if cls.get('imports'):
-            for imp in cls['imports']:
-                imported_class = imp.split('.')[-1]
-                if any(c['class_name'] == imported_class for c in architecture):
-                    lines.append(f'    "{class_name}" -> "{imported_class}" [style=dotted, color=red];')
+    # Add relationships: inheritance and interfaces point at the subclass, dependencies at the target
+    for source, target, kind in edges:
+        source, target = index.node_id(source), index.node_id(target)
+        if kind == "extends":
+            lines.append(f'    "{target}" -> "{source}" [arrowhead=empty, color=blue];')
+        elif kind == "implements":
+            lines.append(f'    "{target}" -> "{source}" [arrowhead=empty, style=dashed, color=green];')
+        else:
+            lines.append(f'    "{source}" -> "{target}" [style=dotted, color=red];')
     
     lines.append("}")
     return "\n".join(lines)
 
 
-def save_visual_architecture(repo_path: str, output_base: str, repo_name: str):
+def save_visual_architecture(repo_path: str, output_base: str, repo_name: str, arch_data: list = None,
+                             edges: list = None):
     """
     Generate and save multiple visual architecture representations.
     
@@ -116,10 +133,13 @@ def save_visual_architecture(repo_path: str, output_base: str, repo_name: str):
         repo_path: Path to the repository
         output_base: Output directory
         repo_name: Name of the repository
+        arch_data: Architecture already built this run; analyzed from repo_path if omitted
+        edges: Stored (source fqn, target, kind) edges matching arch_data; resolved here if omitted
     """
     try:
         # Analyze architecture
-        arch_data = analyze_repo_architecture(repo_path)
+        if arch_data is None:
+            arch_data = analyze_repo_architecture(repo_path)
         
         if not arch_data:
             print("No architecture data found")
@@ -129,7 +149,7 @@ def save_visual_architecture(repo_path: str, output_base: str, repo_name: str):
         os.makedirs(output_base, exist_ok=True)
         
         # Generate Mermaid diagram
-        mermaid_diagram = generate_mermaid_diagram(arch_data)
+        mermaid_diagram = generate_mermaid_diagram(arch_data, edges)
         mermaid_path = os.path.join(output_base, f"{repo_name}_architecture_mermaid.md")
         with open(mermaid_path, "w", encoding='utf-8') as f:
             f.write("# Architecture Diagram\n\n")
@@ -137,7 +157,7 @@ def save_visual_architecture(repo_path: str, output_base: str, repo_name: str):
         print(f"🎨 Mermaid diagram saved to: {mermaid_path}")
         
         # Generate Graphviz DOT
-        dot_diagram = generate_graphviz_dot(arch_data)
+        dot_diagram = generate_graphviz_dot(arch_data, edges)
         dot_path = os.path.join(output_base, f"{repo_name}_architecture.dot")
         with open(dot_path, "w", encoding='utf-8') as f:
             f.write(dot_diagram)
@@ -153,11 +173,258 @@ def save_visual_architecture(repo_path: str, output_base: str, repo_name: str):
         return None
 
 
-def print_visual_architecture(repo_path: str):
+def _package_of(cls: dict) -> str:
+    return cls.get("package") or DEFAULT_PACKAGE
+
+
+def _safe_id(name: str) -> str:
+    """Turn a package or file name into an identifier usable by Mermaid, DOT and file systems."""
+    return "".join(ch if ch.isalnum() else "_" for ch in name)
+
+
+def _unique_ids(names) -> dict:
+    """
+    Map names to _safe_id identifiers that stay distinct.
+
+    Names whose identifiers collide (a.b_c and a_b.c, or Foo and foo on a
+    case-insensitive file system) get a short hash of the name appended.
+    """
+    groups = {}
+    for name in dict.fromkeys(names):
+        groups.setdefault(_safe_id(name).lower(), []).append(name)
+    ids = {}
+    for group in groups.values():
+        for name in group:
+            safe = _safe_id(name)
+            ids[name] = safe if len(group) == 1 else f"{safe}_{hashlib.sha1(name.encode('utf-8')).hexdigest()[:8]}"
+    return ids
+
+
+def _write_lines(path: str, lines):
+    """Stream generated lines straight to disk instead of joining them in memory."""
+    with open(path, "w", encoding='utf-8') as f:
+        for line in lines:
+            f.write(line)
+            f.write("\n")
+
+
+def _collect_graph(architecture: list, index: DependencyIndex, edges: list = None):
+    """
+    Group classes by package and gather typed edges between them.
+    
+    Returns:
+        Tuple of (package -> class entries, list of (source fqn, target, kind) edges,
+        (source package, target package) -> edge count); targets of unresolved
+        supertypes are kept as written
+    """
+    packages = {}
+    package_edges = {}
+    for cls in architecture:
+        packages.setdefault(_package_of(cls), []).append(cls)
+    if edges is None:
+        edges = class_edges(architecture, index)
+
+    for source, target, _ in edges:
+        source_cls = index.by_fqn.get(source)
+        target_cls = index.by_fqn.get(target)
+        if source_cls is None or target_cls is None:
+            continue
+        pair = (_package_of(source_cls), _package_of(target_cls))
+        if pair[0] != pair[1]:
+            package_edges[pair] = package_edges.get(pair, 0) + 1
+    return packages, edges, package_edges
+
+
+def _package_overview_mermaid(packages: dict, package_edges: dict, package_ids: dict):
+    yield "# Package Dependencies"
+    yield ""
+    yield "```mermaid"
+    yield "graph LR"
+    for package in sorted(packages):
+        yield f'    {package_ids[package]}["{package} ({len(packages[package])})"]'
+    for (source, target), weight in sorted(package_edges.items()):
+        yield f"    {package_ids[source]} -->|{weight}| {package_ids[target]}"
+    yield "```"
+
+
+def _package_overview_dot(packages: dict, package_edges: dict):
+    yield "digraph Packages {"
+    yield "    rankdir=LR;"
+    yield "    node [shape=folder, style=filled, fillcolor=lightyellow];"
+    for package in sorted(packages):
+        yield f'    "{package}" [label="{package}\\n({len(packages[package])} classes)"];'
+    for (source, target), weight in sorted(package_edges.items()):
+        yield f'    "{source}" -> "{target}" [label="{weight}", penwidth={min(1 + weight / 5, 8):.1f}];'
+    yield "}"
+
+
+def _package_view(package: str, classes: list, edges_by_class: dict, index: DependencyIndex, node_cap: int):
+    """
+    Select the nodes and edges of one package diagram.
+    
+    Returns:
+        Tuple of (internal fqns, external neighbor names, edges, omitted node count)
+    """
+    internal = [class_key(cls) for cls in classes]
+    internal_set = set(internal)
+    external = []
+    external_set = set()
+    view_edges = []
+    seen_edges = set()
+    for fqn in internal:
+        for edge in edges_by_class.get(fqn, ()):
+            # Edges inside the package are listed under both ends
+            if edge in seen_edges:
+                continue
+            seen_edges.add(edge)
+            source, target, _ = edge
+            other = target if source == fqn else source
+            if other not in internal_set and other not in external_set:
+                external_set.add(other)
+                external.append(other)
+            view_edges.append(edge)
+
+    # Package classes take priority over neighbors when the cap is hit
+    kept_internal = internal[:node_cap]
+    kept_external = external[:max(0, node_cap - len(kept_internal))]
+    kept = set(kept_internal) | set(kept_external)
+    omitted = len(internal) + len(external) - len(kept)
+    view_edges = [edge for edge in view_edges if edge[0] in kept and edge[1] in kept]
+    return kept_internal, kept_external, view_edges, omitted
+
+
+def _package_mermaid(package, internal, external, view_edges, omitted, index, node_cap):
+    arrows = {"extends": "<|--", "implements": "<|..", "depends": "-->"}
+    # External neighbors may be dotted names as written, which Mermaid rejects as ids
+    ids = _unique_ids(index.node_id(name) for name in internal + external)
+
+    def node(name):
+        return ids[index.node_id(name)]
+
+    yield f"# Package `{package}`"
+    yield ""
+    if omitted:
+        yield f"> {omitted} of {len(internal) + len(external) + omitted} nodes omitted (node cap of {node_cap} reached)"
+        yield ""
+    yield "```mermaid"
+    yield "classDiagram"
+    for fqn in internal:
+        cls = index.by_fqn.get(fqn)
+        yield f"    class {node(fqn)} {{"
+        if cls:
+            yield f"        +{os.path.basename(cls['file_path'])}"
+        yield "    }"
+    for name in external:
+        yield f"    class {node(name)} {{"
+        yield "        <<external>>"
+        yield "    }"
+    for source, target, kind in view_edges:
+        if kind == "depends":
+            yield f"    {node(source)} --> {node(target)}"
+        else:
+            yield f"    {node(target)} {arrows[kind]} {node(source)}"
+    yield "```"
+
+
+def _package_dot(package, internal, external, view_edges, omitted, index, node_cap):
+    styles = {
+        "extends": "arrowhead=empty, color=blue",
+        "implements": "arrowhead=empty, style=dashed, color=green",
+        "depends": "style=dotted, color=red",
+    }
+    yield f'digraph "{package}" {{'
+    yield "    rankdir=TB;"
+    yield "    node [shape=box, style=filled, fillcolor=lightblue];"
+    if omitted:
+        yield f'    label="{package} ({omitted} nodes omitted, node cap {node_cap})";'
+    yield f'    subgraph "cluster_{_safe_id(package)}" {{'
+    yield f'        label="{package}";'
+    for fqn in internal:
+        cls = index.by_fqn.get(fqn)
+        file_name = os.path.basename(cls['file_path']) if cls else ""
+        label = cls["class_name"] if cls else fqn
+        yield f'        "{index.node_id(fqn)}" [label="{label}\\n({file_name})"];'
+    yield "    }"
+    for name in external:
+        yield f'    "{index.node_id(name)}" [fillcolor=lightgrey, label="{name}"];'
+    for source, target, kind in view_edges:
+        if kind == "depends":
+            yield f'    "{index.node_id(source)}" -> "{index.node_id(target)}" [{styles[kind]}];'
+        else:
+            yield f'    "{index.node_id(target)}" -> "{index.node_id(source)}" [{styles[kind]}];'
+    yield "}"
+
+
+def save_sharded_architecture(arch_data: list, output_base: str, repo_name: str, node_cap: int = DEFAULT_NODE_CAP,
+                              edges: list = None):
+    """
+    Write one package-level overview plus one diagram per package.
+    
+    The overview aggregates class dependencies into weighted package edges. Each
+    package diagram holds the package's classes and their direct neighbors in other
+    packages, capped at node_cap nodes. Diagrams are streamed to disk one at a time.
+    
+    Args:
+        arch_data: Architecture entries
+        output_base: Output directory
+        repo_name: Name of the repository
+        node_cap: Maximum nodes per package diagram
+        edges: Stored (source fqn, target, kind) edges matching arch_data; resolved here if omitted
+        
+    Returns:
+        Path of the shard directory, or None on failure
+    """
+    try:
+        if not arch_data:
+            print("No architecture data found")
+            return None
+        
+        shard_dir = os.path.join(output_base, f"{repo_name}_architecture_shards")
+        os.makedirs(shard_dir, exist_ok=True)
+        
+        index = DependencyIndex(arch_data)
+        packages, edges, package_edges = _collect_graph(arch_data, index, edges)
+        
+        # One id per package for overview nodes and shard file names
+        package_ids = _unique_ids(packages)
+        _write_lines(os.path.join(shard_dir, "packages_mermaid.md"),
+                     _package_overview_mermaid(packages, package_edges, package_ids))
+        _write_lines(os.path.join(shard_dir, "packages.dot"), _package_overview_dot(packages, package_edges))
+        
+        edges_by_class = {}
+        for edge in edges:
+            edges_by_class.setdefault(edge[0], []).append(edge)
+            if edge[1] != edge[0]:
+                edges_by_class.setdefault(edge[1], []).append(edge)
+        
+        written = {"packages_mermaid.md", "packages.dot"}
+        for package, classes in packages.items():
+            view = _package_view(package, classes, edges_by_class, index, node_cap)
+            name = package_ids[package]
+            _write_lines(os.path.join(shard_dir, f"{name}_mermaid.md"),
+                         _package_mermaid(package, *view, index, node_cap))
+            _write_lines(os.path.join(shard_dir, f"{name}.dot"), _package_dot(package, *view, index, node_cap))
+            written.update((f"{name}_mermaid.md", f"{name}.dot"))
+        
+        # Shards of packages that no longer exist would otherwise linger next to the fresh ones
+        for name in os.listdir(shard_dir):
+            if name not in written and (name.endswith("_mermaid.md") or name.endswith(".dot")):
+                os.remove(os.path.join(shard_dir, name))
+        
+        print(f"🗂️ Sharded diagrams for {len(packages)} packages saved to: {shard_dir}")
+        return shard_dir
+        
+    except Exception as e:
+        print(f"Error generating sharded architecture: {e}")
+        return None
+
+
+def print_visual_architecture(repo_path: str, arch_data: list = None, edges: list = None):
     """Print Mermaid architecture diagram to console."""
     try:
-        arch_data = analyze_repo_architecture(repo_path)
-        mermaid_diagram = generate_mermaid_diagram(arch_data)
+        if arch_data is None:
+            arch_data = analyze_repo_architecture(repo_path)
+        mermaid_diagram = generate_mermaid_diagram(arch_data, edges)
         print("\n" + mermaid_diagram)
     except Exception as e:
         print(f"Error generating visual architecture: {e}")
\ No newline at end of file
@@ -0,0 +1,220 @@
+# watcher.py
+import os
+import time
+import errno
+import ctypes
+import ctypes.util
+import select
+import struct
+
+from repo_discovery import discover_repo, java_sources, RepoScanner, BUILD_FILES, DEFAULT_EXCLUDES
+
+# Quiet period after the last change before an update starts, so one save
+# (or a branch switch touching many files) becomes a single update
+DEFAULT_DEBOUNCE = 0.5
+
+# Seconds between rescans when inotify is unavailable
+DEFAULT_RESCAN_INTERVAL = 1.0
+
+_IN_CLOSE_WRITE = 0x00000008
+_IN_MOVED_FROM = 0x00000040
+_IN_MOVED_TO = 0x00000080
+_IN_CREATE = 0x00000100
+_IN_DELETE = 0x00000200
+_IN_Q_OVERFLOW = 0x00004000
+_IN_IGNORED = 0x00008000
+_IN_ISDIR = 0x40000000
+_IN_NONBLOCK = 0o4000
+_IN_CLOEXEC = 0o2000000
+_WATCH_MASK = _IN_CLOSE_WRITE | _IN_MOVED_FROM | _IN_MOVED_TO | _IN_CREATE | _IN_DELETE
+
+# struct inotify_event header: wd, mask, cookie, len (the name follows)
+_EVENT = struct.Struct("iIII")
+
+
+class _Watcher:
+    kind = None
+
+    def _wait(self, timeout):
+        """Block up to timeout seconds (forever if None); return (changed Java paths, rescan needed)."""
+        raise NotImplementedError
+
+    def changes(self, debounce: float = DEFAULT_DEBOUNCE):
+        """
+        Yield (paths, rescan) once changes have settled for debounce seconds.
+
+        paths holds repo-relative ('/'-separated) Java files that were written,
+        created, moved or deleted; rescan is True when the watcher may have
+        missed events (queue overflow, removed directories) and the caller
+        should rediscover the repository.
+        """
+        while True:
+            paths, rescan = self._wait(None)
+            while True:
+                more, more_rescan = self._wait(debounce)
+                if not more and not more_rescan:
+                    break
+                paths |= more
+                rescan = rescan or more_rescan
+            if paths or rescan:
+                yield paths, rescan
+
+    def close(self):
+        pass
+
+
+class InotifyWatcher(_Watcher):
+    """
+    Linux inotify watcher with one watch per directory, registered through libc.
+
+    Directories and files are filtered with the same RepoScanner rules as
+    discovery, so both backends see the files a full run would. A changed
+    .gitignore re-registers every watch, and running out of watches while the
+    tree grows switches to polling instead of stopping the watch.
+    """
+
+    kind = "inotify"
+
+    def __init__(self, root: str, excludes=DEFAULT_EXCLUDES, skip_dirs=(), use_gitignore: bool = True,
+                 rescan_interval: float = DEFAULT_RESCAN_INTERVAL):
+        self.root = os.path.abspath(root)
+        self._polling_args = (root, excludes, skip_dirs, use_gitignore, rescan_interval)
+        self._scanner = RepoScanner(self.root, excludes, {os.path.abspath(d) for d in skip_dirs}, use_gitignore)
+        self._libc = ctypes.CDLL(ctypes.util.find_library("c") or "libc.so.6", use_errno=True)
+        self._fd = -1
+        self._fallback = None
+        self._watch_all()
+
+    def _watch_all(self):
+        """(Re)create the inotify instance and watch the whole tree."""
+        self.close()
+        self._fd = self._libc.inotify_init1(_IN_NONBLOCK | _IN_CLOEXEC)
+        if self._fd < 0:
+            raise OSError(ctypes.get_errno(), "inotify_init1 failed")
+        self._dirs = {}
+        try:
+            self._add_tree(self.root, "", [])
+        except OSError:
+            self.close()
+            raise
+
+    def _add_tree(self, abs_dir: str, rel_dir: str, rule_sets: list, found: set = None):
+        """Watch a directory and the subdirectories discovery would enter, collecting Java files into found."""
+        stack = [(abs_dir, rel_dir, rule_sets)]
+        while stack:
+            current_abs, current_rel, current_rules = stack.pop()
+            current_rules = self._scanner.rules_for(current_abs, current_rel, current_rules)
+            wd = self._libc.inotify_add_watch(self._fd, os.fsencode(current_abs), _WATCH_MASK)
+            if wd < 0:
+                error = ctypes.get_errno()
+                if error == errno.ENOENT:
+                    # Removed again before it could be watched
+                    continue
+                # ENOSPC here means fs.inotify.max_user_watches is too low for the repo
+                raise OSError(error, f"inotify_add_watch failed for {current_abs}")
+            self._dirs[wd] = (current_rel, current_rules)
+            files, subdirs = [], []
+            self._scanner.scan_dir(current_abs, current_rel, current_rules, files, subdirs)
+            if found is not None:
+                found.update(f.rel_path for f in java_sources(files))
+            stack.extend((sub_abs, sub_rel, current_rules) for sub_abs, sub_rel in subdirs)
+
+    def _fall_back(self, error: OSError):
+        print(f"inotify failed ({error}); polling every {self._polling_args[-1]:g}s")
+        self.close()
+        self._fallback = PollingWatcher(*self._polling_args)
+        self.kind = self._fallback.kind
+
+    def _wait(self, timeout):
+        if self._fallback is not None:
+            return self._fallback._wait(timeout)
+        readable, _, _ = select.select([self._fd], [], [], timeout)
+        paths, rescan, rewatch = set(), False, False
+        if not readable:
+            return paths, rescan
+        while True:
+            try:
+                data = os.read(self._fd, 64 * 1024)
+            except BlockingIOError:
+                break
+            offset = 0
+            while offset < len(data):
+                wd, mask, _, length = _EVENT.unpack_from(data, offset)
+                name = os.fsdecode(data[offset + _EVENT.size:offset + _EVENT.size + length].rstrip(b"\0"))
+                offset += _EVENT.size + length
+                if mask & _IN_Q_OVERFLOW:
+                    rescan = True
+                    continue
+                watched = self._dirs.get(wd)
+                if watched is None:
+                    continue
+                if mask & _IN_IGNORED:
+                    del self._dirs[wd]
+                    continue
+                rel_dir, rule_sets = watched
+                rel_path = f"{rel_dir}/{name}" if rel_dir else name
+                abs_path = os.path.join(self.root, rel_path)
+                if name == ".gitignore":
+                    rewatch = True
+                elif mask & _IN_ISDIR:
+                    if mask & (_IN_CREATE | _IN_MOVED_TO):
+                        parent = os.path.dirname(abs_path)
+                        has_build_file = any(os.path.exists(os.path.join(parent, f)) for f in BUILD_FILES)
+                        if self._scanner.keeps(rel_path, abs_path, True, rule_sets, has_build_file):
+                            try:
+                                self._add_tree(abs_path, rel_path, rule_sets, paths)
+                            except OSError as e:
+                                self._fall_back(e)
+                                return paths, True
+                    else:
+                        rescan = True
+                elif name.endswith(".java") and self._scanner.keeps(rel_path, abs_path, False, rule_sets):
+                    paths.add(rel_path)
+        if rewatch:
+            # New ignore rules change what is watched; start over and let the caller rediscover
+            try:
+                self._watch_all()
+            except OSError as e:
+                self._fall_back(e)
+            rescan = True
+        return paths, rescan
+
+    def close(self):
+        if self._fd >= 0:
+            os.close(self._fd)
+            self._fd = -1
+
+
+class PollingWatcher(_Watcher):
+    """Fallback watcher that rediscovers the repository every interval and compares size and mtime."""
+
+    kind = "polling"
+
+    def __init__(self, root: str, excludes=DEFAULT_EXCLUDES, skip_dirs=(), use_gitignore: bool = True,
+                 interval: float = DEFAULT_RESCAN_INTERVAL):
+        self.interval = interval
+        self._scan = lambda: discover_repo(root, excludes, skip_dirs=skip_dirs, use_gitignore=use_gitignore)
+        self._snapshot = self._take()
+
+    def _take(self) -> dict:
+        return {f.rel_path: (f.size, f.mtime_ns) for f in java_sources(self._scan())}
+
+    def _wait(self, timeout):
+        while True:
+            time.sleep(self.interval if timeout is None else timeout)
+            snapshot = self._take()
+            paths = {path for path in snapshot.keys() | self._snapshot.keys()
+                     if snapshot.get(path) != self._snapshot.get(path)}
+            self._snapshot = snapshot
+            if paths or timeout is not None:
+                return paths, False
+
+
+def create_watcher(root: str, excludes=DEFAULT_EXCLUDES, skip_dirs=(), use_gitignore: bool = True,
+                   rescan_interval: float = DEFAULT_RESCAN_INTERVAL) -> _Watcher:
+    """Watch with inotify where the platform has it, otherwise fall back to polling."""
+    try:
+        return InotifyWatcher(root, excludes, skip_dirs, use_gitignore, rescan_interval)
+    except (OSError, AttributeError) as e:
+        print(f"inotify unavailable ({e}); polling every {rescan_interval:g}s")
+        return PollingWatcher(root, excludes, skip_dirs, use_gitignore, rescan_interval)